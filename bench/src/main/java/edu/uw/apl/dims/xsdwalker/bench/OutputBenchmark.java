@@ -0,0 +1,70 @@
+package edu.uw.apl.dims.xsdwalker.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * @author Stuart Maclean
+ *
+ * Output generation, the report and uber xsd, from an already walked
+ * synthetic graph.  Only the top layer is given as input, so the report
+ * hierarchy covers the whole graph.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class OutputBenchmark {
+
+	@Param( { "1000", "10000" } )
+	public int size;
+
+	@Param( { "4" } )
+	public int fanOut;
+
+	@Param( { "8" } )
+	public int depth;
+
+	@Setup
+	public void setup() throws Exception {
+		dir = TempDirs.create( "output" );
+		List<File> all = SyntheticSchemas.generate
+			( dir, size, fanOut, depth, 0 );
+		List<File> inputs = new ArrayList<File>();
+		for( File f : all ) {
+			if( f.getParentFile().getName().equals( "l0" ) )
+				inputs.add( f );
+		}
+		Object w = Walker.newWalker( true, 4 );
+		graph = Walker.graph( Walker.process( w, inputs ) );
+		report = new File( dir, "bench.txt" );
+		uber = new File( dir, "bench.uber.xsd" );
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		FileUtils.deleteDirectory( dir );
+	}
+
+	@Benchmark
+	public void report() throws Exception {
+		Walker.report( graph, report );
+	}
+
+	@Benchmark
+	public void uber() throws Exception {
+		Walker.toUberXSD( graph, uber );
+	}
+
+	private File dir, report, uber;
+	private Object graph;
+}
+
+// eof
@@ -0,0 +1,52 @@
+package edu.uw.apl.dims.xsdwalker.bench;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * @author Stuart Maclean
+ *
+ * Parser.parse on a single schema, DOM vs streaming (StAX), for schemas
+ * of increasing size.  The imports are up front in each, so the
+ * streaming scan cost should be near constant in schema size, the DOM
+ * cost linear.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class ParserBenchmark {
+
+	@Param( { "true", "false" } )
+	public boolean streaming;
+
+	@Param( { "10", "1000", "10000" } )
+	public int declarations;
+
+	@Setup
+	public void setup() throws Exception {
+		dir = TempDirs.create( "parser" );
+		xsd = SyntheticSchemas.generateOne( dir, declarations );
+		parser = Walker.newParser( streaming );
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		FileUtils.deleteDirectory( dir );
+	}
+
+	@Benchmark
+	public Object parse() throws Exception {
+		return Walker.parse( parser, xsd );
+	}
+
+	private File dir, xsd;
+	private Object parser;
+}
+
+// eof
@@ -0,0 +1,132 @@
+package edu.uw.apl.dims.xsdwalker.bench;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * @author Stuart Maclean
+ *
+ * Reading local schema files: the java.net.URL stream path the Parser
+ * used to take for file: urls, vs the NIO path (LocalFiles) it takes
+ * now.  Both the streaming scan, which reads only the head of each
+ * file, and full reads, as the parse cache (-m) does, into an exact
+ * array, or through the stream the parser would get, over sets of
+ * files with small, mixed, large and huge size distributions.
+ *
+ * Only huge files are at or above LocalFiles.MAP_THRESHOLD, so memory
+ * mapped by the nio path.  The pooled path is nio with mapping turned
+ * off, so at huge sizes, nio vs pooled is mapped vs pooled reads.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class ReadBenchmark {
+
+	@Param( { "url", "nio", "pooled" } )
+	public String path;
+
+	@Param( { "small", "mixed", "large", "huge" } )
+	public String sizes;
+
+	@Setup
+	public void setup() throws Exception {
+		dir = TempDirs.create( "read" );
+		// huge sets fewer, to keep the set in the page cache
+		int count = sizes.equals( "huge" ) ? HUGE_FILES : FILES;
+		files = new ArrayList<File>( count );
+		for( int i = 0; i < count; i++ ) {
+			File sub = new File( dir, "f" + i );
+			files.add( SyntheticSchemas.generateOne
+					   ( sub, declarations( i ) ) );
+		}
+		parser = Walker.newParser( true );
+		nio = !path.equals( "url" );
+		Walker.setMapThreshold( path.equals( "pooled" ) ?
+								Long.MAX_VALUE : -1 );
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		Walker.setMapThreshold( -1 );
+		FileUtils.deleteDirectory( dir );
+	}
+
+	@Benchmark
+	public int scan() throws Exception {
+		int result = 0;
+		for( File f : files ) {
+			Object si = nio ? Walker.parse( parser, f ) :
+				Walker.parseURLStream( parser, f );
+			result += si.hashCode();
+		}
+		return result;
+	}
+
+	@Benchmark
+	public long read() throws Exception {
+		long result = 0;
+		for( File f : files ) {
+			byte[] bs = nio ? Walker.readLocal( f ) : Walker.readURLStream( f );
+			result += bs.length;
+		}
+		return result;
+	}
+
+	/**
+	 * Every byte, through the stream the parser would read.
+	 */
+	@Benchmark
+	public long drain() throws Exception {
+		long result = 0;
+		byte[] buf = new byte[8192];
+		for( File f : files ) {
+			InputStream is = nio ? Walker.openLocal( f ) :
+				f.toURI().toURL().openStream();
+			try {
+				int n;
+				while( ( n = is.read( buf, 0, buf.length ) ) != -1 )
+					result += n;
+			} finally {
+				is.close();
+			}
+		}
+		return result;
+	}
+
+	/*
+	  About 485 bytes per declaration: small ~5KB, medium ~95KB, large
+	  ~970KB (all read via pooled buffers), huge ~5.8MB, over the 4MB
+	  MAP_THRESHOLD, so mapped unless path is pooled.  Mixed is
+	  70/20/10 small/medium/large.
+	*/
+	private int declarations( int i ) {
+		if( sizes.equals( "small" ) )
+			return SMALL;
+		if( sizes.equals( "large" ) )
+			return LARGE;
+		if( sizes.equals( "huge" ) )
+			return HUGE;
+		int k = i % 10;
+		return k < 7 ? SMALL : k < 9 ? MEDIUM : LARGE;
+	}
+
+	static private final int FILES = 40, HUGE_FILES = 8;
+	static private final int SMALL = 10, MEDIUM = 200, LARGE = 2000;
+	static private final int HUGE = 12000;
+
+	private File dir;
+	private List<File> files;
+	private Object parser;
+	private boolean nio;
+}
+
+// eof
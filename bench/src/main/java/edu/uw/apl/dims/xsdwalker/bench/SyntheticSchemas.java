@@ -0,0 +1,121 @@
+package edu.uw.apl.dims.xsdwalker.bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Stuart Maclean
+ *
+ * Generates a synthetic xsd set, so benchmarks need no STIX/CybOX
+ * download.  The set is layered: 'depth' layers, each in its own
+ * subdirectory, 'size' schemas in all.  Each schema imports 'fanOut'
+ * schemas of the next layer down, via relative '../' schemaLocations,
+ * the choice of which is deterministic, so different importers share
+ * imports as in real schema bundles.  Each schema then carries
+ * 'declarations' complexType definitions, which is where real schemas
+ * have most of their bulk.
+ *
+ * Usage: SyntheticSchemas dir size fanOut depth declarations
+ */
+public class SyntheticSchemas {
+
+	/**
+	 * @return The generated files, the top layer first.
+	 */
+	static public List<File> generate( File dir, int size, int fanOut,
+									   int depth, int declarations )
+		throws IOException {
+		int width = Math.max( 1, ( size + depth - 1 ) / depth );
+		List<File> result = new ArrayList<File>( size );
+		int count = 0;
+		for( int l = 0; l < depth && count < size; l++ ) {
+			File layer = new File( dir, "l" + l );
+			layer.mkdirs();
+			int w = 0;
+			for( ; w < width && count < size; w++, count++ ) {
+				int nextWidth = Math.min( width, size - count - ( width - w ) );
+				File f = new File( layer, name( w ) );
+				write( f, l, w, l < depth - 1 ? nextWidth : 0, fanOut,
+					   declarations );
+				result.add( f );
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return A single schema with 'declarations' type definitions and
+	 * a few imports up front, for parser benchmarks.
+	 */
+	static public File generateOne( File dir, int declarations )
+		throws IOException {
+		dir.mkdirs();
+		File f = new File( dir, "single-" + declarations + ".xsd" );
+		write( f, 0, 0, 3, 3, declarations );
+		return f;
+	}
+
+	static private void write( File f, int layer, int w, int nextWidth,
+							   int fanOut, int declarations )
+		throws IOException {
+		PrintWriter pw = new PrintWriter( new FileWriter( f ) );
+		pw.println( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" );
+		pw.println( "<xs:schema" +
+					" xmlns:xs=\"http://www.w3.org/2001/XMLSchema\"" +
+					" targetNamespace=\"" + namespace( layer, w ) + "\"" +
+					" elementFormDefault=\"qualified\">" );
+		for( int k = 0; k < fanOut && nextWidth > 0; k++ ) {
+			int t = ( w * 31 + k * 17 ) % nextWidth;
+			pw.println( "  <xs:import namespace=\"" +
+						namespace( layer + 1, t ) + "\"" +
+						" schemaLocation=\"../l" + ( layer + 1 ) + "/" +
+						name( t ) + "\"/>" );
+		}
+		for( int d = 0; d < declarations; d++ ) {
+			pw.println( "  <xs:complexType name=\"T" + d + "\">" );
+			pw.println( "    <xs:annotation><xs:documentation>" +
+						"Synthetic type " + d + " of " + f.getName() +
+						"</xs:documentation></xs:annotation>" );
+			pw.println( "    <xs:sequence>" );
+			for( int e = 0; e < 4; e++ )
+				pw.println( "      <xs:element name=\"e" + e + "\"" +
+							" type=\"xs:string\" minOccurs=\"0\"/>" );
+			pw.println( "    </xs:sequence>" );
+			pw.println( "    <xs:attribute name=\"id\" type=\"xs:ID\"/>" );
+			pw.println( "  </xs:complexType>" );
+		}
+		pw.println( "</xs:schema>" );
+		pw.close();
+		if( pw.checkError() )
+			throw new IOException( "Writing " + f );
+	}
+
+	static private String name( int w ) {
+		return "s" + w + ".xsd";
+	}
+
+	static private String namespace( int layer, int w ) {
+		return "urn:synthetic:" + layer + ":" + w;
+	}
+
+	public static void main( String[] args ) throws Exception {
+		if( args.length < 5 ) {
+			System.err.println( "Usage: " +
+								SyntheticSchemas.class.getName() +
+								" dir size fanOut depth declarations" );
+			System.exit(1);
+		}
+		List<File> fs = generate( new File( args[0] ),
+								  Integer.parseInt( args[1] ),
+								  Integer.parseInt( args[2] ),
+								  Integer.parseInt( args[3] ),
+								  Integer.parseInt( args[4] ) );
+		System.out.println( "Generated " + fs.size() + " schemas" );
+	}
+}
+
+// eof
@@ -0,0 +1,20 @@
+package edu.uw.apl.dims.xsdwalker.bench;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * @author Stuart Maclean
+ */
+final class TempDirs {
+
+	static File create( String prefix ) throws IOException {
+		File result = File.createTempFile( "xsdwalker-" + prefix, "" );
+		result.delete();
+		if( !result.mkdirs() )
+			throw new IOException( "Cannot create " + result );
+		return result;
+	}
+}
+
+// eof
@@ -0,0 +1,65 @@
+package edu.uw.apl.dims.xsdwalker.bench;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * @author Stuart Maclean
+ *
+ * XSDWalker.process over a synthetic schema set of given size, fan-out
+ * and depth, all files as inputs (as for a directory on the command
+ * line), sequential and concurrent.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class WalkBenchmark {
+
+	@Param( { "100", "1000" } )
+	public int size;
+
+	@Param( { "4" } )
+	public int fanOut;
+
+	@Param( { "8" } )
+	public int depth;
+
+	@Param( { "50" } )
+	public int declarations;
+
+	@Param( { "1", "4" } )
+	public int threads;
+
+	@Param( { "true", "false" } )
+	public boolean streaming;
+
+	@Setup
+	public void setup() throws Exception {
+		dir = TempDirs.create( "walk" );
+		inputs = SyntheticSchemas.generate( dir, size, fanOut, depth,
+											declarations );
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		FileUtils.deleteDirectory( dir );
+	}
+
+	@Benchmark
+	public Object process() throws Exception {
+		Object w = Walker.newWalker( streaming, threads );
+		return Walker.process( w, inputs );
+	}
+
+	private File dir;
+	private List<File> inputs;
+}
+
+// eof
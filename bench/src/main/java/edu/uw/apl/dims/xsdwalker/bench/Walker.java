@@ -0,0 +1,162 @@
+package edu.uw.apl.dims.xsdwalker.bench;
+
+import java.io.File;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * @author Stuart Maclean
+ *
+ * Bridge from the benchmarks to xsdwalker.  JMH will not generate code
+ * for benchmarks in the unnamed package, and classes in the unnamed
+ * package (XSDWalker, Parser, SchemaGraph...) cannot be imported by
+ * classes in any other, so we go via reflection.  Method lookups are
+ * done once, here, so the per-call cost is a Method.invoke, noise next
+ * to any parse or walk.
+ */
+final class Walker {
+
+	static Object newWalker( boolean streaming, int threads )
+		throws Exception {
+		Object result = WALKER_NEW.newInstance( streaming );
+		call( SET_THREADS, result, threads );
+		return result;
+	}
+
+	static Collection<?> process( Object walker, List<File> fs )
+		throws Exception {
+		List<URL> us = new ArrayList<URL>( fs.size() );
+		for( File f : fs )
+			us.add( f.toURI().toURL() );
+		return (Collection<?>)call( PROCESS, walker, us );
+	}
+
+	static Object graph( Collection<?> ns ) throws Exception {
+		return call( BUILD, null, ns );
+	}
+
+	static void report( Object graph, File output ) throws Exception {
+		output.delete();
+		call( REPORT, null, graph, output );
+	}
+
+	static void toUberXSD( Object graph, File output ) throws Exception {
+		call( UBER, null, graph, "xs", output );
+	}
+
+	static Object newParser( boolean streaming ) throws Exception {
+		return PARSER_NEW.newInstance( streaming );
+	}
+
+	static Object parse( Object parser, File f ) throws Exception {
+		return call( PARSE, parser, f.toURI().toString() );
+	}
+
+	/**
+	 * Parse f as Parser.parse( String ) did before LocalFiles, via a
+	 * java.net.URL stream.
+	 */
+	static Object parseURLStream( Object parser, File f ) throws Exception {
+		String uri = f.toURI().toString();
+		InputStream is = new URL( uri ).openStream();
+		try {
+			return call( PARSE_STREAM, parser, is, uri );
+		} finally {
+			is.close();
+		}
+	}
+
+	static byte[] readLocal( File f ) throws Exception {
+		return (byte[])call( READ_LOCAL, null, f );
+	}
+
+	static InputStream openLocal( File f ) throws Exception {
+		return (InputStream)call( OPEN_LOCAL, null, f );
+	}
+
+	/**
+	 * @param threshold Size from which LocalFiles maps files, -1 for
+	 * its default, MAP_THRESHOLD.
+	 */
+	static void setMapThreshold( long threshold ) throws Exception {
+		call( SET_MAP_THRESHOLD, null,
+			  threshold < 0 ? MAP_THRESHOLD.getLong( null ) : threshold );
+	}
+
+	static byte[] readURLStream( File f ) throws Exception {
+		InputStream is = f.toURI().toURL().openStream();
+		try {
+			return IOUtils.toByteArray( is );
+		} finally {
+			is.close();
+		}
+	}
+
+	static private Object call( Method m, Object target, Object... args )
+		throws Exception {
+		try {
+			return m.invoke( target, args );
+		} catch( InvocationTargetException ite ) {
+			Throwable t = ite.getCause();
+			if( t instanceof Exception )
+				throw (Exception)t;
+			throw ite;
+		}
+	}
+
+	static private Method method( Class<?> c, String name,
+								  Class<?>... params ) {
+		try {
+			Method m = c.getDeclaredMethod( name, params );
+			m.setAccessible( true );
+			return m;
+		} catch( NoSuchMethodException nsme ) {
+			throw new IllegalStateException( nsme );
+		}
+	}
+
+	static private final Constructor<?> WALKER_NEW, PARSER_NEW;
+	static private final Method SET_THREADS, PROCESS, BUILD, REPORT, UBER;
+	static private final Method PARSE, PARSE_STREAM, READ_LOCAL, OPEN_LOCAL;
+	static private final Method SET_MAP_THRESHOLD;
+	static private final Field MAP_THRESHOLD;
+
+	static {
+		try {
+			Class<?> walker = Class.forName( "XSDWalker" );
+			Class<?> graph = Class.forName( "SchemaGraph" );
+			Class<?> parser = Class.forName( "Parser" );
+			WALKER_NEW = walker.getConstructor( boolean.class );
+			SET_THREADS = method( walker, "setThreads", int.class );
+			PROCESS = method( walker, "process", Iterable.class );
+			BUILD = method( graph, "build", Collection.class );
+			REPORT = method( walker, "report", graph, File.class );
+			UBER = method( walker, "toUberXSD", graph, String.class,
+						   File.class );
+			PARSER_NEW = parser.getConstructor( boolean.class );
+			PARSE = method( parser, "parse", String.class );
+			PARSE_STREAM = method( parser, "parse", InputStream.class,
+								   String.class );
+			Class<?> local = Class.forName( "LocalFiles" );
+			READ_LOCAL = method( local, "read", File.class );
+			OPEN_LOCAL = method( local, "open", File.class );
+			SET_MAP_THRESHOLD = method( local, "setMapThreshold",
+										long.class );
+			MAP_THRESHOLD = local.getDeclaredField( "MAP_THRESHOLD" );
+			MAP_THRESHOLD.setAccessible( true );
+		} catch( Exception e ) {
+			throw new ExceptionInInitializerError( e );
+		}
+	}
+}
+
+// eof
@@ -0,0 +1,203 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * @author Stuart Maclean
+ *
+ * Reading of schema bundles (.zip, .jar) in place, so that e.g. the
+ * STIX zip need not be unpacked (thousands of small files) first.  An
+ * archive given as input is listed, and each .xsd entry is then a root,
+ * as a jar: url, e.g. jar:file:/tmp/stix.zip!/stix_v1.1.1/stix_core.xsd.
+ * Relative schemaLocations resolve against that, so inside the archive,
+ * just as for files in a directory.
+ *
+ * Entries are read via ZipFile, which reads the archive's central
+ * directory once, on open, then seeks straight to each entry.  One
+ * ZipFile per archive is shared by all reads, and reopened only if the
+ * archive changes (length or mtime).  URL.openStream on a jar: url
+ * would share too, via the JDK's own jar cache, but that never notices
+ * a changed archive, and never closes.
+ *
+ * Users (XSDWalker.run, so each run of a Daemon) bracket their reads
+ * with acquire() and release().  A replaced ZipFile may still be read
+ * by another user, so is closed only once the last user releases, as
+ * then is every ZipFile opened, so no file descriptors outlive the
+ * runs that needed them.
+ *
+ * @see DirectoryScanner#listArchive
+ */
+final class Archives {
+
+	private Archives() {
+	}
+
+	/**
+	 * Note one more user of our ZipFiles, which stay open until it
+	 * calls release().
+	 */
+	static synchronized void acquire() {
+		users++;
+	}
+
+	/**
+	 * Note one user fewer.  Once none remain, close every ZipFile we
+	 * opened, so the next user reopens any it reads.  Callers which
+	 * never acquired may call this to close all when done.
+	 */
+	static void release() {
+		List<ZipFile> closing;
+		synchronized( Archives.class ) {
+			if( users > 0 )
+				users--;
+			if( users > 0 )
+				return;
+			closing = new ArrayList<ZipFile>( replaced );
+			replaced.clear();
+			for( Open o : open.values() )
+				closing.add( o.zf );
+			open.clear();
+		}
+		for( ZipFile zf : closing ) {
+			try {
+				zf.close();
+			} catch( IOException ioe ) {
+				XSDWalker.log.warn( "Closing " + zf.getName() + ": " + ioe );
+			}
+		}
+	}
+
+	/**
+	 * @return Count of ZipFiles open, current or replaced.
+	 */
+	static synchronized int handles() {
+		return open.size() + replaced.size();
+	}
+
+	/**
+	 * @return True if f is named as a .zip or .jar.
+	 */
+	static boolean isArchive( File f ) {
+		String s = f.getName().toLowerCase();
+		return s.endsWith( ".zip" ) || s.endsWith( ".jar" );
+	}
+
+	/**
+	 * @return Names of all (non-directory) entries of archive, sorted.
+	 */
+	static List<String> entries( File archive ) throws IOException {
+		ZipFile zf = zipFile( archive );
+		List<String> result = new ArrayList<String>( zf.size() );
+		Enumeration<? extends ZipEntry> en = zf.entries();
+		while( en.hasMoreElements() ) {
+			ZipEntry ze = en.nextElement();
+			if( !ze.isDirectory() )
+				result.add( ze.getName() );
+		}
+		Collections.sort( result );
+		return result;
+	}
+
+	/**
+	 * @return The jar: url of entry 'name' of archive.
+	 */
+	static URL url( File archive, String name )
+		throws MalformedURLException {
+		String path;
+		try {
+			path = new URI( null, null, "/" + name, null ).getRawPath();
+		} catch( URISyntaxException use ) {
+			throw new MalformedURLException( use.getMessage() );
+		}
+		return new URL( "jar:" + archive.toURI() + "!" + path );
+	}
+
+	/**
+	 * @return A stream over the entry named by jar: uri, or null if
+	 * uri is not into a local archive, for the caller to open as any
+	 * other url.
+	 * @throws FileNotFoundException If the archive holds no such entry.
+	 */
+	static InputStream open( String uri ) throws IOException {
+		ZipFile zf = zipFileOf( uri );
+		if( zf == null )
+			return null;
+		ZipEntry ze = zf.getEntry( entryName( uri ) );
+		if( ze == null )
+			throw new FileNotFoundException( uri );
+		return zf.getInputStream( ze );
+	}
+
+	/**
+	 * @return The entry named by jar: uri, so its size and CRC, read
+	 * from the central directory.  Null if uri is not into a local
+	 * archive, or no such entry.
+	 */
+	static ZipEntry entry( String uri ) throws IOException {
+		ZipFile zf = zipFileOf( uri );
+		return zf == null ? null : zf.getEntry( entryName( uri ) );
+	}
+
+	static private ZipFile zipFileOf( String uri ) throws IOException {
+		int bang = uri.indexOf( "!/" );
+		if( !uri.startsWith( "jar:file:" ) || bang < 0 )
+			return null;
+		File f = Parser.asFile( uri.substring( "jar:".length(), bang ) );
+		return f == null || !f.isFile() ? null : zipFile( f );
+	}
+
+	static private String entryName( String uri ) throws IOException {
+		String path = uri.substring( uri.indexOf( "!/" ) + 1 );
+		try {
+			return new URI( path ).getPath().substring( 1 );
+		} catch( URISyntaxException use ) {
+			throw new IOException( "Bad entry: " + uri );
+		}
+	}
+
+	static private synchronized ZipFile zipFile( File f )
+		throws IOException {
+		File key = f.getAbsoluteFile();
+		long length = key.length();
+		long mtime = key.lastModified();
+		Open o = open.get( key );
+		if( o != null && o.length == length && o.mtime == mtime )
+			return o.zf;
+		if( o != null )
+			replaced.add( o.zf );
+		o = new Open( new ZipFile( key ), length, mtime );
+		open.put( key, o );
+		return o.zf;
+	}
+
+	static private class Open {
+		Open( ZipFile zf, long length, long mtime ) {
+			this.zf = zf;
+			this.length = length;
+			this.mtime = mtime;
+		}
+		final ZipFile zf;
+		final long length, mtime;
+	}
+
+	static private final Map<File,Open> open = new HashMap<File,Open>();
+
+	static private final List<ZipFile> replaced = new ArrayList<ZipFile>();
+
+	static private int users;
+}
+
+// eof
@@ -0,0 +1,274 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * @author Stuart Maclean
+ *
+ * OASIS XML Catalog (1.1) support, enough to map schema locations (and
+ * namespaces) to local copies before any fetch.  Many schema sets,
+ * e.g. STIX/CybOX, import http: locations which we have vendored
+ * locally.  With a catalog those imports become local file reads, and
+ * the graph, so the uber xsd, holds the mapped locations.
+ *
+ * The entries understood are:
+ *
+ * uri name=X uri=Y, system systemId=X uri=Y - exact match
+ *
+ * rewriteURI uriStartString=X rewritePrefix=Y, and rewriteSystem
+ * systemIdStartString=X rewritePrefix=Y - longest prefix match
+ *
+ * uriSuffix uriSuffix=X uri=Y, systemSuffix systemIdSuffix=X uri=Y -
+ * longest suffix match
+ *
+ * nextCatalog catalog=Z - consulted after the catalog holding it
+ *
+ * plus group elements and xml:base attributes.  Delegate entries, and
+ * public ids, make no sense for schema locations so are ignored.
+ *
+ * Schema locations are looked up as both uris and system ids.  An
+ * import whose location finds no entry may still be mapped by its
+ * namespace, via a uri entry whose name is the namespace, as many
+ * schema catalogs do.  Catalogs are consulted in the order added, the
+ * first to match wins.
+ */
+public class Catalog {
+
+	public Catalog() {
+		files = new ArrayList<Entries>();
+		loaded = new HashSet<String>();
+	}
+
+	/**
+	 * Add the catalog file f, and any it names via nextCatalog, to
+	 * those we consult.
+	 */
+	public void add( File f ) throws IOException {
+		add( f.getAbsoluteFile().toURI() );
+	}
+
+	private void add( URI u ) throws IOException {
+		if( !loaded.add( u.toString() ) )
+			return;
+		if( !"file".equals( u.getScheme() ) )
+			throw new IOException( "Catalog not a file: " + u );
+		Entries es = new Entries( u );
+		InputStream is = new FileInputStream( new File( u ) );
+		try {
+			read( is, es );
+		} catch( XMLStreamException xse ) {
+			throw new IOException( "Bad catalog " + u + ": " +
+								   xse.getMessage() );
+		} finally {
+			is.close();
+		}
+		files.add( es );
+		for( URI next : es.next )
+			add( next );
+	}
+
+	public boolean isEmpty() {
+		return files.isEmpty();
+	}
+
+	/**
+	 * @param u An absolute schema location, e.g. as resolved from an
+	 * import's schemaLocation.
+	 * @param namespace The import's namespace, or null if u is not an
+	 * import (includes are never mapped by namespace).
+	 * @return The location to use in place of u, which is u itself if
+	 * the catalog has no entry for it.
+	 */
+	public SchemaLocation map( SchemaLocation u, String namespace ) {
+		String s = u.toString();
+		String result = resolve( s );
+		if( result == null && namespace != null &&
+			namespace.length() > 0 )
+			result = resolveExact( namespace );
+		if( result == null )
+			return u;
+		SchemaLocation mapped = SchemaLocation.of( result );
+		if( mapped != u )
+			XSDWalker.log.info( "Catalog: " + u + " -> " + mapped );
+		return mapped;
+	}
+
+	/**
+	 * @return The catalog's mapping of uri s, or null if none.
+	 */
+	public String resolve( String s ) {
+		String key = SchemaLocation.normalize( s );
+		for( Entries es : files ) {
+			String result = es.resolve( s, key );
+			if( result != null )
+				return result;
+		}
+		return null;
+	}
+
+	private String resolveExact( String name ) {
+		for( Entries es : files ) {
+			String result = es.exact( name );
+			if( result != null )
+				return result;
+		}
+		return null;
+	}
+
+	private void read( InputStream is, Entries es )
+		throws XMLStreamException {
+		XMLInputFactory xif = XMLInputFactory.newInstance();
+		xif.setProperty( XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE );
+		// no fetching of the catalog dtd, if declared
+		xif.setProperty( XMLInputFactory.SUPPORT_DTD, Boolean.FALSE );
+		XMLStreamReader r = xif.createXMLStreamReader
+			( es.base.toString(), is );
+		try {
+			// xml:base of each open element, innermost first
+			Deque<URI> bases = new ArrayDeque<URI>();
+			bases.push( es.base );
+			while( r.hasNext() ) {
+				int event = r.next();
+				if( event == XMLStreamConstants.END_ELEMENT ) {
+					bases.pop();
+					continue;
+				}
+				if( event != XMLStreamConstants.START_ELEMENT )
+					continue;
+				URI base = bases.peek();
+				String xb = r.getAttributeValue
+					( XMLConstants.XML_NS_URI, "base" );
+				if( xb != null )
+					base = base.resolve( xb );
+				bases.push( base );
+				if( !NS.equals( r.getNamespaceURI() ) )
+					continue;
+				entry( r, r.getLocalName(), base, es );
+			}
+		} finally {
+			r.close();
+		}
+	}
+
+	static private void entry( XMLStreamReader r, String name, URI base,
+							   Entries es ) {
+		if( false ) {
+		} else if( name.equals( "uri" ) ) {
+			es.addExact( a( r, "name" ), a( r, "uri" ), base );
+		} else if( name.equals( "system" ) ) {
+			es.addExact( a( r, "systemId" ), a( r, "uri" ), base );
+		} else if( name.equals( "rewriteURI" ) ) {
+			es.add( es.prefix, a( r, "uriStartString" ),
+					a( r, "rewritePrefix" ), base );
+		} else if( name.equals( "rewriteSystem" ) ) {
+			es.add( es.prefix, a( r, "systemIdStartString" ),
+					a( r, "rewritePrefix" ), base );
+		} else if( name.equals( "uriSuffix" ) ) {
+			es.add( es.suffix, a( r, "uriSuffix" ), a( r, "uri" ), base );
+		} else if( name.equals( "systemSuffix" ) ) {
+			es.add( es.suffix, a( r, "systemIdSuffix" ), a( r, "uri" ),
+					base );
+		} else if( name.equals( "nextCatalog" ) ) {
+			String c = a( r, "catalog" );
+			if( c != null )
+				es.next.add( base.resolve( c ) );
+		}
+	}
+
+	static private String a( XMLStreamReader r, String name ) {
+		return r.getAttributeValue( null, name );
+	}
+
+	/**
+	 * The entries of one catalog file, in document order.
+	 */
+	static private class Entries {
+		Entries( URI base ) {
+			this.base = base;
+			exact = new HashMap<String,String>();
+			normalized = new HashMap<String,String>();
+			prefix = new ArrayList<String[]>();
+			suffix = new ArrayList<String[]>();
+			next = new ArrayList<URI>();
+		}
+
+		// the first entry for a name wins
+		void addExact( String from, String to, URI base ) {
+			if( from == null || to == null )
+				return;
+			String target = base.resolve( to ).toString();
+			if( !exact.containsKey( from ) )
+				exact.put( from, target );
+			String key = SchemaLocation.normalize( from );
+			if( !normalized.containsKey( key ) )
+				normalized.put( key, target );
+		}
+
+		void add( List<String[]> l, String from, String to, URI base ) {
+			if( from == null || to == null )
+				return;
+			l.add( new String[] { from, base.resolve( to ).toString() } );
+		}
+
+		String exact( String s ) {
+			return exact.get( s );
+		}
+
+		/*
+		  Exact first, then the longest matching prefix, then the
+		  longest matching suffix.  Prefixes and suffixes are matched
+		  against the location as given, exact names against it
+		  normalized too.
+		*/
+		String resolve( String s, String key ) {
+			String result = exact.get( s );
+			if( result == null )
+				result = normalized.get( key );
+			if( result != null )
+				return result;
+			String[] best = null;
+			for( String[] e : prefix ) {
+				if( s.startsWith( e[0] ) &&
+					( best == null || e[0].length() > best[0].length() ) )
+					best = e;
+			}
+			if( best != null )
+				return best[1] + s.substring( best[0].length() );
+			for( String[] e : suffix ) {
+				if( s.endsWith( e[0] ) &&
+					( best == null || e[0].length() > best[0].length() ) )
+					best = e;
+			}
+			return best == null ? null : best[1];
+		}
+
+		final URI base;
+		final Map<String,String> exact, normalized;
+		final List<String[]> prefix, suffix;
+		final List<URI> next;
+	}
+
+	static private final String NS =
+		"urn:oasis:names:tc:entity:xmlns:xml:catalog";
+
+	private final List<Entries> files;
+	private final Set<String> loaded;
+}
+
+// eof
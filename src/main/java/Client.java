@@ -0,0 +1,86 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * @author Stuart Maclean
+ *
+ * Thin client to a Daemon: sends it our working directory and command
+ * line, and passes on its reply as our own stdout, stderr and exit
+ * status.  So a drop-in for XSDWalker.main, minus the startup cost.
+ * Uses nothing beyond the JDK, so loads just this class.
+ *
+ * The daemon's port is from system property xsdwalker.port, else
+ * environment variable XSDWALKER_PORT, else Daemon.DEFAULT_PORT.
+ * Client --shutdown stops the daemon.
+ *
+ * @see Daemon
+ */
+public class Client {
+
+	/**
+	 * @return The exit status of the run the daemon made of args.
+	 */
+	static public int call( int port, File cwd, String[] args,
+							OutputStream out, OutputStream err )
+		throws IOException {
+		Socket s = new Socket( InetAddress.getByName( null ), port );
+		try {
+			DataOutputStream dos = new DataOutputStream
+				( new BufferedOutputStream( s.getOutputStream() ) );
+			dos.writeUTF( Daemon.MAGIC );
+			dos.writeUTF( cwd.getAbsolutePath() );
+			dos.writeInt( args.length );
+			for( String arg : args )
+				dos.writeUTF( arg );
+			dos.flush();
+
+			DataInputStream dis = new DataInputStream
+				( new BufferedInputStream( s.getInputStream() ) );
+			int status = dis.readInt();
+			copy( dis, out );
+			copy( dis, err );
+			return status;
+		} finally {
+			s.close();
+		}
+	}
+
+	static private void copy( DataInputStream dis, OutputStream os )
+		throws IOException {
+		byte[] bs = new byte[dis.readInt()];
+		dis.readFully( bs );
+		os.write( bs );
+		os.flush();
+	}
+
+	static int port() {
+		String s = System.getProperty( "xsdwalker.port" );
+		if( s == null )
+			s = System.getenv( "XSDWALKER_PORT" );
+		return s == null ? Daemon.DEFAULT_PORT : Integer.parseInt( s );
+	}
+
+	public static void main( String[] args ) throws Exception {
+		int port = port();
+		// user.dir, not ".", so paths come out as ours would
+		File cwd = new File( System.getProperty( "user.dir" ) );
+		int status;
+		try {
+			status = call( port, cwd, args, System.out, System.err );
+		} catch( IOException ioe ) {
+			System.err.println( "No xsdwalker daemon on port " + port +
+								": " + ioe );
+			status = 2;
+		}
+		System.exit( status );
+	}
+}
+
+// eof
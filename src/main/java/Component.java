@@ -0,0 +1,83 @@
+/**
+ * @author Stuart Maclean
+ *
+ * A global schema component, e.g. an element or type declaration, as
+ * named by its symbol space, namespace and local name.  Both what a
+ * schema declares, and what its declarations reference (by type=,
+ * ref=, base= etc), are Components, see Parser.setIndexing.
+ *
+ * @see TreeShaker
+ */
+public class Component {
+
+	/**
+	 * The xsd symbol spaces: a type and an element may share a name,
+	 * being different components.
+	 */
+	public enum Space {
+		ELEMENT, TYPE, ATTRIBUTE, GROUP, ATTRIBUTE_GROUP;
+
+		/**
+		 * @return The space of a top-level xsd element declaring a
+		 * component, or null if it declares none.
+		 */
+		static Space forElement( String localName ) {
+			if( false ) {
+			} else if( localName.equals( "element" ) ) {
+				return ELEMENT;
+			} else if( localName.equals( "complexType" ) ||
+					   localName.equals( "simpleType" ) ) {
+				return TYPE;
+			} else if( localName.equals( "attribute" ) ) {
+				return ATTRIBUTE;
+			} else if( localName.equals( "group" ) ) {
+				return GROUP;
+			} else if( localName.equals( "attributeGroup" ) ) {
+				return ATTRIBUTE_GROUP;
+			}
+			return null;
+		}
+	}
+
+	public Component( Space space, String namespace, String name ) {
+		this.space = space;
+		this.namespace = namespace;
+		this.name = name;
+	}
+
+	/**
+	 * @return This component, but in namespace ns, as for a chameleon
+	 * include adopting its includer's namespace.
+	 */
+	Component in( String ns ) {
+		return new Component( space, ns, name );
+	}
+
+	@Override
+	public int hashCode() {
+		return ( space.hashCode() * 31 + namespace.hashCode() ) * 31 +
+			name.hashCode();
+	}
+
+	@Override
+	public boolean equals( Object o ) {
+		if( o == this )
+			return true;
+		if( !( o instanceof Component ) )
+			return false;
+		Component that = (Component)o;
+		return this.space == that.space &&
+			this.namespace.equals( that.namespace ) &&
+			this.name.equals( that.name );
+	}
+
+	@Override
+	public String toString() {
+		return space + " {" + namespace + "}" + name;
+	}
+
+	public final Space space;
+	public final String namespace, name;
+}
+
+// eof
@@ -0,0 +1,219 @@
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author Stuart Maclean
+ *
+ * Concurrent alternative to the sequential, depth-first graph walk in
+ * XSDWalker.process.  URLs still to be parsed sit in a frontier queue,
+ * drained by a fixed set of worker threads, each with its own Parser
+ * (neither DocumentBuilder nor XMLInputFactory readers are thread-safe).
+ * A URL is claimed by exactly one worker via a concurrent map, so no
+ * document is parsed twice.
+ *
+ * The roots are offered to the frontier as the caller's Iterable
+ * yields them, with the workers already running, so when the roots
+ * are still being found (by a DirectoryScanner) the walk proceeds
+ * meanwhile.
+ *
+ * Edges (Node.ins/outs) are wired only once the frontier has drained,
+ * by the calling thread, visiting each node's imports in document
+ * order.  So the ins/outs lists are never shared between threads, and
+ * each node's outs come out in the same order as the sequential walk
+ * produces them, which keeps the report hierarchy identical.  Hence
+ * too, WalkListeners hear of every node before any edge.
+ *
+ * @see XSDWalker
+ */
+class ConcurrentWalk {
+
+	ConcurrentWalk( int threads, XSDWalker walker ) {
+		this.threads = threads;
+		this.walker = walker;
+		metrics = walker.metrics();
+		frontier = new LinkedBlockingQueue<SchemaLocation>();
+		claimed = new ConcurrentHashMap<SchemaLocation,Visit>();
+		nodes = new ConcurrentHashMap<SchemaLocation,XSDWalker.Node>();
+		pending = new AtomicInteger();
+		failure = new AtomicReference<Exception>();
+		done = new CountDownLatch( 1 );
+	}
+
+	/**
+	 * @return All nodes reachable from 'us', keyed by location, with
+	 * their ins/outs edges in place.
+	 */
+	Map<SchemaLocation,XSDWalker.Node> walk( Iterable<URL> us )
+		throws Exception {
+		// held until the last root is offered, so done waits for it
+		pending.incrementAndGet();
+		long t0 = System.nanoTime();
+		List<Thread> workers = new ArrayList<Thread>( threads );
+		for( int i = 0; i < threads; i++ ) {
+			Thread t = new Thread( new Worker( walker.newParser() ),
+								   "xsdwalker-" + (i+1) );
+			t.setDaemon( true );
+			workers.add( t );
+			t.start();
+		}
+		try {
+			for( URL u : us ) {
+				if( failure.get() != null )
+					break;
+				offer( walker.locate( u ) );
+			}
+			if( pending.decrementAndGet() == 0 )
+				done.countDown();
+			done.await();
+		} finally {
+			frontier.clear();
+			for( Thread t : workers )
+				frontier.add( POISON );
+			for( Thread t : workers )
+				t.join();
+			if( metrics != null )
+				metrics.workers( threads, System.nanoTime() - t0 );
+		}
+		Exception e = failure.get();
+		if( e != null )
+			throw e;
+
+		wire();
+		return nodes;
+	}
+
+	/**
+	 * Enqueue u unless some worker already has (or had) it.
+	 */
+	private void offer( SchemaLocation u ) {
+		Visit v = new Visit( u );
+		if( claimed.putIfAbsent( u, v ) != null )
+			return;
+		pending.incrementAndGet();
+		frontier.add( u );
+		if( metrics != null )
+			metrics.queued( frontier.size() );
+	}
+
+	private void fail( Exception e ) {
+		failure.compareAndSet( null, e );
+		done.countDown();
+	}
+
+	private void visit( Parser p, SchemaLocation u ) throws Exception {
+		Visit v = claimed.get( u );
+		XSDWalker.log.info( "Visiting " + u );
+		SchemaInfo si = null;
+		try {
+			si = walker.parse( p, u );
+		} catch( Exception e ) {
+			XSDWalker.log.warn( "Parse failure: " + u );
+			walker.failed( u, e );
+			return;
+		}
+		XSDWalker.log.info( "TNS " + si.targetNamespace );
+		v.info = si;
+		for( ImportInfo ii : si.getDependencies() ) {
+			XSDWalker.log.info( ii.kind.label + " " + ii );
+			SchemaLocation u2 = walker.locate( u, ii );
+			v.targets.add( u2 );
+			if( !claimed.containsKey( u2 ) )
+				walker.prefetch( u2 );
+			offer( u2 );
+		}
+		XSDWalker.Node n = new XSDWalker.Node( u, si.targetNamespace );
+		nodes.put( u, n );
+		walker.discovered( n, si );
+	}
+
+	/**
+	 * Single-threaded, called once all workers have finished.  Mirrors
+	 * the edge building in XSDWalker.visit, including its warnings.
+	 */
+	private void wire() {
+		for( XSDWalker.Node n : nodes.values() ) {
+			Visit v = claimed.get( n.location );
+			List<ImportInfo> iis = v.info.getDependencies();
+			for( int i = 0; i < iis.size(); i++ ) {
+				ImportInfo ii = iis.get(i);
+				XSDWalker.Node tgt = nodes.get( v.targets.get(i) );
+				if( tgt == null )
+					// parse failure
+					continue;
+				walker.edge( n, tgt, ii );
+			}
+		}
+	}
+
+	private class Worker implements Runnable {
+		Worker( Parser p ) {
+			this.p = p;
+		}
+
+		public void run() {
+			while( true ) {
+				SchemaLocation u;
+				try {
+					u = frontier.take();
+				} catch( InterruptedException ie ) {
+					return;
+				}
+				if( u == POISON )
+					return;
+				long t0 = System.nanoTime();
+				try {
+					visit( p, u );
+				} catch( Exception e ) {
+					fail( e );
+					return;
+				}
+				if( metrics != null )
+					metrics.busy( System.nanoTime() - t0 );
+				if( pending.decrementAndGet() == 0 )
+					done.countDown();
+			}
+		}
+
+		private final Parser p;
+	}
+
+	/**
+	 * What a worker learned about one url: its SchemaInfo (null on
+	 * parse failure) and each import's resolved location, in import
+	 * order.
+	 */
+	static class Visit {
+		Visit( SchemaLocation u ) {
+			this.u = u;
+			targets = new ArrayList<SchemaLocation>();
+		}
+		final SchemaLocation u;
+		volatile SchemaInfo info;
+		final List<SchemaLocation> targets;
+	}
+
+	// not interned, so never == to any location a worker is handed
+	static private final SchemaLocation POISON =
+		SchemaLocation.poison();
+
+	private final int threads;
+	private final XSDWalker walker;
+	private final Metrics metrics;
+	private final BlockingQueue<SchemaLocation> frontier;
+	private final ConcurrentMap<SchemaLocation,Visit> claimed;
+	private final ConcurrentMap<SchemaLocation,XSDWalker.Node> nodes;
+	private final AtomicInteger pending;
+	private final AtomicReference<Exception> failure;
+	private final CountDownLatch done;
+}
+
+// eof
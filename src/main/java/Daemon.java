@@ -0,0 +1,214 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Stuart Maclean
+ *
+ * Long-running xsdwalker, for builds which run it many times over.
+ * Each run through the command line pays JVM startup, JAXP factory
+ * lookup and a cold parse of every schema.  The daemon pays these
+ * once: runs requested of it share one JVM, the Parser's factories,
+ * and a parse cache (by document content, so never stale) kept warm
+ * across runs.
+ *
+ * Requests come from a Client, over a socket bound to the loopback
+ * interface only.  A request is the client's working directory and
+ * command line, which the daemon runs just as XSDWalker.main would
+ * (relative paths resolving against the client's directory), so
+ * producing the same uber xsd, report and graph files.  The reply is
+ * the run's exit status, stdout and stderr, which the client passes
+ * on as its own.  Runs must end to reply, so --watch is refused.
+ *
+ * The protocol, via Data streams: the request is MAGIC, the directory,
+ * the argument count and each argument, the reply an int status then
+ * the stdout and stderr bytes, each preceded by its length.  A request
+ * whose one argument is SHUTDOWN stops the daemon.
+ *
+ * Any local user can connect, and have files written as the daemon's
+ * user, so run it only on single-user (e.g. CI) hosts.
+ *
+ * @see Client
+ */
+public class Daemon {
+
+	/**
+	 * @param port To listen on, 0 for any free one.
+	 * @param threads Runs in progress at once.
+	 */
+	public Daemon( int port, int threads ) {
+		this.port = port;
+		pool = Executors.newFixedThreadPool( threads, new ThreadFactory() {
+				public Thread newThread( Runnable r ) {
+					Thread t = new Thread( r, "xsdwalker-daemon-" +
+										   count.incrementAndGet() );
+					t.setDaemon( true );
+					return t;
+				}
+				final AtomicInteger count = new AtomicInteger();
+			} );
+		warm = new ParseCache( XSDWalker.MEMO_ENTRIES, XSDWalker.MEMO_BYTES );
+		stopped = new CountDownLatch( 1 );
+	}
+
+	public void start() throws IOException {
+		ss = new ServerSocket( port, 50, InetAddress.getByName( null ) );
+		Thread t = new Thread( new Runnable() {
+				public void run() {
+					accept();
+				}
+			}, "xsdwalker-daemon" );
+		t.setDaemon( true );
+		t.start();
+		XSDWalker.log.info( "Daemon listening on " + getPort() );
+	}
+
+	/**
+	 * @return The port we listen on, once started.
+	 */
+	public int getPort() {
+		return ss.getLocalPort();
+	}
+
+	public ParseCache parseCache() {
+		return warm;
+	}
+
+	public void stop() {
+		try {
+			ss.close();
+		} catch( IOException ioe ) {
+		}
+		pool.shutdown();
+		stopped.countDown();
+	}
+
+	public void awaitStop() throws InterruptedException {
+		stopped.await();
+	}
+
+	private void accept() {
+		while( !ss.isClosed() ) {
+			final Socket s;
+			try {
+				s = ss.accept();
+			} catch( IOException ioe ) {
+				if( !ss.isClosed() )
+					XSDWalker.log.warn( "Accept: " + ioe );
+				continue;
+			}
+			try {
+				pool.execute( new Runnable() {
+						public void run() {
+							serve( s );
+						}
+					} );
+			} catch( Exception e ) {
+				// shut down meanwhile
+				close( s );
+			}
+		}
+	}
+
+	private void serve( Socket s ) {
+		try {
+			DataInputStream dis = new DataInputStream
+				( new BufferedInputStream( s.getInputStream() ) );
+			DataOutputStream dos = new DataOutputStream
+				( new BufferedOutputStream( s.getOutputStream() ) );
+			String magic = dis.readUTF();
+			if( !MAGIC.equals( magic ) )
+				throw new IOException( "Not a client: " + magic );
+			File cwd = new File( dis.readUTF() );
+			String[] args = new String[dis.readInt()];
+			for( int i = 0; i < args.length; i++ )
+				args[i] = dis.readUTF();
+
+			if( args.length == 1 && args[0].equals( SHUTDOWN ) ) {
+				XSDWalker.log.info( "Daemon shutdown requested" );
+				reply( dos, 0, new byte[0], new byte[0] );
+				stop();
+				return;
+			}
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ByteArrayOutputStream err = new ByteArrayOutputStream();
+			PrintStream ops = new PrintStream( out, true, "UTF-8" );
+			PrintStream eps = new PrintStream( err, true, "UTF-8" );
+			int status;
+			try {
+				status = XSDWalker.run( args, cwd, ops, eps, warm );
+			} catch( Exception e ) {
+				// as the JVM would report it, for an uncaught exception
+				e.printStackTrace( eps );
+				status = 1;
+			}
+			ops.flush();
+			eps.flush();
+			reply( dos, status, out.toByteArray(), err.toByteArray() );
+		} catch( IOException ioe ) {
+			XSDWalker.log.warn( "Request failed: " + ioe );
+		} finally {
+			close( s );
+		}
+	}
+
+	static private void reply( DataOutputStream dos, int status,
+							   byte[] out, byte[] err ) throws IOException {
+		dos.writeInt( status );
+		dos.writeInt( out.length );
+		dos.write( out );
+		dos.writeInt( err.length );
+		dos.write( err );
+		dos.flush();
+	}
+
+	static private void close( Socket s ) {
+		try {
+			s.close();
+		} catch( IOException ioe ) {
+		}
+	}
+
+	/**
+	 * Usage: Daemon [port]
+	 */
+	public static void main( String[] args ) throws Exception {
+		int port = args.length > 0 ? Integer.parseInt( args[0] ) :
+			Client.port();
+		Daemon d = new Daemon( port, THREADS );
+		d.start();
+		System.out.println( "xsdwalker daemon on port " + d.getPort() );
+		d.awaitStop();
+	}
+
+	static final String MAGIC = "xsdwalker 1";
+
+	static final String SHUTDOWN = "--shutdown";
+
+	static public final int DEFAULT_PORT = 7411;
+
+	// runs in progress at once
+	static private final int THREADS = 4;
+
+	private final int port;
+	private final ExecutorService pool;
+	private final ParseCache warm;
+	private final CountDownLatch stopped;
+	private ServerSocket ss;
+}
+
+// eof
@@ -0,0 +1,300 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * @author Stuart Maclean
+ *
+ * Finds the .xsd files under a set of input directories, in place of
+ * commons-io FileUtils.listFiles.  Each directory is listed by its own
+ * fork-join task, which forks a further task per subdirectory, so
+ * sibling directories are listed in parallel (which, on network mounted
+ * schema trees, is where the time goes).
+ *
+ * Excludes are compiled once, up front, and an excluded directory is
+ * pruned as soon as it is seen, so its subtree is never listed.  An
+ * exclude is one of
+ *
+ * glob:pattern, regex:pattern - as for FileSystem.getPathMatcher,
+ * matched against both the path (the input directory's path, then the
+ * names below it) and the file name alone.  Applies to files and
+ * directories.  A pattern with no prefix, naming no existing file or
+ * directory, is taken as a glob.
+ *
+ * an existing file - excludes any file whose path contains its path
+ *
+ * an existing directory - prunes any directory whose path contains its
+ * path
+ *
+ * The last two are as the -e option has always behaved.
+ *
+ * Archives (.zip, .jar) are listed by listArchive, globs and regexes
+ * then matched against each entry's path within the archive, and its
+ * file name, and the path of each directory above it.
+ *
+ * Files are handed over via scan() as they are found, so the graph
+ * walk can start on the first while the rest of the tree is still
+ * being listed.  Order is then that of discovery, so varies run to
+ * run.  list() waits for the lot, and sorts it.
+ */
+public class DirectoryScanner {
+
+	/**
+	 * @param threads Directories listed at once.
+	 */
+	public DirectoryScanner( int threads ) {
+		if( threads < 1 )
+			throw new IllegalArgumentException( "Bad thread count: " +
+												threads );
+		this.threads = threads;
+		matchers = new ArrayList<PathMatcher>();
+		excludeFiles = new ArrayList<String>();
+		excludeDirs = new ArrayList<String>();
+	}
+
+	/**
+	 * @param spec See the class comment.
+	 * @throws IllegalArgumentException if spec is a bad glob or regex.
+	 */
+	public void exclude( String spec ) {
+		exclude( spec, null );
+	}
+
+	/**
+	 * @param cwd Against which a relative file/directory spec resolves,
+	 * null for the JVM's own.
+	 */
+	public void exclude( String spec, File cwd ) {
+		File f = XSDWalker.resolve( cwd, spec );
+		if( false ) {
+		} else if( spec.startsWith( "glob:" ) || spec.startsWith( "regex:" ) ) {
+			matchers.add( FileSystems.getDefault().getPathMatcher( spec ) );
+		} else if( f.isFile() ) {
+			excludeFiles.add( f.getPath() );
+		} else if( f.isDirectory() ) {
+			excludeDirs.add( f.getPath() );
+		} else {
+			matchers.add( FileSystems.getDefault().getPathMatcher
+						  ( "glob:" + spec ) );
+		}
+	}
+
+	/**
+	 * @param metrics Told how long each scan takes, as its "scan"
+	 * phase.  Null for none.
+	 */
+	public void setMetrics( Metrics metrics ) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Start scanning dirs, in the background.
+	 *
+	 * @return The .xsd files found, as they are found.  hasNext() blocks
+	 * until the next is found, or the scan is complete.
+	 */
+	public Iterator<File> scan( Collection<File> dirs ) {
+		final BlockingQueue<File> found = new LinkedBlockingQueue<File>();
+		final List<Path> roots = new ArrayList<Path>( dirs.size() );
+		for( File dir : dirs )
+			roots.add( dir.toPath() );
+		final ForkJoinPool pool = new ForkJoinPool( threads );
+		final long t0 = System.nanoTime();
+		pool.execute( new RecursiveAction() {
+				protected void compute() {
+					try {
+						List<Lister> ls = new ArrayList<Lister>();
+						for( Path root : roots )
+							ls.add( new Lister( root, found ) );
+						invokeAll( ls );
+					} finally {
+						if( metrics != null )
+							metrics.phase( "scan", System.nanoTime() - t0 );
+						found.add( END );
+						pool.shutdown();
+					}
+				}
+			} );
+		return new Iterator<File>() {
+			public boolean hasNext() {
+				if( next == null ) {
+					try {
+						next = found.take();
+					} catch( InterruptedException ie ) {
+						Thread.currentThread().interrupt();
+						next = END;
+					}
+				}
+				return next != END;
+			}
+			public File next() {
+				if( !hasNext() )
+					throw new NoSuchElementException();
+				File result = next;
+				next = null;
+				return result;
+			}
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+			private File next;
+		};
+	}
+
+	/**
+	 * @return All .xsd files under dirs, sorted.
+	 */
+	public List<File> list( Collection<File> dirs ) {
+		List<File> result = new ArrayList<File>();
+		Iterator<File> it = scan( dirs );
+		while( it.hasNext() )
+			result.add( it.next() );
+		Collections.sort( result );
+		return result;
+	}
+
+	/**
+	 * @return jar: urls of all .xsd entries of archive not excluded,
+	 * sorted, see Archives.
+	 */
+	public List<URL> listArchive( File archive ) throws IOException {
+		List<URL> result = new ArrayList<URL>();
+		for( String name : Archives.entries( archive ) ) {
+			if( acceptsEntry( name ) )
+				result.add( Archives.url( archive, name ) );
+		}
+		return result;
+	}
+
+	/**
+	 * Lists one directory, emitting its .xsd files and forking a Lister
+	 * per subdirectory not excluded.
+	 */
+	private class Lister extends RecursiveAction {
+		Lister( Path dir, BlockingQueue<File> found ) {
+			this.dir = dir;
+			this.found = found;
+		}
+
+		protected void compute() {
+			List<Lister> subdirs = new ArrayList<Lister>();
+			try {
+				DirectoryStream<Path> ds = Files.newDirectoryStream( dir );
+				try {
+					for( Path p : ds ) {
+						BasicFileAttributes bfa;
+						try {
+							bfa = Files.readAttributes
+								( p, BasicFileAttributes.class );
+						} catch( IOException ioe ) {
+							// e.g. a dangling link
+							continue;
+						}
+						if( false ) {
+						} else if( bfa.isDirectory() ) {
+							if( !excluded( p, excludeDirs ) )
+								subdirs.add( new Lister( p, found ) );
+						} else if( bfa.isRegularFile() ) {
+							if( acceptsFile( p ) )
+								found.add( p.toFile() );
+						}
+					}
+				} finally {
+					ds.close();
+				}
+			} catch( IOException ioe ) {
+				XSDWalker.log.warn( "Cannot list " + dir + ": " + ioe );
+			}
+			invokeAll( subdirs );
+		}
+
+		private final Path dir;
+		private final BlockingQueue<File> found;
+
+		static private final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * @return True if a scan reaching directory p would list it.
+	 */
+	boolean acceptsDirectory( Path p ) {
+		return !excluded( p, excludeDirs );
+	}
+
+	/**
+	 * @return True if a scan reaching file p would return it.
+	 */
+	boolean acceptsFile( Path p ) {
+		return p.getFileName().toString().endsWith( ".xsd" ) &&
+			!excluded( p, excludeFiles );
+	}
+
+	/**
+	 * @return True if listArchive would return archive entry 'name'.
+	 */
+	boolean acceptsEntry( String name ) {
+		if( !name.endsWith( ".xsd" ) )
+			return false;
+		if( matchers.isEmpty() )
+			return true;
+		Path p;
+		try {
+			p = Paths.get( name );
+		} catch( InvalidPathException ipe ) {
+			return true;
+		}
+		for( ; p != null; p = p.getParent() ) {
+			if( matched( p ) )
+				return false;
+		}
+		return true;
+	}
+
+	private boolean excluded( Path p, List<String> contained ) {
+		String s = p.toString();
+		for( String ex : contained ) {
+			if( s.contains( ex ) )
+				return true;
+		}
+		return matched( p );
+	}
+
+	private boolean matched( Path p ) {
+		if( matchers.isEmpty() )
+			return false;
+		Path name = p.getFileName();
+		for( PathMatcher pm : matchers ) {
+			if( pm.matches( p ) || pm.matches( name ) )
+				return true;
+		}
+		return false;
+	}
+
+	// not otherwise created, so never == to any file found
+	static private final File END = new File( "" );
+
+	private final int threads;
+	private final List<PathMatcher> matchers;
+	private final List<String> excludeFiles, excludeDirs;
+	private volatile Metrics metrics;
+}
+
+// eof
@@ -0,0 +1,348 @@
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * @author Stuart Maclean
+ *
+ * The fetch stage of the graph walk.  As soon as the walker learns of
+ * a remote (http:) dependency, it calls prefetch(), and the download
+ * starts right away on one of our threads, while the walk carries on.
+ * Each download, as it completes, is handed to our Listener, still on
+ * the fetching thread, so that its own dependencies can be found and
+ * prefetched in turn.  When the walker later comes to that location,
+ * open() hands over the downloaded bytes, waiting only for whatever of
+ * the download remains.  So round-trips to remote hosts overlap each
+ * other, and the walk, rather than each one stalling the walk.
+ *
+ * Downloads to any one host are capped (perHost), so we do not flood
+ * it.  Those beyond the cap wait in a queue of their host's, not on a
+ * pool thread, so a slow host holds no more than perHost threads, and
+ * downloads from other hosts carry on.  Each download has connect and
+ * read timeouts, and failed ones (i/o errors, HTTP 5xx, 429) are
+ * retried, backing off exponentially.
+ * Response bodies are always read to the end and closed, so the JDK
+ * keeps the connection alive for the next download from that host.
+ *
+ * With a SchemaCache, downloads go through it, so fresh cache entries
+ * cost no network access at all.
+ */
+public class Fetcher {
+
+	/**
+	 * @param threads Downloads in flight at once, over all hosts.
+	 * @param perHost Downloads in flight at once to any one host.
+	 */
+	public Fetcher( int threads, int perHost ) {
+		if( threads < 1 || perHost < 1 )
+			throw new IllegalArgumentException( "Bad fetch limits: " +
+												threads + "," + perHost );
+		this.perHost = perHost;
+		pool = Executors.newFixedThreadPool( threads, new ThreadFactory() {
+				public Thread newThread( Runnable r ) {
+					Thread t = new Thread( r, "xsdwalker-fetch-" +
+										   count.incrementAndGet() );
+					t.setDaemon( true );
+					return t;
+				}
+				final AtomicInteger count = new AtomicInteger();
+			} );
+		downloads = new ConcurrentHashMap<SchemaLocation,Future<byte[]>>();
+		hosts = new ConcurrentHashMap<String,Host>();
+		opened = Collections.newSetFromMap
+			( new ConcurrentHashMap<SchemaLocation,Boolean>() );
+		connectTimeout = 10 * 1000;
+		readTimeout = 30 * 1000;
+		retries = 3;
+		backoff = 500;
+	}
+
+	public void setCache( SchemaCache cache ) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Told of each successful download, on the thread that made it,
+	 * before open() can return it.
+	 */
+	public interface Listener {
+		void fetched( SchemaLocation u, byte[] content );
+	}
+
+	public void setListener( Listener listener ) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @param metrics Told of each download's latency, and of retries
+	 * and failures.  Null for none.
+	 */
+	public void setMetrics( Metrics metrics ) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Connect and read timeouts, in millis, for direct (uncached)
+	 * downloads.  Cached ones use the cache's own timeout.
+	 */
+	public void setTimeouts( int connectTimeout, int readTimeout ) {
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * @param retries Further attempts after a failed download.
+	 * @param backoff Wait before the first retry, in millis, doubling
+	 * for each retry after.
+	 */
+	public void setRetries( int retries, long backoff ) {
+		this.retries = retries;
+		this.backoff = backoff;
+	}
+
+	/**
+	 * Start downloading u, unless already started, or already handed
+	 * over by open().  Non-blocking.
+	 */
+	public void prefetch( SchemaLocation u ) {
+		if( !u.isRemote() || opened.contains( u ) ||
+			downloads.containsKey( u ) )
+			return;
+		start( u );
+	}
+
+	/**
+	 * @return The content of u, fetched by prefetch (or now, if not
+	 * before).  Blocks until the download completes.  The content is
+	 * then forgotten, and u not prefetched again.
+	 */
+	public InputStream open( SchemaLocation u ) throws IOException {
+		Future<byte[]> f = downloads.get( u );
+		if( f == null )
+			f = start( u );
+		try {
+			byte[] result = f.get();
+			opened.add( u );
+			downloads.remove( u, f );
+			return new ByteArrayInputStream( result );
+		} catch( ExecutionException ee ) {
+			opened.add( u );
+			downloads.remove( u, f );
+			Throwable t = ee.getCause();
+			if( t instanceof IOException )
+				throw (IOException)t;
+			throw new IOException( "Fetching " + u + ": " + t );
+		} catch( InterruptedException ie ) {
+			Thread.currentThread().interrupt();
+			throw new IOException( "Interrupted fetching " + u );
+		}
+	}
+
+	private Future<byte[]> start( SchemaLocation u ) {
+		FutureTask<byte[]> ft = new FutureTask<byte[]>( new Download( u ) );
+		Future<byte[]> prior = downloads.putIfAbsent( u, ft );
+		if( prior != null )
+			return prior;
+		String key;
+		try {
+			URL url = u.toURL();
+			key = url.getHost() + ":" + url.getPort();
+		} catch( MalformedURLException mue ) {
+			// the download fails at once, saying why
+			key = "";
+		}
+		host( key ).submit( ft );
+		return ft;
+	}
+
+	/**
+	 * Abandon any downloads in flight.  Threads are daemons, so this is
+	 * needed only by long-lived callers.
+	 */
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	private class Download implements Callable<byte[]> {
+		Download( SchemaLocation u ) {
+			this.u = u;
+		}
+
+		public byte[] call() throws Exception {
+			byte[] result = download();
+			Listener l = listener;
+			if( l != null )
+				l.fetched( u, result );
+			return result;
+		}
+
+		private byte[] download() throws Exception {
+			URL url = u.toURL();
+			Metrics m = metrics;
+			// latency is timed from here, not counting time queued
+			long t0 = System.nanoTime();
+			long wait = backoff;
+			for( int attempt = 0; ; attempt++ ) {
+				try {
+					byte[] result = cache == null ? fetch( url ) :
+						cache.get( url );
+					if( m != null )
+						m.fetched( u, System.nanoTime() - t0,
+								   result.length );
+					return result;
+				} catch( IOException ioe ) {
+					if( attempt >= retries || !transientFailure( ioe ) ) {
+						if( m != null )
+							m.failed();
+						throw ioe;
+					}
+					if( m != null )
+						m.retried();
+					XSDWalker.log.warn( "Retrying " + u + " in " + wait +
+										"ms: " + ioe );
+					Thread.sleep( wait );
+					wait *= 2;
+				}
+			}
+		}
+
+		final SchemaLocation u;
+	}
+
+	/**
+	 * @return False for failures a retry will not fix, e.g. a 404.
+	 */
+	static boolean transientFailure( IOException ioe ) {
+		if( ioe instanceof FileNotFoundException )
+			return false;
+		if( ioe instanceof HttpError ) {
+			int code = ((HttpError)ioe).code;
+			return code >= 500 || code == 429;
+		}
+		return true;
+	}
+
+	static class HttpError extends IOException {
+		HttpError( int code, URL u ) {
+			super( "HTTP " + code + ": " + u );
+			this.code = code;
+		}
+		final int code;
+
+		static private final long serialVersionUID = 1L;
+	}
+
+	private Host host( String key ) {
+		Host result = hosts.get( key );
+		if( result == null ) {
+			result = new Host();
+			Host prior = hosts.putIfAbsent( key, result );
+			if( prior != null )
+				result = prior;
+		}
+		return result;
+	}
+
+	/**
+	 * Downloads to one host: at most perHost handed to the pool at once,
+	 * the rest queued here until one of those finishes.
+	 */
+	private class Host {
+		Host() {
+			waiting = new ArrayDeque<Runnable>();
+		}
+
+		synchronized void submit( Runnable r ) {
+			if( active < perHost ) {
+				active++;
+				execute( r );
+			} else {
+				waiting.add( r );
+			}
+		}
+
+		private synchronized void finished() {
+			Runnable next = waiting.poll();
+			if( next == null )
+				active--;
+			else
+				execute( next );
+		}
+
+		private void execute( final Runnable r ) {
+			try {
+				pool.execute( new Runnable() {
+						public void run() {
+							try {
+								r.run();
+							} finally {
+								finished();
+							}
+						}
+					} );
+			} catch( RejectedExecutionException ree ) {
+				// shut down, so abandoned
+			}
+		}
+
+		private final Deque<Runnable> waiting;
+		private int active;
+	}
+
+	private byte[] fetch( URL u ) throws IOException {
+		XSDWalker.log.info( "Fetching " + u );
+		HttpURLConnection huc = (HttpURLConnection)u.openConnection();
+		huc.setConnectTimeout( connectTimeout );
+		huc.setReadTimeout( readTimeout );
+		int code = huc.getResponseCode();
+		if( code != HttpURLConnection.HTTP_OK ) {
+			// drain, so the connection can be reused
+			InputStream es = huc.getErrorStream();
+			if( es != null ) {
+				IOUtils.toByteArray( es );
+				es.close();
+			}
+			throw new HttpError( code, u );
+		}
+		InputStream is = huc.getInputStream();
+		try {
+			return IOUtils.toByteArray( is );
+		} finally {
+			is.close();
+		}
+	}
+
+	private final int perHost;
+	private final ExecutorService pool;
+	private final ConcurrentMap<SchemaLocation,Future<byte[]>> downloads;
+	private final ConcurrentMap<String,Host> hosts;
+	private final Set<SchemaLocation> opened;
+	private volatile SchemaCache cache;
+	private volatile Listener listener;
+	private volatile Metrics metrics;
+	private volatile int connectTimeout, readTimeout, retries;
+	private volatile long backoff;
+}
+
+// eof
@@ -0,0 +1,348 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+
+/**
+ * @author Stuart Maclean
+ *
+ * What one XSDWalker run learned about each schema it parsed, saved so
+ * that the next run can skip re-parsing unchanged files.  Per schema
+ * url we hold its target namespace and dependency list, plus, for file:
+ * urls, a fingerprint: mtime, size and SHA-1 of the content.  For
+ * entries of local archives (jar: urls), the fingerprint is the entry's
+ * time, size and CRC, as the archive's central directory has them, so
+ * checking is no read of the entry at all.  We also
+ * hold the set of (pruned) leaf nodes, i.e. the content of the uber
+ * xsd, and the options which shaped the outputs, so the caller can
+ * tell if its outputs need rewriting at all.
+ *
+ * Edges are not stored: they follow from the dependency lists, so the walk
+ * rebuilds them with no parsing.  A changed file is simply re-parsed,
+ * and any imports it newly acquires are walked (and parsed) as usual.
+ *
+ * Remote (http:) entries are fingerprinted only when fetched through
+ * a SchemaCache, by the SHA-1 of their content as the cache holds it.
+ * Checking one is then a cache lookup, which revalidates with the
+ * server if the cache entry is stale.  Without a cache, remote schemas
+ * are always re-parsed, as we have no cheap way to tell them unchanged.
+ *
+ * The file format is line-based, tab-separated (since urls can hold
+ * commas):
+ *
+ * O option              - an output-shaping option of the run
+ * L tns location        - a leaf in the uber xsd
+ * N location tns mtime size sha1 - a parsed schema (mtime, size -1
+ *                                  if remote, sha1 '-' if unknown)
+ * I namespace schemaLocation kind - an import (include, redefine,
+ *                                    override) of the preceding N
+ *
+ * Version 1 snapshots held imports only, so are ignored.
+ */
+public class GraphSnapshot {
+
+	public GraphSnapshot() {
+		previous = new ConcurrentHashMap<String,Entry>();
+		current = new ConcurrentHashMap<String,Entry>();
+		previousOptions = Collections.emptyList();
+		previousLeaves = Collections.emptyList();
+		reused = new AtomicInteger();
+	}
+
+	/**
+	 * @return The snapshot saved in f, or an empty one if f is missing
+	 * or unreadable (we then just parse everything).
+	 */
+	static public GraphSnapshot load( File f ) {
+		GraphSnapshot result = new GraphSnapshot();
+		if( !f.isFile() )
+			return result;
+		try {
+			result.read( f );
+		} catch( Exception e ) {
+			XSDWalker.log.warn( "Ignoring bad snapshot " + f + ": " + e );
+			result = new GraphSnapshot();
+		}
+		return result;
+	}
+
+	/**
+	 * @param cache What remote schemas are fetched through, so by which
+	 * they are checked for changes.  Null to always re-parse them.
+	 */
+	public void setCache( SchemaCache cache ) {
+		this.cache = cache;
+	}
+
+	/**
+	 * @return What u contained when last parsed, if it has not changed
+	 * since.  Null means u must be parsed.
+	 */
+	SchemaInfo lookup( SchemaLocation u ) {
+		String key = u.toString();
+		Entry e = previous.get( key );
+		if( e == null )
+			return null;
+		if( key.startsWith( "jar:" ) ) {
+			ZipEntry ze = entry( key );
+			if( ze == null || ze.getSize() != e.size ||
+				!crc( ze ).equals( e.sha1 ) )
+				return null;
+			current.put( key, e );
+			reused.incrementAndGet();
+			return e.info;
+		}
+		if( e.remote() ) {
+			SchemaCache c = cache;
+			if( c == null || e.sha1.equals( NODIGEST ) )
+				return null;
+			try {
+				if( !e.sha1.equals( SchemaCache.sha1( c.get( u.toURL() ) ) ) )
+					return null;
+			} catch( IOException ioe ) {
+				return null;
+			}
+			current.put( key, e );
+			reused.incrementAndGet();
+			return e.info;
+		}
+		File f = asFile( u );
+		if( f == null || !f.isFile() )
+			return null;
+		long mtime = f.lastModified();
+		long size = f.length();
+		if( mtime != e.mtime || size != e.size ) {
+			// touched, but maybe not edited...
+			if( size != e.size )
+				return null;
+			try {
+				if( !e.sha1.equals( sha1( f ) ) )
+					return null;
+			} catch( IOException ioe ) {
+				return null;
+			}
+			e = new Entry( e.info, mtime, size, e.sha1 );
+		}
+		current.put( key, e );
+		reused.incrementAndGet();
+		return e.info;
+	}
+
+	/**
+	 * @return True if lookup( u ) may well succeed without a download,
+	 * as for a remote u we hold whose content the cache holds too.
+	 */
+	boolean reuses( SchemaLocation u ) {
+		Entry e = previous.get( u.toString() );
+		SchemaCache c = cache;
+		if( e == null || !e.remote() || c == null ||
+			e.sha1.equals( NODIGEST ) )
+			return false;
+		try {
+			return c.contains( u.toURL() );
+		} catch( IOException ioe ) {
+			return false;
+		}
+	}
+
+	/**
+	 * Note the result of a fresh parse of u.
+	 */
+	void record( SchemaLocation u, SchemaInfo si ) throws IOException {
+		File f = asFile( u );
+		ZipEntry ze = entry( u.toString() );
+		Entry e;
+		if( ze != null ) {
+			e = new Entry( si, ze.getTime(), ze.getSize(), crc( ze ) );
+		} else if( f == null ) {
+			// as fetched via the cache, which has it by now
+			String digest = cache == null || !u.isRemote() ? null :
+				cache.digest( u.toURL() );
+			e = new Entry( si, -1, -1, digest == null ? NODIGEST : digest );
+		} else {
+			// stat before hashing, a racing edit then looks changed next time
+			long mtime = f.lastModified();
+			long size = f.length();
+			e = new Entry( si, mtime, size, sha1( f ) );
+		}
+		current.put( u.toString(), e );
+	}
+
+	/**
+	 * @return Count of lookup() calls which spared a parse.
+	 */
+	public int reused() {
+		return reused.get();
+	}
+
+	/**
+	 * @param leaves The uber xsd content of this run, as 'tns location'
+	 * strings, see leafKeys.
+	 * @return True if these differ from the previous run's leaves.
+	 */
+	public boolean setLeaves( List<String> leaves ) {
+		currentLeaves = new ArrayList<String>( leaves );
+		return !currentLeaves.equals( previousLeaves );
+	}
+
+	/**
+	 * @param options Those of this run's options which shape its
+	 * outputs, as opposed to which schemas are walked, or how.
+	 * @return True if these differ from the previous run's options.
+	 */
+	public boolean setOptions( List<String> options ) {
+		currentOptions = new ArrayList<String>( options );
+		return !currentOptions.equals( previousOptions );
+	}
+
+	/**
+	 * @return The pruned leaves of g, i.e. what the uber xsd lists.
+	 */
+	static List<String> leafKeys( SchemaGraph g ) {
+		BitSet leaves = g.prunedLeaves();
+		List<String> result = new ArrayList<String>( leaves.cardinality() );
+		for( int i = leaves.nextSetBit( 0 ); i >= 0;
+			 i = leaves.nextSetBit( i+1 ) )
+			result.add( g.targetNamespace( i ) + "\t" + g.location( i ) );
+		return result;
+	}
+
+	/**
+	 * Write out what this run recorded (fresh parses plus reused entries).
+	 */
+	public void save( File f ) throws IOException {
+		List<String> keys = new ArrayList<String>( current.keySet() );
+		Collections.sort( keys );
+		File tmp = new File( f.getPath() + ".tmp" );
+		PrintWriter pw = XSDWalker.writer( tmp, false );
+		pw.println( HEADER );
+		if( currentOptions != null ) {
+			for( String o : currentOptions )
+				pw.println( "O\t" + o );
+		}
+		if( currentLeaves != null ) {
+			for( String l : currentLeaves )
+				pw.println( "L\t" + l );
+		}
+		for( String key : keys ) {
+			Entry e = current.get( key );
+			pw.println( "N\t" + key + "\t" + e.info.targetNamespace + "\t" +
+						e.mtime + "\t" + e.size + "\t" + e.sha1 );
+			for( ImportInfo ii : e.info.getDependencies() )
+				pw.println( "I\t" + ii.namespace + "\t" + ii.schemaLocation +
+							"\t" + ii.kind.elementName() );
+		}
+		pw.close();
+		if( pw.checkError() )
+			throw new IOException( "Writing " + tmp );
+		f.delete();
+		if( !tmp.renameTo( f ) )
+			throw new IOException( "Cannot rename " + tmp + " to " + f );
+	}
+
+	private void read( File f ) throws IOException {
+		BufferedReader br = new BufferedReader( new FileReader( f ) );
+		try {
+			String line = br.readLine();
+			if( !HEADER.equals( line ) )
+				throw new IOException( "Not a snapshot: " + line );
+			List<String> options = new ArrayList<String>();
+			List<String> leaves = new ArrayList<String>();
+			SchemaInfo si = null;
+			while( ( line = br.readLine() ) != null ) {
+				String[] ss = line.split( "\t", -1 );
+				if( false ) {
+				} else if( ss[0].equals( "O" ) && ss.length >= 2 ) {
+					// option values may themselves hold tabs
+					options.add( line.substring( 2 ) );
+				} else if( ss[0].equals( "L" ) && ss.length == 3 ) {
+					leaves.add( ss[1] + "\t" + ss[2] );
+				} else if( ss[0].equals( "N" ) && ss.length == 6 ) {
+					si = new SchemaInfo( ss[2] );
+					Entry e = new Entry( si, Long.parseLong( ss[3] ),
+										 Long.parseLong( ss[4] ), ss[5] );
+					previous.put( ss[1], e );
+				} else if( ss[0].equals( "I" ) && ss.length == 4 &&
+						   si != null &&
+						   ImportInfo.Kind.forElement( ss[3] ) != null ) {
+					si.addDependency( ImportInfo.Kind.forElement( ss[3] ),
+									  ss[1], ss[2] );
+				} else {
+					throw new IOException( "Bad snapshot line: " + line );
+				}
+			}
+			previousOptions = options;
+			previousLeaves = leaves;
+		} finally {
+			br.close();
+		}
+	}
+
+	static private File asFile( SchemaLocation u ) {
+		if( !u.toString().startsWith( "file:" ) )
+			return null;
+		try {
+			return new File( u.toURI() );
+		} catch( Exception e ) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return The archive entry jar: url names, or null if none, or
+	 * unreadable.
+	 */
+	static private ZipEntry entry( String url ) {
+		if( !url.startsWith( "jar:" ) )
+			return null;
+		try {
+			return Archives.entry( url );
+		} catch( IOException ioe ) {
+			return null;
+		}
+	}
+
+	static private String crc( ZipEntry ze ) {
+		return "crc" + Long.toHexString( ze.getCrc() );
+	}
+
+	static private String sha1( File f ) throws IOException {
+		return SchemaCache.sha1( LocalFiles.read( f ) );
+	}
+
+	static class Entry {
+		Entry( SchemaInfo info, long mtime, long size, String sha1 ) {
+			this.info = info;
+			this.mtime = mtime;
+			this.size = size;
+			this.sha1 = sha1;
+		}
+		boolean remote() {
+			return size < 0;
+		}
+		final SchemaInfo info;
+		final long mtime, size;
+		final String sha1;
+	}
+
+	static private final String HEADER = "#xsdwalker snapshot 2";
+
+	static private final String NODIGEST = "-";
+
+	private final Map<String,Entry> previous, current;
+	private List<String> previousOptions, currentOptions;
+	private List<String> previousLeaves, currentLeaves;
+	private final AtomicInteger reused;
+	private SchemaCache cache;
+}
+
+// eof
@@ -6,6 +6,12 @@
 
  * <xs:import namespace="http://stix.mitre.org/common-1" schemaLocation="http://stix.mitre.org/XMLSchema/common/1.1.1/stix_common.xsd"/>
  *
+ * or from an include, redefine or (xsd 1.1) override element, which
+ * carry no namespace attribute: these pull in pieces of the including
+ * schema's own namespace, so for these we record that namespace, i.e.
+ * the one the target must have (or have no target namespace at all, a
+ * 'chameleon' include, in which case it takes on the includer's).
+ *
  * Instances of this class created by the Parser class. 
  *
  * @see SchemaInfo
@@ -14,7 +20,61 @@
 
 public class ImportInfo {
 
+	/**
+	 * The xsd elements which make one schema document depend on another.
+	 */
+	public enum Kind {
+		IMPORT( "Import" ),
+		INCLUDE( "Include" ),
+		REDEFINE( "Redefine" ),
+		OVERRIDE( "Override" );
+
+		Kind( String label ) {
+			this.label = label;
+		}
+
+		/**
+		 * @return True for include, redefine and override, whose
+		 * targets become part of the includer's namespace.
+		 */
+		public boolean isInclusion() {
+			return this != IMPORT;
+		}
+
+		/**
+		 * @return The Kind for xsd element 'localName', or null if that
+		 * element is not a dependency.
+		 */
+		static public Kind forElement( String localName ) {
+			if( false ) {
+			} else if( localName.equals( "import" ) ) {
+				return IMPORT;
+			} else if( localName.equals( "include" ) ) {
+				return INCLUDE;
+			} else if( localName.equals( "redefine" ) ) {
+				return REDEFINE;
+			} else if( localName.equals( "override" ) ) {
+				return OVERRIDE;
+			}
+			return null;
+		}
+
+		/**
+		 * @return The xsd element name, e.g. 'include'.
+		 */
+		public String elementName() {
+			return name().toLowerCase();
+		}
+		
+		public final String label;
+	}
+	
 	public ImportInfo( String namespace, String schemaLocation ) {
+		this( Kind.IMPORT, namespace, schemaLocation );
+	}
+
+	public ImportInfo( Kind kind, String namespace, String schemaLocation ) {
+		this.kind = kind;
 		this.namespace = namespace;
 		this.schemaLocation = schemaLocation;
 	}
@@ -24,6 +84,7 @@ public class ImportInfo {
 		return namespace + "," + schemaLocation;
 	}
 	
+	public final Kind kind;
 	public final String namespace, schemaLocation;
 }
 
@@ -0,0 +1,209 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Stuart Maclean
+ *
+ * Reading of local (file:) schema documents via NIO, in place of
+ * URL.openStream and its default buffering, which on network mounted
+ * schema trees is costly.
+ *
+ * Files are read from their FileChannel into direct buffers taken
+ * from a shared pool, in large chunks, and the buffer returned to the
+ * pool on close.  The streaming scan stops at the first declaration,
+ * so typically reads just one chunk, however large the file.  Only
+ * very large files (MAP_THRESHOLD and up) are memory-mapped, the parser
+ * then reading straight from the mapping.  Mapping has a fixed cost
+ * (the map call, and the unmap at some later gc), so is kept for files
+ * where it could pay.  The threshold is an estimate: ReadBenchmark's
+ * huge size class (above it) compares mapped and pooled reads.
+ *
+ * @see Parser
+ */
+final class LocalFiles {
+
+	private LocalFiles() {
+	}
+
+	/**
+	 * @return A stream over f's content.  Close it, to release its
+	 * pooled buffer.
+	 */
+	static InputStream open( File f ) throws IOException {
+		FileInputStream fis = new FileInputStream( f );
+		FileChannel fc = fis.getChannel();
+		try {
+			long size = fc.size();
+			if( size >= mapThreshold ) {
+				ByteBuffer bb = fc.map( FileChannel.MapMode.READ_ONLY,
+										0, size );
+				// the mapping outlives the channel
+				fis.close();
+				return new BufferStream( bb, null );
+			}
+		} catch( IOException ioe ) {
+			fis.close();
+			throw ioe;
+		}
+		return new BufferStream( take(), fis );
+	}
+
+	/**
+	 * @return f's entire content, read into an array of just the right
+	 * size, with no intermediate copies.
+	 */
+	static byte[] read( File f ) throws IOException {
+		FileInputStream fis = new FileInputStream( f );
+		try {
+			FileChannel fc = fis.getChannel();
+			long size = fc.size();
+			if( size > Integer.MAX_VALUE )
+				throw new IOException( "Too large: " + f );
+			byte[] result = new byte[(int)size];
+			ByteBuffer bb = ByteBuffer.wrap( result );
+			while( bb.hasRemaining() ) {
+				if( fc.read( bb ) < 0 )
+					// truncated under us
+					throw new IOException( "Short read: " + f );
+			}
+			return result;
+		} finally {
+			fis.close();
+		}
+	}
+
+	/**
+	 * @param threshold Map files this size and up, in place of
+	 * MAP_THRESHOLD, e.g. Long.MAX_VALUE for none.  For benchmarks.
+	 */
+	static void setMapThreshold( long threshold ) {
+		mapThreshold = threshold;
+	}
+
+	static private ByteBuffer take() {
+		ByteBuffer result = pool.poll();
+		if( result == null )
+			return ByteBuffer.allocateDirect( BUFFER_SIZE );
+		pooled.decrementAndGet();
+		result.clear();
+		return result;
+	}
+
+	static private void give( ByteBuffer bb ) {
+		if( pooled.incrementAndGet() > POOL_MAX ) {
+			pooled.decrementAndGet();
+			return;
+		}
+		pool.offer( bb );
+	}
+
+	/**
+	 * Over a mapped buffer (source null), or a pooled one which we
+	 * refill from source as it drains.
+	 */
+	static private class BufferStream extends InputStream {
+		BufferStream( ByteBuffer bb, FileInputStream source ) {
+			this.bb = bb;
+			this.source = source;
+			if( source != null ) {
+				channel = source.getChannel();
+				// empty, so the first read fills it
+				bb.limit( 0 );
+			} else {
+				channel = null;
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			if( !fill() )
+				return -1;
+			return bb.get() & 0xff;
+		}
+
+		@Override
+		public int read( byte[] b, int off, int len ) throws IOException {
+			if( len == 0 )
+				return 0;
+			if( !fill() )
+				return -1;
+			int n = Math.min( len, bb.remaining() );
+			bb.get( b, off, n );
+			return n;
+		}
+
+		@Override
+		public long skip( long n ) throws IOException {
+			long result = 0;
+			while( result < n && fill() ) {
+				int k = (int)Math.min( n - result, bb.remaining() );
+				bb.position( bb.position() + k );
+				result += k;
+			}
+			return result;
+		}
+
+		@Override
+		public int available() {
+			return closed ? 0 : bb.remaining();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if( closed )
+				return;
+			closed = true;
+			if( source != null ) {
+				source.close();
+				give( bb );
+			}
+		}
+
+		/**
+		 * @return True if bytes remain to be read.
+		 */
+		private boolean fill() throws IOException {
+			if( closed )
+				throw new IOException( "Closed" );
+			if( bb.hasRemaining() )
+				return true;
+			if( channel == null )
+				return false;
+			bb.clear();
+			int n;
+			do {
+				n = channel.read( bb );
+			} while( n == 0 );
+			bb.flip();
+			return n > 0;
+		}
+
+		private final ByteBuffer bb;
+		private final FileInputStream source;
+		private final FileChannel channel;
+		private boolean closed;
+	}
+
+	// files this size and up are mapped
+	static final long MAP_THRESHOLD = 4 * 1024 * 1024;
+
+	// pooled buffer size, i.e. read chunk size, for smaller files
+	static final int BUFFER_SIZE = 64 * 1024;
+
+	static private final int POOL_MAX = 64;
+
+	static private volatile long mapThreshold = MAP_THRESHOLD;
+
+	static private final Queue<ByteBuffer> pool =
+		new ConcurrentLinkedQueue<ByteBuffer>();
+	static private final AtomicInteger pooled = new AtomicInteger();
+}
+
+// eof
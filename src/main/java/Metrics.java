@@ -0,0 +1,441 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * @author Stuart Maclean
+ *
+ * Instrumentation of one run: per-node parse time and bytes parsed,
+ * download latency of remote nodes, frontier depth and worker
+ * utilization of a concurrent walk, cache hit rates, and the time
+ * taken by each phase (scan, walk, analyse, write).  Thread-safe, and
+ * cheap enough to leave on: a few atomic updates per node.
+ *
+ * Written out, via writeJSON, as a machine-readable summary for build
+ * dashboards, and also viewable live over JMX (see MetricsMBean).
+ *
+ * Parse time for a node is all the time spent getting its SchemaInfo:
+ * on the walking thread (including any wait for i/o, or for its
+ * download), plus, for a remote node pre-parsed by the Fetcher's
+ * listener, the time on that fetching thread.  Locations which failed
+ * to parse are counted too, as nodes, since their time was spent all
+ * the same.
+ */
+public class Metrics implements MetricsMBean {
+
+	public Metrics() {
+		nodes = new ConcurrentHashMap<SchemaLocation,NodeStats>();
+		phases = new LinkedHashMap<String,Long>();
+		for( String s : PHASES )
+			phases.put( s, 0L );
+		caches = new LinkedHashMap<String,long[]>();
+		fetches = new AtomicLong();
+		fetchNanos = new AtomicLong();
+		fetchBytes = new AtomicLong();
+		retries = new AtomicLong();
+		failures = new AtomicLong();
+		busyNanos = new AtomicLong();
+		depthSum = new AtomicLong();
+		depthSamples = new AtomicLong();
+		depthMax = new AtomicInteger();
+	}
+
+	/**
+	 * Record nanos spent, and bytes parsed, getting u's SchemaInfo.
+	 */
+	void parsed( SchemaLocation u, long nanos, long bytes ) {
+		NodeStats ns = node( u );
+		synchronized( ns ) {
+			ns.parseNanos += nanos;
+			ns.bytes += bytes;
+		}
+	}
+
+	/**
+	 * Record a completed download of u.
+	 *
+	 * @param nanos From first request to last byte, over all attempts.
+	 */
+	void fetched( SchemaLocation u, long nanos, long bytes ) {
+		NodeStats ns = node( u );
+		synchronized( ns ) {
+			ns.fetchNanos = nanos;
+		}
+		fetches.incrementAndGet();
+		fetchNanos.addAndGet( nanos );
+		fetchBytes.addAndGet( bytes );
+	}
+
+	void retried() {
+		retries.incrementAndGet();
+	}
+
+	void failed() {
+		failures.incrementAndGet();
+	}
+
+	/**
+	 * Sample the concurrent walk's frontier depth.
+	 */
+	void queued( int depth ) {
+		this.depth = depth;
+		depthSum.addAndGet( depth );
+		depthSamples.incrementAndGet();
+		int max;
+		while( depth > ( max = depthMax.get() ) &&
+			   !depthMax.compareAndSet( max, depth ) )
+			;
+	}
+
+	/**
+	 * @param nanos Spent by one worker on one node.
+	 */
+	void busy( long nanos ) {
+		busyNanos.addAndGet( nanos );
+	}
+
+	/**
+	 * @param threads Workers in the concurrent walk just ended.
+	 * @param nanos How long it ran.
+	 */
+	void workers( int threads, long nanos ) {
+		this.threads = threads;
+		this.walkNanos = nanos;
+	}
+
+	/**
+	 * Add nanos to the named phase's total.
+	 */
+	public synchronized void phase( String name, long nanos ) {
+		Long l = phases.get( name );
+		phases.put( name, ( l == null ? 0 : l ) + nanos );
+	}
+
+	/**
+	 * Record the hit/miss counts of a named cache.
+	 */
+	public synchronized void cache( String name, long hits, long misses ) {
+		caches.put( name, new long[] { hits, misses } );
+	}
+
+	private NodeStats node( SchemaLocation u ) {
+		NodeStats result = nodes.get( u );
+		if( result == null ) {
+			result = new NodeStats( u );
+			NodeStats prior = nodes.putIfAbsent( u, result );
+			if( prior != null )
+				result = prior;
+		}
+		return result;
+	}
+
+	// MetricsMBean
+
+	public long getNodes() {
+		return nodes.size();
+	}
+
+	public long getBytes() {
+		long result = 0;
+		for( NodeStats ns : nodes.values() ) {
+			synchronized( ns ) {
+				result += ns.bytes;
+			}
+		}
+		return result;
+	}
+
+	public double getParseMillis() {
+		long result = 0;
+		for( NodeStats ns : nodes.values() ) {
+			synchronized( ns ) {
+				result += ns.parseNanos;
+			}
+		}
+		return millis( result );
+	}
+
+	public long getFetches() {
+		return fetches.get();
+	}
+
+	public double getFetchMillis() {
+		return millis( fetchNanos.get() );
+	}
+
+	public long getFetchRetries() {
+		return retries.get();
+	}
+
+	public long getFetchFailures() {
+		return failures.get();
+	}
+
+	public int getQueueDepth() {
+		return depth;
+	}
+
+	public int getQueueDepthMax() {
+		return depthMax.get();
+	}
+
+	/**
+	 * @return Fraction of the concurrent walk's worker time spent
+	 * visiting nodes, as opposed to waiting on the frontier, or 0 if
+	 * the walk was not concurrent.
+	 */
+	public double getWorkerUtilization() {
+		if( threads == 0 || walkNanos == 0 )
+			return 0;
+		return (double)busyNanos.get() / ( (double)threads * walkNanos );
+	}
+
+	public double getScanMillis() {
+		return phaseMillis( "scan" );
+	}
+
+	public double getWalkMillis() {
+		return phaseMillis( "walk" );
+	}
+
+	public double getAnalyseMillis() {
+		return phaseMillis( "analyse" );
+	}
+
+	public double getWriteMillis() {
+		return phaseMillis( "write" );
+	}
+
+	public double getSchemaCacheHitRate() {
+		return hitRate( "schema" );
+	}
+
+	public double getParseCacheHitRate() {
+		return hitRate( "parse" );
+	}
+
+	public double getSnapshotHitRate() {
+		return hitRate( "snapshot" );
+	}
+
+	private synchronized double phaseMillis( String name ) {
+		Long l = phases.get( name );
+		return l == null ? 0 : millis( l );
+	}
+
+	private synchronized double hitRate( String name ) {
+		long[] hm = caches.get( name );
+		if( hm == null || hm[0] + hm[1] == 0 )
+			return 0;
+		return (double)hm[0] / ( hm[0] + hm[1] );
+	}
+
+	/**
+	 * Register with the platform MBean server, as NAME, replacing any
+	 * prior registration, e.g. that of a concurrent Daemon run.
+	 */
+	public void register() throws Exception {
+		MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+		ObjectName on = new ObjectName( NAME );
+		synchronized( REGISTRATION ) {
+			if( mbs.isRegistered( on ) )
+				mbs.unregisterMBean( on );
+			mbs.registerMBean( this, on );
+			registered = this;
+		}
+	}
+
+	/**
+	 * Undo register, unless some later register has replaced us.
+	 */
+	public void unregister() throws Exception {
+		MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+		ObjectName on = new ObjectName( NAME );
+		synchronized( REGISTRATION ) {
+			if( registered != this )
+				return;
+			registered = null;
+			if( mbs.isRegistered( on ) )
+				mbs.unregisterMBean( on );
+		}
+	}
+
+	public void writeJSON( File f ) throws IOException {
+		PrintWriter pw = XSDWalker.writer( f, false );
+		writeJSON( pw );
+		pw.close();
+		if( pw.checkError() )
+			throw new IOException( "Writing " + f );
+	}
+
+	/**
+	 * The summary, as a single JSON object.  Times in milliseconds,
+	 * per-node entries sorted by location.
+	 */
+	public void writeJSON( PrintWriter pw ) {
+		List<NodeStats> nss = new ArrayList<NodeStats>( nodes.values() );
+		Collections.sort( nss );
+		long parseTotal = 0, parseMax = 0, bytes = 0;
+		long fetchMax = 0;
+		for( NodeStats ns : nss ) {
+			synchronized( ns ) {
+				parseTotal += ns.parseNanos;
+				parseMax = Math.max( parseMax, ns.parseNanos );
+				bytes += ns.bytes;
+				fetchMax = Math.max( fetchMax, ns.fetchNanos );
+			}
+		}
+		long fs = fetches.get();
+		long samples = depthSamples.get();
+
+		pw.println( "{" );
+		pw.println( "  \"version\": " + VERSION + "," );
+		synchronized( this ) {
+			pw.println( "  \"phases\": {" );
+			int i = 0;
+			for( Map.Entry<String,Long> me : phases.entrySet() ) {
+				pw.print( "    " + quote( me.getKey() ) + ": " +
+						  format( millis( me.getValue() ) ) );
+				pw.println( ++i < phases.size() ? "," : "" );
+			}
+			pw.println( "  }," );
+		}
+		pw.println( "  \"nodes\": {" );
+		pw.println( "    \"count\": " + nss.size() + "," );
+		pw.println( "    \"bytes\": " + bytes + "," );
+		pw.println( "    \"parseMillis\": " +
+					stats( parseTotal, parseMax, nss.size() ) );
+		pw.println( "  }," );
+		pw.println( "  \"fetches\": {" );
+		pw.println( "    \"count\": " + fs + "," );
+		pw.println( "    \"bytes\": " + fetchBytes.get() + "," );
+		pw.println( "    \"retries\": " + retries.get() + "," );
+		pw.println( "    \"failures\": " + failures.get() + "," );
+		pw.println( "    \"millis\": " +
+					stats( fetchNanos.get(), fetchMax, fs ) );
+		pw.println( "  }," );
+		pw.println( "  \"walk\": {" );
+		pw.println( "    \"threads\": " + Math.max( threads, 1 ) + "," );
+		pw.println( "    \"queueDepthMax\": " + depthMax.get() + "," );
+		pw.println( "    \"queueDepthMean\": " +
+					format( samples == 0 ? 0 :
+							(double)depthSum.get() / samples ) + "," );
+		pw.println( "    \"workerUtilization\": " +
+					format( getWorkerUtilization() ) );
+		pw.println( "  }," );
+		synchronized( this ) {
+			pw.println( "  \"caches\": {" );
+			int i = 0;
+			for( Map.Entry<String,long[]> me : caches.entrySet() ) {
+				long[] hm = me.getValue();
+				pw.print( "    " + quote( me.getKey() ) + ": { \"hits\": " +
+						  hm[0] + ", \"misses\": " + hm[1] +
+						  ", \"hitRate\": " +
+						  format( hitRate( me.getKey() ) ) + " }" );
+				pw.println( ++i < caches.size() ? "," : "" );
+			}
+			pw.println( "  }," );
+		}
+		pw.println( "  \"perNode\": [" );
+		for( int i = 0; i < nss.size(); i++ ) {
+			NodeStats ns = nss.get(i);
+			synchronized( ns ) {
+				pw.print( "    { \"location\": " +
+						  quote( ns.location.toString() ) +
+						  ", \"parseMillis\": " +
+						  format( millis( ns.parseNanos ) ) +
+						  ", \"bytes\": " + ns.bytes );
+				if( ns.fetchNanos > 0 )
+					pw.print( ", \"fetchMillis\": " +
+							  format( millis( ns.fetchNanos ) ) );
+			}
+			pw.println( " }" + ( i < nss.size() - 1 ? "," : "" ) );
+		}
+		pw.println( "  ]" );
+		pw.println( "}" );
+		pw.flush();
+	}
+
+	static private String stats( long totalNanos, long maxNanos, long n ) {
+		return "{ \"total\": " + format( millis( totalNanos ) ) +
+			", \"max\": " + format( millis( maxNanos ) ) +
+			", \"mean\": " +
+			format( n == 0 ? 0 : millis( totalNanos ) / n ) + " }";
+	}
+
+	static private double millis( long nanos ) {
+		return nanos / 1e6;
+	}
+
+	// fixed point, and never a locale's decimal comma
+	static private String format( double d ) {
+		return String.format( Locale.ROOT, "%.3f", d );
+	}
+
+	static String quote( String s ) {
+		StringBuilder sb = new StringBuilder( s.length() + 2 );
+		sb.append( '"' );
+		for( int i = 0; i < s.length(); i++ ) {
+			char c = s.charAt(i);
+			if( false ) {
+			} else if( c == '"' || c == '\\' ) {
+				sb.append( '\\' ).append( c );
+			} else if( c < 0x20 ) {
+				sb.append( String.format( "\\u%04x", (int)c ) );
+			} else {
+				sb.append( c );
+			}
+		}
+		sb.append( '"' );
+		return sb.toString();
+	}
+
+	static private class NodeStats implements Comparable<NodeStats> {
+		NodeStats( SchemaLocation location ) {
+			this.location = location;
+		}
+		public int compareTo( NodeStats o ) {
+			return location.toString().compareTo( o.location.toString() );
+		}
+		final SchemaLocation location;
+		long parseNanos, bytes, fetchNanos;
+	}
+
+	static public final String NAME = "xsdwalker:type=Metrics";
+
+	static private final int VERSION = 1;
+
+	static private final Object REGISTRATION = new Object();
+
+	// guarded by REGISTRATION
+	static private Metrics registered;
+
+	static private final String[] PHASES =
+		{ "scan", "walk", "analyse", "write" };
+
+	private final ConcurrentMap<SchemaLocation,NodeStats> nodes;
+	private final Map<String,Long> phases;
+	private final Map<String,long[]> caches;
+	private final AtomicLong fetches, fetchNanos, fetchBytes;
+	private final AtomicLong retries, failures;
+	private final AtomicLong busyNanos, depthSum, depthSamples;
+	private final AtomicInteger depthMax;
+	private volatile int depth, threads;
+	private volatile long walkNanos;
+}
+
+// eof
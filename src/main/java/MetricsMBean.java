@@ -0,0 +1,46 @@
+/**
+ * @author Stuart Maclean
+ *
+ * The JMX view of a Metrics, as registered by XSDWalker --jmx.  Times
+ * in milliseconds.
+ *
+ * @see Metrics
+ */
+public interface MetricsMBean {
+
+	long getNodes();
+
+	long getBytes();
+
+	double getParseMillis();
+
+	long getFetches();
+
+	double getFetchMillis();
+
+	long getFetchRetries();
+
+	long getFetchFailures();
+
+	int getQueueDepth();
+
+	int getQueueDepthMax();
+
+	double getWorkerUtilization();
+
+	double getScanMillis();
+
+	double getWalkMillis();
+
+	double getAnalyseMillis();
+
+	double getWriteMillis();
+
+	double getSchemaCacheHitRate();
+
+	double getParseCacheHitRate();
+
+	double getSnapshotHitRate();
+}
+
+// eof
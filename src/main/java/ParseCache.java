@@ -0,0 +1,202 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Stuart Maclean
+ *
+ * Memo of Parser results, keyed by the SHA-1 of the document content,
+ * so that identical documents at different locations (e.g. vendored
+ * copies of one schema under several input roots) are parsed once.  A
+ * SchemaInfo holds schemaLocations exactly as written, so it does not
+ * depend on where the document was found: relative locations are
+ * resolved against each node's own location, by the walker.
+ *
+ * Bounded by entry count and by (estimated) bytes held, evicting least
+ * recently used entries first.  Can be saved to, and loaded from, a
+ * file, for use across runs.  Thread-safe.
+ *
+ * The file format, as for GraphSnapshot, is line-based, tab-separated:
+ *
+ * S sha1 tns           - a parsed document
+ * I namespace schemaLocation kind - a dependency of the preceding S
+ */
+public class ParseCache {
+
+	public ParseCache() {
+		this( 10000, 64L * 1024 * 1024 );
+	}
+
+	/**
+	 * @param maxEntries Most documents held.
+	 * @param maxBytes Most (estimated) bytes held, over all entries.
+	 */
+	public ParseCache( int maxEntries, long maxBytes ) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		// access order, so iteration is least recently used first
+		entries = new LinkedHashMap<String,SchemaInfo>( 16, 0.75f, true );
+	}
+
+	/**
+	 * @return The cache saved in f, or an empty one if f is missing or
+	 * unreadable.
+	 */
+	static public ParseCache load( File f, int maxEntries, long maxBytes ) {
+		ParseCache result = new ParseCache( maxEntries, maxBytes );
+		if( !f.isFile() )
+			return result;
+		try {
+			result.read( f );
+		} catch( Exception e ) {
+			XSDWalker.log.warn( "Ignoring bad parse cache " + f + ": " + e );
+			result = new ParseCache( maxEntries, maxBytes );
+		}
+		return result;
+	}
+
+	/**
+	 * @return What a document with this content parsed to, or null.
+	 */
+	SchemaInfo get( byte[] content ) {
+		return get( SchemaCache.sha1( content ) );
+	}
+
+	synchronized SchemaInfo get( String digest ) {
+		SchemaInfo result = entries.get( digest );
+		if( result == null )
+			misses++;
+		else
+			hits++;
+		return result;
+	}
+
+	void put( byte[] content, SchemaInfo si ) {
+		put( SchemaCache.sha1( content ), si );
+	}
+
+	synchronized void put( String digest, SchemaInfo si ) {
+		SchemaInfo prior = entries.put( digest, si );
+		if( prior != null )
+			bytes -= size( prior );
+		bytes += size( si );
+		Iterator<SchemaInfo> it = entries.values().iterator();
+		while( ( entries.size() > maxEntries || bytes > maxBytes ) &&
+			   it.hasNext() ) {
+			SchemaInfo lru = it.next();
+			it.remove();
+			bytes -= size( lru );
+			evictions++;
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long bytes() {
+		return bytes;
+	}
+
+	public synchronized long hits() {
+		return hits;
+	}
+
+	public synchronized long misses() {
+		return misses;
+	}
+
+	public synchronized long evictions() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return hits + " hits, " + misses + " misses, " + evictions +
+			" evictions, " + entries.size() + " entries, " + bytes + " bytes";
+	}
+
+	/**
+	 * Write out all entries, least recently used first, so that a load
+	 * restores their order.
+	 */
+	public synchronized void save( File f ) throws IOException {
+		File tmp = new File( f.getPath() + ".tmp" );
+		PrintWriter pw = XSDWalker.writer( tmp, false );
+		pw.println( HEADER );
+		for( Map.Entry<String,SchemaInfo> me : entries.entrySet() ) {
+			SchemaInfo si = me.getValue();
+			pw.println( "S\t" + me.getKey() + "\t" + si.targetNamespace );
+			for( ImportInfo ii : si.getDependencies() )
+				pw.println( "I\t" + ii.namespace + "\t" + ii.schemaLocation +
+							"\t" + ii.kind.elementName() );
+		}
+		pw.close();
+		if( pw.checkError() )
+			throw new IOException( "Writing " + tmp );
+		f.delete();
+		if( !tmp.renameTo( f ) )
+			throw new IOException( "Cannot rename " + tmp + " to " + f );
+	}
+
+	private void read( File f ) throws IOException {
+		BufferedReader br = new BufferedReader( new FileReader( f ) );
+		try {
+			String line = br.readLine();
+			if( !HEADER.equals( line ) )
+				throw new IOException( "Not a parse cache: " + line );
+			List<String> digests = new ArrayList<String>();
+			List<SchemaInfo> infos = new ArrayList<SchemaInfo>();
+			SchemaInfo si = null;
+			while( ( line = br.readLine() ) != null ) {
+				String[] ss = line.split( "\t", -1 );
+				if( false ) {
+				} else if( ss[0].equals( "S" ) && ss.length == 3 ) {
+					si = new SchemaInfo( ss[2] );
+					digests.add( ss[1] );
+					infos.add( si );
+				} else if( ss[0].equals( "I" ) && ss.length == 4 &&
+						   si != null &&
+						   ImportInfo.Kind.forElement( ss[3] ) != null ) {
+					si.addDependency( ImportInfo.Kind.forElement( ss[3] ),
+									  ss[1], ss[2] );
+				} else {
+					throw new IOException( "Bad parse cache line: " + line );
+				}
+			}
+			// only now are the entries complete, so sized correctly
+			for( int i = 0; i < digests.size(); i++ )
+				put( digests.get(i), infos.get(i) );
+		} finally {
+			br.close();
+		}
+	}
+
+	/**
+	 * @return A rough count of the heap bytes held by si, chars as 2
+	 * bytes, plus a fixed allowance per object.
+	 */
+	static long size( SchemaInfo si ) {
+		long result = 64 + 2 * si.targetNamespace.length();
+		for( ImportInfo ii : si.getDependencies() )
+			result += 64 + 2 * ( ii.namespace.length() +
+								 ii.schemaLocation.length() );
+		return result;
+	}
+
+	static private final String HEADER = "#xsdwalker parsecache 1";
+
+	private final int maxEntries;
+	private final long maxBytes;
+	private final LinkedHashMap<String,SchemaInfo> entries;
+	private long bytes, hits, misses, evictions;
+}
+
+// eof
@@ -1,7 +1,16 @@
 import java.io.File;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.namespace.NamespaceContext;
@@ -14,6 +23,8 @@ import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import org.apache.commons.io.input.CountingInputStream;
+
 /**
  * @author Stuart Maclean
  *
@@ -25,7 +36,29 @@ import org.w3c.dom.NodeList;
  * element itself.
  *
  * 2 A list of 'ImportInfo' objects, derived via extraction of all
- * <import> elements.
+ * <import>, <include>, <redefine> and <override> elements, in one pass
+ * over the schema element's children.
+ *
+ * Two scanning modes are offered.  The default is streaming (StAX):
+ * we read just the root element and its direct children, stopping at
+ * the first top-level declaration (the xsd spec says that all
+ * import/include/redefine elements must precede these).  On large
+ * schema documents we thus never look at the bulk of the content.
+ * The original DOM + XPath mode, which builds the whole document
+ * tree, is retained as a fallback, see Parser( boolean ).
+ *
+ * For tree shaking, a streaming Parser can instead read the whole
+ * document, also indexing its global declarations and what each
+ * references, see setIndexing.
+ *
+ * Remote (http:) documents are read through a SchemaCache, when one is
+ * supplied.  Local (file:) ones are read via NIO, see LocalFiles, and
+ * entries of local archives (jar:) via their ZipFile, see Archives.
+ *
+ * The JAXP factories are looked up just once per JVM, and shared by
+ * all Parsers (the lookup is a classpath scan, so costly, and paid
+ * by every Parser a walk creates).  Factories are not thread-safe, so
+ * all use of them is synchronized on the factory.
  *
  * @see SchemaInfo
  * @see ImportInfo
@@ -33,12 +66,30 @@ import org.w3c.dom.NodeList;
 public class Parser {
 	
 	public Parser() throws Exception {
-		DocumentBuilderFactory fac = DocumentBuilderFactory.newInstance();
-		// wah, without this 'namespace awareness setting' it all fails!
-		fac.setNamespaceAware( true );
-		bob = fac.newDocumentBuilder();
-		XPathFactory xpf = XPathFactory.newInstance();
-		xp = xpf.newXPath();
+		this( true );
+	}
+
+	/**
+	 * @param streaming If true, scan documents via StAX, else build a
+	 * full DOM and query it via XPath.
+	 */
+	public Parser( boolean streaming ) throws Exception {
+		this.streaming = streaming;
+		if( streaming ) {
+			xif = inputFactory();
+			bob = null;
+			xp = null;
+			return;
+		}
+		xif = null;
+		DocumentBuilderFactory fac = builderFactory();
+		synchronized( fac ) {
+			bob = fac.newDocumentBuilder();
+		}
+		XPathFactory xpf = xpathFactory();
+		synchronized( xpf ) {
+			xp = xpf.newXPath();
+		}
 
 		NamespaceContext nc = new NamespaceContext() {
 				public String getNamespaceURI( String prefix ) {
@@ -63,18 +114,156 @@ public class Parser {
 		xp.setNamespaceContext( nc );
 	}
 
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * @param indexing If true, read on past the dependencies, through
+	 * the whole document, recording in each SchemaInfo the global
+	 * declarations, and the components (types, elements, attributes,
+	 * groups) named by type=, base=, itemType=, memberTypes=,
+	 * substitutionGroup= and ref= anywhere within each.  Streaming
+	 * mode only.
+	 */
+	public void setIndexing( boolean indexing ) {
+		if( indexing && !streaming )
+			throw new IllegalStateException( "Indexing needs streaming" );
+		this.indexing = indexing;
+	}
+
+	public boolean isIndexing() {
+		return indexing;
+	}
+
+	/**
+	 * @param cache Source of http: documents, or null to fetch them
+	 * directly each time.
+	 */
+	public void setCache( SchemaCache cache ) {
+		this.cache = cache;
+	}
+	
 	public SchemaInfo parse( File xsd ) throws Exception {
+		return parse( xsd, xsd.toURI().toString() );
+	}
 
-		Document d = bob.parse( xsd );
-		return parse( d );
+	private SchemaInfo parse( File xsd, String systemId ) throws Exception {
+		InputStream is = LocalFiles.open( xsd );
+		try {
+			return parse( is, systemId );
+		} finally {
+			is.close();
+		}
 	}
 
 	public SchemaInfo parse( String uri ) throws Exception {
 
+		if( uri.startsWith( "file:" ) ) {
+			File f = asFile( uri );
+			if( f != null )
+				return parse( f, uri );
+		}
+
+		if( uri.startsWith( "jar:" ) ) {
+			InputStream is = Archives.open( uri );
+			if( is != null ) {
+				try {
+					return parse( is, uri );
+				} finally {
+					is.close();
+				}
+			}
+		}
+
+		if( cache != null && uri.startsWith( "http" ) ) {
+			InputStream is = cache.open( new URL( uri ) );
+			try {
+				return parse( is, uri );
+			} finally {
+				is.close();
+			}
+		}
+		if( streaming ) {
+			InputStream is = new URL( uri ).openStream();
+			try {
+				return parse( is, uri );
+			} finally {
+				is.close();
+			}
+		}
 		Document d = bob.parse( uri );
 		return parse( d );
 	}
 
+	static private synchronized XMLInputFactory inputFactory() {
+		if( inputFactory == null ) {
+			inputFactory = XMLInputFactory.newInstance();
+			inputFactory.setProperty( XMLInputFactory.IS_NAMESPACE_AWARE,
+									  Boolean.TRUE );
+		}
+		return inputFactory;
+	}
+
+	static private synchronized DocumentBuilderFactory builderFactory() {
+		if( builderFactory == null ) {
+			builderFactory = DocumentBuilderFactory.newInstance();
+			// wah, without this 'namespace awareness setting' it all fails!
+			builderFactory.setNamespaceAware( true );
+		}
+		return builderFactory;
+	}
+
+	static private synchronized XPathFactory xpathFactory() {
+		if( xpathFactory == null )
+			xpathFactory = XPathFactory.newInstance();
+		return xpathFactory;
+	}
+
+	/**
+	 * @return The local file named by file: uri, or null if it names
+	 * none, e.g. has a query part.
+	 */
+	static File asFile( String uri ) {
+		try {
+			return new File( new URI( uri ) );
+		} catch( Exception e ) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param systemId Where it came from, against which any relative
+	 * references would resolve.
+	 */
+	SchemaInfo parse( InputStream is, String systemId ) throws Exception {
+		CountingInputStream cis = new CountingInputStream( is );
+		try {
+			if( !streaming )
+				return parse( bob.parse( cis, systemId ) );
+			XMLStreamReader r;
+			synchronized( xif ) {
+				r = xif.createXMLStreamReader( systemId, cis );
+			}
+			try {
+				return parse( r );
+			} finally {
+				r.close();
+			}
+		} finally {
+			bytesRead += cis.getByteCount();
+		}
+	}
+
+	/**
+	 * @return Bytes consumed from all streams parsed so far (so not
+	 * counting DOM parses of remote uris, which the DocumentBuilder
+	 * reads for itself).
+	 */
+	long bytesRead() {
+		return bytesRead;
+	}
+
 	SchemaInfo parse( Document d ) throws Exception {
 	
 		String expr1 = "/xs:schema/@targetNamespace";
@@ -82,33 +271,226 @@ public class Parser {
 		
 		SchemaInfo result = new SchemaInfo( tns );
 		
-		String expr2 = "/xs:schema/xs:import";
+		// one query, so document order is kept across the kinds
+		String expr2 = "/xs:schema/*[self::xs:import or self::xs:include" +
+			" or self::xs:redefine or self::xs:override]";
 		NodeList nl = (NodeList)xp.evaluate( expr2, d,
 											 XPathConstants.NODESET );
 		for( int i = 0; i < nl.getLength(); i++ ) {
 			Node n = nl.item(i);
+			ImportInfo.Kind kind = ImportInfo.Kind.forElement
+				( n.getLocalName() );
 			NamedNodeMap nnm = n.getAttributes();
 			Node n1 = nnm.getNamedItem( "namespace" );
 			Node n2 = nnm.getNamedItem( "schemaLocation" );
-			if( n1 == null || n2 == null )
+			if( n2 == null )
 				// have seen imports with no schemaLocation
 				continue;
-			result.addImport( n1.getNodeValue(), n2.getNodeValue() );
+			if( kind.isInclusion() )
+				result.addInclusion( kind, n2.getNodeValue() );
+			else if( n1 != null )
+				result.addImport( n1.getNodeValue(), n2.getNodeValue() );
 		}
 		return result;
 	}
 
+	/**
+	 * Streaming equivalent of parse( Document ).  Any document whose
+	 * root is not xs:schema yields an empty SchemaInfo, as the XPath
+	 * expressions above would.
+	 */
+	SchemaInfo parse( XMLStreamReader r ) throws XMLStreamException {
+
+		while( r.hasNext() &&
+			   r.next() != XMLStreamConstants.START_ELEMENT )
+			;
+		if( !r.isStartElement() || !isXSD( r, "schema" ) )
+			return new SchemaInfo( "" );
+
+		String tns = r.getAttributeValue( null, "targetNamespace" );
+		SchemaInfo result = new SchemaInfo( tns == null ? "" : tns );
+		if( indexing )
+			result.indexed();
+
+		while( r.hasNext() ) {
+			int event = r.next();
+			if( event == XMLStreamConstants.END_ELEMENT )
+				// end of the schema element itself
+				break;
+			if( event != XMLStreamConstants.START_ELEMENT )
+				continue;
+			ImportInfo.Kind kind = isXSD( r ) ?
+				ImportInfo.Kind.forElement( r.getLocalName() ) : null;
+			if( kind != null ) {
+				String ns = r.getAttributeValue( null, "namespace" );
+				String sl = r.getAttributeValue( null, "schemaLocation" );
+				// have seen imports with no schemaLocation
+				if( sl == null ) {
+				} else if( kind.isInclusion() ) {
+					result.addInclusion( kind, sl );
+				} else if( ns != null ) {
+					result.addImport( ns, sl );
+				}
+				if( indexing && kind.isInclusion() ) {
+					// a redefine's (override's) children redeclare
+					declarations( r, result );
+					continue;
+				}
+			} else if( !isXSD( r, "annotation" ) ) {
+				// first real declaration, no more dependencies can follow
+				if( !indexing )
+					break;
+				declaration( r, result );
+				continue;
+			}
+			skipElement( r );
+		}
+		return result;
+	}
+
+	/**
+	 * Called with r on a START_ELEMENT, returns with r on the matching
+	 * END_ELEMENT, having passed each child to declaration.
+	 */
+	static private void declarations( XMLStreamReader r, SchemaInfo si )
+		throws XMLStreamException {
+		while( true ) {
+			int event = r.next();
+			if( event == XMLStreamConstants.END_ELEMENT )
+				return;
+			if( event == XMLStreamConstants.START_ELEMENT )
+				declaration( r, si );
+		}
+	}
+
+	/**
+	 * Called with r on a top-level START_ELEMENT, returns with r on the
+	 * matching END_ELEMENT.  If the element declares a named component,
+	 * record it in si, along with all references made within it.
+	 */
+	static private void declaration( XMLStreamReader r, SchemaInfo si )
+		throws XMLStreamException {
+		Component.Space space = isXSD( r ) ?
+			Component.Space.forElement( r.getLocalName() ) : null;
+		String name = r.getAttributeValue( null, "name" );
+		if( space == null || name == null ) {
+			skipElement( r );
+			return;
+		}
+		List<Component> refs = new ArrayList<Component>();
+		references( r, refs );
+		int depth = 1;
+		while( depth > 0 ) {
+			int event = r.next();
+			if( event == XMLStreamConstants.START_ELEMENT ) {
+				depth++;
+				references( r, refs );
+			} else if( event == XMLStreamConstants.END_ELEMENT ) {
+				depth--;
+			}
+		}
+		si.declare( new Component( space, si.targetNamespace, name ), refs );
+	}
+
+	/**
+	 * Add to refs the components named by the current xsd element's
+	 * QName-valued attributes.  Built-in (xs:) types are left out.
+	 */
+	static private void references( XMLStreamReader r, List<Component> refs ) {
+		if( !isXSD( r ) )
+			return;
+		for( int i = 0; i < r.getAttributeCount(); i++ ) {
+			String ns = r.getAttributeNamespace( i );
+			if( ns != null && ns.length() > 0 )
+				continue;
+			String a = r.getAttributeLocalName( i );
+			String v = r.getAttributeValue( i );
+			if( false ) {
+			} else if( a.equals( "type" ) || a.equals( "base" ) ||
+					   a.equals( "itemType" ) ) {
+				reference( r, Component.Space.TYPE, v, refs );
+			} else if( a.equals( "memberTypes" ) ) {
+				for( String qn : v.trim().split( "\\s+" ) )
+					reference( r, Component.Space.TYPE, qn, refs );
+			} else if( a.equals( "substitutionGroup" ) ) {
+				reference( r, Component.Space.ELEMENT, v, refs );
+			} else if( a.equals( "ref" ) ) {
+				Component.Space space =
+					Component.Space.forElement( r.getLocalName() );
+				// a ref on a complexType/simpleType is no xsd we know
+				if( space != null && space != Component.Space.TYPE )
+					reference( r, space, v, refs );
+			}
+		}
+	}
+
+	/**
+	 * Resolve QName qn, by the namespace bindings in scope at r.
+	 */
+	static private void reference( XMLStreamReader r, Component.Space space,
+								   String qn, List<Component> refs ) {
+		qn = qn.trim();
+		if( qn.length() == 0 )
+			return;
+		int colon = qn.indexOf( ':' );
+		String prefix = colon < 0 ? XMLConstants.DEFAULT_NS_PREFIX :
+			qn.substring( 0, colon );
+		String ns = r.getNamespaceURI( prefix );
+		if( ns == null )
+			// unbound prefix, or no default namespace
+			ns = "";
+		if( ns.equals( XMLConstants.W3C_XML_SCHEMA_NS_URI ) )
+			return;
+		refs.add( new Component( space, ns, qn.substring( colon + 1 ) ) );
+	}
+
+	static private boolean isXSD( XMLStreamReader r, String localName ) {
+		return isXSD( r ) && localName.equals( r.getLocalName() );
+	}
+
+	static private boolean isXSD( XMLStreamReader r ) {
+		return XMLConstants.W3C_XML_SCHEMA_NS_URI.equals
+			( r.getNamespaceURI() );
+	}
+
+	/**
+	 * Called with r positioned on a START_ELEMENT, returns with r on
+	 * the matching END_ELEMENT.
+	 */
+	static private void skipElement( XMLStreamReader r )
+		throws XMLStreamException {
+		int depth = 1;
+		while( depth > 0 ) {
+			int event = r.next();
+			if( event == XMLStreamConstants.START_ELEMENT )
+				depth++;
+			else if( event == XMLStreamConstants.END_ELEMENT )
+				depth--;
+		}
+	}
+
 	// Used in development, not used in anger, use XSDWalker.main
 	public static void main( String[] args ) throws Exception {
-		Parser p = new Parser();
+		boolean streaming = !( args.length > 1 && args[1].equals( "-d" ) );
+		Parser p = new Parser( streaming );
 		File in = new File( args[0] );
 		SchemaInfo si = p.parse( in );
 		System.out.println( "TNS: " + si.targetNamespace );
-		System.out.println( "Imports: " + si.getImports() );
+		for( ImportInfo ii : si.getDependencies() )
+			System.out.println( ii.kind.label + ": " + ii );
 	}
 
+	private final boolean streaming;
+	private final XMLInputFactory xif;
 	private final DocumentBuilder bob;
 	private final XPath xp;
+	private SchemaCache cache;
+	private boolean indexing;
+	private long bytesRead;
+
+	static private XMLInputFactory inputFactory;
+	static private DocumentBuilderFactory builderFactory;
+	static private XPathFactory xpathFactory;
 }
 
 // eof
@@ -0,0 +1,399 @@
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * @author Stuart Maclean
+ *
+ * A persistent, on-disk cache of remote (http:) schema documents, so
+ * that repeated runs over e.g. the cybox_v2.x sets do not re-download
+ * every remote xsd.  Layout of the cache directory:
+ *
+ * index/SHA1(url).properties - url, ETag, Last-Modified, fetch time
+ * and content digest of one cached url
+ *
+ * blobs/SHA1(content) - the document bytes, stored by content, so
+ * identical documents served from different urls are held just once
+ *
+ * An entry younger than the TTL is served without any network access.
+ * An older one is revalidated with a conditional GET (If-None-Match,
+ * If-Modified-Since); if the server cannot be reached we serve the
+ * stale copy.  In offline mode only the cache is consulted, regardless
+ * of entry age.  Once the blobs exceed the size cap, least recently
+ * used entries are evicted.  The last-modified time of an index file
+ * records its last use.
+ */
+public class SchemaCache {
+
+	static public final long DEFAULT_TTL = 24 * 60 * 60 * 1000L;
+
+	static public final long DEFAULT_MAXBYTES = 256 * 1024 * 1024L;
+
+	/**
+	 * @return The default cache location, $HOME/.xsdwalker/cache
+	 */
+	static public File defaultDirectory() {
+		File home = new File( System.getProperty( "user.home" ) );
+		return new File( new File( home, ".xsdwalker" ), "cache" );
+	}
+
+	public SchemaCache( File dir ) throws IOException {
+		this.dir = dir;
+		index = new File( dir, "index" );
+		blobs = new File( dir, "blobs" );
+		FileUtils.forceMkdir( index );
+		FileUtils.forceMkdir( blobs );
+		ttl = DEFAULT_TTL;
+		maxBytes = DEFAULT_MAXBYTES;
+		timeout = 30 * 1000;
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+		revalidations = new AtomicLong();
+	}
+
+	public File getDirectory() {
+		return dir;
+	}
+
+	/**
+	 * @param ttl Age, in milliseconds, beyond which a cached entry is
+	 * revalidated with the server before use.
+	 */
+	public void setTTL( long ttl ) {
+		this.ttl = ttl;
+	}
+
+	/**
+	 * @param maxBytes Upper bound on the total size of cached documents.
+	 */
+	public void setMaxBytes( long maxBytes ) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @param offline If true, never touch the network, serve only what
+	 * is already cached.
+	 */
+	public void setOffline( boolean offline ) {
+		this.offline = offline;
+	}
+
+	public boolean isOffline() {
+		return offline;
+	}
+
+	/**
+	 * @param timeout Connect and read timeout, in milliseconds.
+	 */
+	public void setTimeout( int timeout ) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @return The content of 'u', from the cache where possible.
+	 * @throws FileNotFoundException If offline and 'u' is not cached.
+	 * @throws Fetcher.HttpError If the server answers other than 200
+	 * (or 304 to a revalidation).
+	 */
+	public InputStream open( URL u ) throws IOException {
+		return new ByteArrayInputStream( get( u ) );
+	}
+
+	public byte[] get( URL u ) throws IOException {
+		String key = u.toString();
+		File meta = metaFile( key );
+		Properties p = readMeta( meta );
+		byte[] cached = p == null ? null : readBlob( p );
+		if( cached == null ) {
+			misses.incrementAndGet();
+			if( offline )
+				throw new FileNotFoundException( "Not cached (offline): " +
+												 u );
+			return fetch( u, null );
+		}
+		long fetched = Long.parseLong( p.getProperty( FETCHED, "0" ) );
+		if( offline || System.currentTimeMillis() - fetched < ttl ) {
+			hits.incrementAndGet();
+			log.debug( "Cache hit: " + u );
+			meta.setLastModified( System.currentTimeMillis() );
+			return cached;
+		}
+		revalidations.incrementAndGet();
+		try {
+			byte[] result = fetch( u, p );
+			return result == null ? cached : result;
+		} catch( IOException ioe ) {
+			log.warn( "Revalidation failed, using cached copy: " + u );
+			meta.setLastModified( System.currentTimeMillis() );
+			return cached;
+		}
+	}
+
+	/**
+	 * @return Count of get() calls served from a fresh entry, with no
+	 * network access.
+	 */
+	public long hits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return Count of get() calls finding no entry.
+	 */
+	public long misses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return Count of get() calls finding a stale entry, so making a
+	 * conditional request.
+	 */
+	public long revalidations() {
+		return revalidations.get();
+	}
+
+	/**
+	 * @return The content digest (SHA-1) of our copy of 'u', fresh or
+	 * stale, or null if none.  No network access, and not counted as a
+	 * hit or miss.
+	 */
+	public String digest( URL u ) throws IOException {
+		Properties p = readMeta( metaFile( u.toString() ) );
+		return p == null ? null : p.getProperty( DIGEST );
+	}
+
+	/**
+	 * @return True if we hold some copy of 'u', fresh or stale.
+	 */
+	public boolean contains( URL u ) {
+		return metaFile( u.toString() ).isFile();
+	}
+
+	/**
+	 * @param p Current cache entry, if any.  When non-null we make a
+	 * conditional request, and a 304 response yields a null result.
+	 */
+	private byte[] fetch( URL u, Properties p ) throws IOException {
+		log.info( "Fetching " + u );
+		URLConnection uc = u.openConnection();
+		uc.setConnectTimeout( timeout );
+		uc.setReadTimeout( timeout );
+		if( p != null ) {
+			String etag = p.getProperty( ETAG );
+			if( etag != null )
+				uc.setRequestProperty( "If-None-Match", etag );
+			String lastModified = p.getProperty( LASTMODIFIED );
+			if( lastModified != null )
+				uc.setRequestProperty( "If-Modified-Since", lastModified );
+		}
+		if( uc instanceof HttpURLConnection ) {
+			HttpURLConnection huc = (HttpURLConnection)uc;
+			int code = huc.getResponseCode();
+			if( code == HttpURLConnection.HTTP_NOT_MODIFIED && p != null ) {
+				IOUtils.closeQuietly( huc.getInputStream() );
+				p.setProperty( FETCHED, "" + System.currentTimeMillis() );
+				writeMeta( metaFile( u.toString() ), p );
+				return null;
+			}
+			if( code != HttpURLConnection.HTTP_OK ) {
+				IOUtils.closeQuietly( huc.getErrorStream() );
+				throw new Fetcher.HttpError( code, u );
+			}
+		}
+		InputStream is = uc.getInputStream();
+		byte[] result;
+		try {
+			result = IOUtils.toByteArray( is );
+		} finally {
+			is.close();
+		}
+		store( u, result, uc.getHeaderField( "ETag" ),
+			   uc.getHeaderField( "Last-Modified" ) );
+		return result;
+	}
+
+	/**
+	 * Add/replace the entry for u, then evict down to the size cap.
+	 */
+	synchronized void store( URL u, byte[] content, String etag,
+							 String lastModified ) throws IOException {
+		String digest = sha1( content );
+		File blob = new File( blobs, digest );
+		if( !blob.isFile() )
+			writeAtomically( blob, content );
+		Properties p = new Properties();
+		p.setProperty( LOCATION, u.toString() );
+		p.setProperty( DIGEST, digest );
+		p.setProperty( FETCHED, "" + System.currentTimeMillis() );
+		if( etag != null )
+			p.setProperty( ETAG, etag );
+		if( lastModified != null )
+			p.setProperty( LASTMODIFIED, lastModified );
+		writeMeta( metaFile( u.toString() ), p );
+		evict();
+	}
+
+	/**
+	 * Drop least recently used index entries, and any blobs no longer
+	 * referenced, until the blobs total at most maxBytes.
+	 */
+	synchronized void evict() throws IOException {
+		long total = 0;
+		File[] bs = blobs.listFiles();
+		for( File b : bs )
+			total += b.length();
+		if( total <= maxBytes )
+			return;
+		File[] ms = index.listFiles();
+		Arrays.sort( ms, new Comparator<File>() {
+				public int compare( File f1, File f2 ) {
+					long l1 = f1.lastModified(), l2 = f2.lastModified();
+					return l1 < l2 ? -1 : l1 == l2 ? 0 : 1;
+				}
+			} );
+		List<Properties> live = new ArrayList<Properties>();
+		for( File m : ms )
+			live.add( readMeta( m ) );
+		for( int i = 0; i < ms.length && total > maxBytes; i++ ) {
+			Properties p = live.set( i, null );
+			ms[i].delete();
+			if( p == null )
+				continue;
+			log.info( "Evicting " + p.getProperty( LOCATION ) );
+			String digest = p.getProperty( DIGEST );
+			if( referenced( live, digest ) )
+				continue;
+			File blob = new File( blobs, digest );
+			total -= blob.length();
+			blob.delete();
+		}
+	}
+
+	static private boolean referenced( List<Properties> ps, String digest ) {
+		for( Properties p : ps ) {
+			if( p != null && digest.equals( p.getProperty( DIGEST ) ) )
+				return true;
+		}
+		return false;
+	}
+
+	private File metaFile( String key ) {
+		return new File( index, sha1( key ) + ".properties" );
+	}
+
+	private Properties readMeta( File meta ) throws IOException {
+		if( !meta.isFile() )
+			return null;
+		Properties p = new Properties();
+		InputStream is = new FileInputStream( meta );
+		try {
+			p.load( is );
+		} finally {
+			is.close();
+		}
+		return p;
+	}
+
+	private void writeMeta( File meta, Properties p ) throws IOException {
+		File tmp = File.createTempFile( "meta", ".tmp", dir );
+		OutputStream os = new FileOutputStream( tmp );
+		try {
+			p.store( os, null );
+		} finally {
+			os.close();
+		}
+		rename( tmp, meta );
+	}
+
+	private byte[] readBlob( Properties p ) throws IOException {
+		File blob = new File( blobs, p.getProperty( DIGEST, "" ) );
+		if( !blob.isFile() )
+			return null;
+		return FileUtils.readFileToByteArray( blob );
+	}
+
+	/*
+	  Concurrent walkers may share one cache (directory), so never
+	  expose a half-written file.
+	*/
+	private void writeAtomically( File f, byte[] content )
+		throws IOException {
+		File tmp = File.createTempFile( "blob", ".tmp", dir );
+		FileUtils.writeByteArrayToFile( tmp, content );
+		rename( tmp, f );
+	}
+
+	static private void rename( File from, File to ) throws IOException {
+		if( from.renameTo( to ) )
+			return;
+		to.delete();
+		if( !from.renameTo( to ) ) {
+			from.delete();
+			throw new IOException( "Cannot rename " + from + " to " + to );
+		}
+	}
+
+	static String sha1( String s ) {
+		try {
+			return sha1( s.getBytes( "UTF-8" ) );
+		} catch( java.io.UnsupportedEncodingException never ) {
+			throw new IllegalStateException( never );
+		}
+	}
+
+	static String sha1( byte[] bs ) {
+		try {
+			MessageDigest md = MessageDigest.getInstance( "SHA-1" );
+			return hex( md.digest( bs ) );
+		} catch( NoSuchAlgorithmException never ) {
+			throw new IllegalStateException( never );
+		}
+	}
+
+	static String hex( byte[] bs ) {
+		StringBuilder sb = new StringBuilder( bs.length * 2 );
+		for( byte b : bs ) {
+			sb.append( HEX[(b >> 4) & 0xf] );
+			sb.append( HEX[b & 0xf] );
+		}
+		return sb.toString();
+	}
+
+	static private final char[] HEX = "0123456789abcdef".toCharArray();
+
+	static private final String LOCATION = "url";
+	static private final String DIGEST = "digest";
+	static private final String FETCHED = "fetched";
+	static private final String ETAG = "etag";
+	static private final String LASTMODIFIED = "lastModified";
+
+	static final Logger log = Logger.getLogger( SchemaCache.class.getName() );
+
+	private final File dir, index, blobs;
+	private long ttl, maxBytes;
+	private int timeout;
+	private boolean offline;
+	private final AtomicLong hits, misses, revalidations;
+}
+
+// eof
@@ -0,0 +1,455 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Stuart Maclean
+ *
+ * Immutable, compact form of the graph built by XSDWalker.process, for
+ * analysis and output.  Nodes are numbered 0..N-1 in location order,
+ * so iterating ids is iterating the sorted node set.  Edges are held in
+ * CSR (compressed sparse row) form, in both directions: the out edges
+ * of node i are outEdges[outStart[i]] .. outEdges[outStart[i+1]-1], in
+ * the order of Node.outs, likewise for in edges.  Target namespaces are
+ * interned to ids, with the members of each namespace held in CSR form
+ * too: this is the one namespace index, from which pruning, collisions
+ * and lookups by namespace are all answered.  The leaf, remote,
+ * fragment and pruned leaf sets are computed once, on construction, as
+ * BitSets.
+ *
+ * Also on construction, the strongly connected components: an import
+ * cycle is one component, any other node one on its own.  Components
+ * are numbered in topological order of the condensed DAG, importers
+ * before what they import, and their members are held in CSR form.
+ *
+ * Once built, the Node collection can be dropped, leaving a handful of
+ * arrays, whose size depends only on node and edge counts.
+ */
+public class SchemaGraph {
+
+	static public SchemaGraph build( Collection<XSDWalker.Node> ns ) {
+		return new SchemaGraph( ns );
+	}
+
+	private SchemaGraph( Collection<XSDWalker.Node> ns ) {
+		List<XSDWalker.Node> sorted = new ArrayList<XSDWalker.Node>( ns );
+		Collections.sort( sorted );
+		int n = sorted.size();
+		Map<XSDWalker.Node,Integer> ids =
+			new IdentityHashMap<XSDWalker.Node,Integer>( n );
+		for( int i = 0; i < n; i++ )
+			ids.put( sorted.get(i), i );
+
+		locations = new SchemaLocation[n];
+		namespaceOf = new int[n];
+		nsIds = new HashMap<String,Integer>();
+		List<String> nsTable = new ArrayList<String>();
+		outStart = new int[n+1];
+		for( int i = 0; i < n; i++ ) {
+			XSDWalker.Node node = sorted.get(i);
+			locations[i] = node.location;
+			Integer nsId = nsIds.get( node.targetNamespace );
+			if( nsId == null ) {
+				nsId = nsTable.size();
+				nsIds.put( node.targetNamespace, nsId );
+				nsTable.add( node.targetNamespace );
+			}
+			namespaceOf[i] = nsId;
+			outStart[i+1] = outStart[i] + node.outs.size();
+		}
+		namespaces = nsTable.toArray( new String[nsTable.size()] );
+
+		// namespace -> nodes, again by counting sort
+		int nns = namespaces.length;
+		nsStart = new int[nns+1];
+		for( int i = 0; i < n; i++ )
+			nsStart[namespaceOf[i]+1]++;
+		for( int t = 0; t < nns; t++ )
+			nsStart[t+1] += nsStart[t];
+		nsMembers = new int[n];
+		int[] nsFill = new int[nns];
+		System.arraycopy( nsStart, 0, nsFill, 0, nns );
+		for( int i = 0; i < n; i++ )
+			nsMembers[nsFill[namespaceOf[i]]++] = i;
+		fragments = new BitSet( n );
+		for( int i = 0; i < n; i++ ) {
+			if( sorted.get(i).included )
+				fragments.set( i );
+		}
+		// included fragments share their includer's namespace legitimately
+		namespaceCollisions = new BitSet( nns );
+		for( int t = 0; t < nns; t++ ) {
+			int count = 0;
+			for( int k = nsStart[t]; k < nsStart[t+1]; k++ ) {
+				if( !fragments.get( nsMembers[k] ) )
+					count++;
+			}
+			if( count > 1 )
+				namespaceCollisions.set( t );
+		}
+
+		outEdges = new int[outStart[n]];
+		int[] inCount = new int[n+1];
+		for( int i = 0; i < n; i++ ) {
+			int e = outStart[i];
+			for( XSDWalker.Node out : sorted.get(i).outs ) {
+				int j = ids.get( out );
+				outEdges[e++] = j;
+				inCount[j+1]++;
+			}
+		}
+
+		// in edges by counting sort, each row ordered by source id
+		inStart = new int[n+1];
+		for( int i = 0; i < n; i++ )
+			inStart[i+1] = inStart[i] + inCount[i+1];
+		inEdges = new int[outEdges.length];
+		int[] fill = new int[n];
+		System.arraycopy( inStart, 0, fill, 0, n );
+		for( int i = 0; i < n; i++ ) {
+			for( int e = outStart[i]; e < outStart[i+1]; e++ )
+				inEdges[fill[outEdges[e]]++] = i;
+		}
+
+		leaves = new BitSet( n );
+		remotes = new BitSet( n );
+		BitSet remoteNamespaces = new BitSet( namespaces.length );
+		for( int i = 0; i < n; i++ ) {
+			if( inStart[i] == inStart[i+1] )
+				leaves.set( i );
+			if( locations[i].isRemote() ) {
+				remotes.set( i );
+				remoteNamespaces.set( namespaceOf[i] );
+			}
+		}
+
+		components();
+
+		/*
+		  For all source nodes L, discard L if its tns appears in a node
+		  in the remote node set H.  Essentially L-H, one namespace
+		  probe per source.
+		*/
+		prunedLeaves = new BitSet( n );
+		int probes = 0;
+		for( int i = sources.nextSetBit( 0 ); i >= 0;
+			 i = sources.nextSetBit( i+1 ) ) {
+			if( locations[i].toString().startsWith( "http:" ) ) {
+				prunedLeaves.set( i );
+				continue;
+			}
+			probes++;
+			if( !remoteNamespaces.get( namespaceOf[i] ) )
+				prunedLeaves.set( i );
+		}
+		pruneProbes = probes;
+	}
+
+	/**
+	 * Tarjan's algorithm, over the CSR graph (start, edges) of n nodes,
+	 * iteratively, so any depth of import chain is fine: the call stack
+	 * is a pair of int arrays, (node, next out edge).  Linear in nodes
+	 * plus edges.  Tarjan completes a component only after all those it
+	 * reaches, so the k'th completed of K is numbered K-1-k, giving
+	 * topological order.
+	 *
+	 * @param completed Filled with each node's component, numbered in
+	 * order of completion.
+	 * @return The number of components.
+	 */
+	static int strongComponents( int n, int[] start, int[] edges,
+								 int[] completed ) {
+		int[] index = new int[n];
+		Arrays.fill( index, -1 );
+		int[] low = new int[n];
+		int[] stack = new int[n];
+		int[] call = new int[n];
+		int[] edge = new int[n];
+		BitSet onStack = new BitSet( n );
+		int counter = 0, sp = 0, k = 0;
+		for( int root = 0; root < n; root++ ) {
+			if( index[root] >= 0 )
+				continue;
+			int cp = 0;
+			call[cp] = root;
+			edge[cp++] = start[root];
+			index[root] = low[root] = counter++;
+			stack[sp++] = root;
+			onStack.set( root );
+			while( cp > 0 ) {
+				int v = call[cp-1];
+				if( edge[cp-1] < start[v+1] ) {
+					int w = edges[edge[cp-1]++];
+					if( index[w] < 0 ) {
+						index[w] = low[w] = counter++;
+						stack[sp++] = w;
+						onStack.set( w );
+						call[cp] = w;
+						edge[cp++] = start[w];
+					} else if( onStack.get( w ) ) {
+						low[v] = Math.min( low[v], index[w] );
+					}
+					continue;
+				}
+				cp--;
+				if( cp > 0 ) {
+					int u = call[cp-1];
+					low[u] = Math.min( low[u], low[v] );
+				}
+				if( low[v] == index[v] ) {
+					int w;
+					do {
+						w = stack[--sp];
+						onStack.clear( w );
+						completed[w] = k;
+					} while( w != v );
+					k++;
+				}
+			}
+		}
+		return k;
+	}
+
+	private void components() {
+		int n = locations.length;
+		int[] completed = new int[n];
+		int k = strongComponents( n, outStart, outEdges, completed );
+
+		// members by counting sort, so each in id order
+		componentOf = new int[n];
+		compStart = new int[k+1];
+		for( int i = 0; i < n; i++ ) {
+			componentOf[i] = k - 1 - completed[i];
+			compStart[componentOf[i]+1]++;
+		}
+		for( int c = 0; c < k; c++ )
+			compStart[c+1] += compStart[c];
+		compMembers = new int[n];
+		int[] fill = Arrays.copyOf( compStart, k );
+		for( int i = 0; i < n; i++ )
+			compMembers[fill[componentOf[i]]++] = i;
+
+		cyclic = new BitSet( k );
+		BitSet referred = new BitSet( k );
+		for( int i = 0; i < n; i++ ) {
+			int c = componentOf[i];
+			for( int e = outStart[i]; e < outStart[i+1]; e++ ) {
+				int d = componentOf[outEdges[e]];
+				if( d == c )
+					cyclic.set( c );
+				else
+					referred.set( d );
+			}
+		}
+
+		/*
+		  One node per source component, i.e. one nothing outside it
+		  imports: the node itself if acyclic (so a leaf), else the
+		  cycle's first member not a fragment, if any.
+		*/
+		sources = new BitSet( n );
+		for( int c = referred.nextClearBit( 0 ); c < k;
+			 c = referred.nextClearBit( c+1 ) ) {
+			int pick = compMembers[compStart[c]];
+			for( int e = compStart[c]; e < compStart[c+1]; e++ ) {
+				if( !fragments.get( compMembers[e] ) ) {
+					pick = compMembers[e];
+					break;
+				}
+			}
+			sources.set( pick );
+		}
+	}
+
+	public int size() {
+		return locations.length;
+	}
+
+	public int edgeCount() {
+		return outEdges.length;
+	}
+
+	public SchemaLocation location( int id ) {
+		return locations[id];
+	}
+
+	/**
+	 * @return The id of the node at u, or -1 if none.
+	 */
+	public int id( SchemaLocation u ) {
+		int result = Arrays.binarySearch( locations, u );
+		return result < 0 ? -1 : result;
+	}
+
+	public String targetNamespace( int id ) {
+		return namespaces[namespaceOf[id]];
+	}
+
+	/**
+	 * @return The interned id of the target namespace of node 'id'.
+	 */
+	public int namespaceId( int id ) {
+		return namespaceOf[id];
+	}
+
+	/**
+	 * @return The interned id of target namespace tns, or -1 if no
+	 * node has it.
+	 */
+	public int namespaceId( String tns ) {
+		Integer result = nsIds.get( tns );
+		return result == null ? -1 : result;
+	}
+
+	public int namespaceCount() {
+		return namespaces.length;
+	}
+
+	public String namespace( int namespaceId ) {
+		return namespaces[namespaceId];
+	}
+
+	/**
+	 * @return The number of nodes with the given target namespace.
+	 */
+	public int namespaceSize( int namespaceId ) {
+		return nsStart[namespaceId+1] - nsStart[namespaceId];
+	}
+
+	/**
+	 * @return The k'th node, in id order, with the given namespace.
+	 */
+	public int namespaceMember( int namespaceId, int k ) {
+		return nsMembers[nsStart[namespaceId] + k];
+	}
+
+	/**
+	 * @return Ids of namespaces with 2+ nodes, fragments aside, i.e. the
+	 * same target namespace at different locations.  Not to be modified.
+	 */
+	public BitSet namespaceCollisions() {
+		return namespaceCollisions;
+	}
+
+	public int outDegree( int id ) {
+		return outStart[id+1] - outStart[id];
+	}
+
+	/**
+	 * @return The k'th out edge target of node 'id'.
+	 */
+	public int out( int id, int k ) {
+		return outEdges[outStart[id] + k];
+	}
+
+	public int inDegree( int id ) {
+		return inStart[id+1] - inStart[id];
+	}
+
+	public int in( int id, int k ) {
+		return inEdges[inStart[id] + k];
+	}
+
+	/**
+	 * @return Nodes with no in edges.  Not to be modified.
+	 */
+	public BitSet leaves() {
+		return leaves;
+	}
+
+	/**
+	 * @return One node per source component of the condensed DAG, see
+	 * components: all the leaves, plus one per import cycle nothing
+	 * outside it imports.  Import these and all nodes are loaded.  Not
+	 * to be modified.
+	 */
+	public BitSet sources() {
+		return sources;
+	}
+
+	/**
+	 * @return Number of strongly connected components.
+	 */
+	public int componentCount() {
+		return compStart.length - 1;
+	}
+
+	/**
+	 * @return The component of node 'id'.  For an edge i to j, in
+	 * different components, component(i) &lt; component(j).
+	 */
+	public int component( int id ) {
+		return componentOf[id];
+	}
+
+	public int componentSize( int c ) {
+		return compStart[c+1] - compStart[c];
+	}
+
+	/**
+	 * @return The k'th node, in id order, of component c.
+	 */
+	public int componentMember( int c, int k ) {
+		return compMembers[compStart[c] + k];
+	}
+
+	/**
+	 * @return Components which are import cycles: 2+ nodes, or one
+	 * importing itself.  Not to be modified.
+	 */
+	public BitSet cyclic() {
+		return cyclic;
+	}
+
+	/**
+	 * @return Nodes reached by include, redefine or override, i.e.
+	 * pieces of some other schema's namespace.  Not to be modified.
+	 */
+	public BitSet fragments() {
+		return fragments;
+	}
+
+	/**
+	 * @return Nodes with http(s): locations.  Not to be modified.
+	 */
+	public BitSet remotes() {
+		return remotes;
+	}
+
+	/**
+	 * @return Sources minus those whose target namespace is also that
+	 * of some remote node, i.e. the content of the uber xsd.  Not to be
+	 * modified.
+	 */
+	public BitSet prunedLeaves() {
+		return prunedLeaves;
+	}
+
+	/**
+	 * @return Remote namespace lookups made computing prunedLeaves,
+	 * for tests: at most one per node.
+	 */
+	int pruneProbes() {
+		return pruneProbes;
+	}
+
+	private final SchemaLocation[] locations;
+	private final int[] namespaceOf;
+	private final String[] namespaces;
+	private final Map<String,Integer> nsIds;
+	private final int[] outStart, outEdges, inStart, inEdges;
+	private final int[] nsStart, nsMembers;
+	private final BitSet leaves, remotes, fragments, prunedLeaves;
+	private final BitSet namespaceCollisions;
+	private final int pruneProbes;
+	private int[] componentOf, compStart, compMembers;
+	private BitSet sources, cyclic;
+}
+
+// eof
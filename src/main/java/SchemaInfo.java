@@ -1,5 +1,7 @@
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author Stuart Maclean
@@ -9,8 +11,12 @@ import java.util.List;
  *
  * Target namespace
  *
- * List of imports, each a pair: namespace + schemaLocation (either of
- * which might be missing)
+ * List of dependencies, in document order, each a kind (import,
+ * include, redefine or override) plus a pair: namespace +
+ * schemaLocation.  Imports missing either of the pair are dropped.
+ *
+ * Optionally (see Parser.setIndexing), the global declarations, each
+ * with the components its definition references.
  *
  * @see ImportInfo
  */
@@ -20,20 +26,76 @@ import java.util.List;
 
 	SchemaInfo( String targetNamespace ) {
 		this.targetNamespace = targetNamespace;
-		imports = new ArrayList<ImportInfo>();
+		dependencies = new ArrayList<ImportInfo>();
 	}
 
 	void addImport( String namespace, String schemaLocation ) {
-		ImportInfo ii = new ImportInfo( namespace, schemaLocation );
-		imports.add( ii );
+		addDependency( ImportInfo.Kind.IMPORT, namespace, schemaLocation );
+	}
+
+	/**
+	 * An include, redefine or override, of a piece of our own namespace.
+	 */
+	void addInclusion( ImportInfo.Kind kind, String schemaLocation ) {
+		addDependency( kind, targetNamespace, schemaLocation );
+	}
+	
+	void addDependency( ImportInfo.Kind kind, String namespace,
+						String schemaLocation ) {
+		ImportInfo ii = new ImportInfo( kind, namespace, schemaLocation );
+		dependencies.add( ii );
 	}
 
+	/**
+	 * @return Just the imports, i.e. dependencies on other namespaces.
+	 */
 	List<ImportInfo> getImports() {
-		return imports;
+		List<ImportInfo> result = new ArrayList<ImportInfo>();
+		for( ImportInfo ii : dependencies ) {
+			if( ii.kind == ImportInfo.Kind.IMPORT )
+				result.add( ii );
+		}
+		return result;
+	}
+
+	/**
+	 * @return All dependencies, in document order.  These are what the
+	 * walk follows.
+	 */
+	List<ImportInfo> getDependencies() {
+		return dependencies;
+	}
+
+	/**
+	 * Mark this as having its declarations indexed, so far none.
+	 */
+	void indexed() {
+		declarations = new LinkedHashMap<Component,List<Component>>();
+	}
+
+	/**
+	 * Record global declaration c, whose definition references refs.  A
+	 * redefinition (in a redefine or override) adds to the original.
+	 */
+	void declare( Component c, List<Component> refs ) {
+		List<Component> prior = declarations.get( c );
+		if( prior == null )
+			declarations.put( c, refs );
+		else
+			prior.addAll( refs );
+	}
+
+	/**
+	 * @return Each global declaration, mapped to the components it
+	 * references, or null if declarations were not indexed.
+	 */
+	Map<Component,List<Component>> getDeclarations() {
+		return declarations;
 	}
 
 	public final String targetNamespace;
-	final List<ImportInfo> imports;
+	final List<ImportInfo> dependencies;
+	private Map<Component,List<Component>> declarations;
 }
 
 // eof
@@ -0,0 +1,219 @@
+import java.lang.ref.WeakReference;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * @author Stuart Maclean
+ *
+ * The identity of a schema document in our graph, i.e. a normalized,
+ * interned url string.  We used to key nodes on java.net.URL, whose
+ * equals/hashCode resolve host names, so could block on DNS for every
+ * http: node compared.  Here equality is just string equality, and
+ * since instances are interned, mostly just reference equality.  The
+ * hash is computed once.  Interning is weak: an instance no longer
+ * referenced is dropped, so a long-lived process (a Daemon, --watch)
+ * holds only the locations of graphs still in use.
+ *
+ * Normalization: scheme and host are lower-cased, default ports
+ * dropped, '.' and '..' path segments resolved and any trailing '/'
+ * removed.  Path case is preserved.  file:///x becomes file:/x, as
+ * produced by File.toURI().
+ *
+ * Use of() to obtain instances.
+ */
+public final class SchemaLocation implements Comparable<SchemaLocation> {
+
+	private SchemaLocation( String s ) {
+		this.s = s;
+		hash = s.hashCode();
+		remote = s.startsWith( "http:" ) || s.startsWith( "https:" );
+	}
+
+	static public SchemaLocation of( URL u ) {
+		return of( u.toString() );
+	}
+
+	static public SchemaLocation of( String url ) {
+		String key = normalize( url );
+		synchronized( interned ) {
+			WeakReference<SchemaLocation> ref = interned.get( key );
+			SchemaLocation result = ref == null ? null : ref.get();
+			if( result == null ) {
+				result = new SchemaLocation( key );
+				// keyed on the instance's own string, so held while it is
+				interned.put( result.s,
+							  new WeakReference<SchemaLocation>( result ) );
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * @return A fresh instance, equal to no of() result, for use as a
+	 * queue sentinel.
+	 */
+	static SchemaLocation poison() {
+		return new SchemaLocation( "" );
+	}
+
+	/**
+	 * @return True for http: and https: locations.
+	 */
+	public boolean isRemote() {
+		return remote;
+	}
+
+	public URL toURL() throws MalformedURLException {
+		URL result = url;
+		if( result == null ) {
+			result = new URL( s );
+			url = result;
+		}
+		return result;
+	}
+
+	public URI toURI() throws URISyntaxException {
+		return new URI( s );
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals( Object o ) {
+		if( o == this )
+			return true;
+		if( !( o instanceof SchemaLocation ) )
+			return false;
+		SchemaLocation that = (SchemaLocation)o;
+		return this.hash == that.hash && this.s.equals( that.s );
+	}
+
+	@Override
+	public int compareTo( SchemaLocation o ) {
+		return this == o ? 0 : s.compareTo( o.s );
+	}
+
+	@Override
+	public String toString() {
+		return s;
+	}
+
+	static String normalize( String url ) {
+		int colon = url.indexOf( ':' );
+		if( colon < 1 )
+			return removeDotSegments( url );
+		String scheme = url.substring( 0, colon );
+		String lower = scheme.toLowerCase();
+		String rest = url.substring( colon + 1 );
+
+		String authority = null;
+		if( rest.startsWith( "//" ) ) {
+			int end = rest.length();
+			for( int i = 2; i < rest.length(); i++ ) {
+				char c = rest.charAt( i );
+				if( c == '/' || c == '?' || c == '#' ) {
+					end = i;
+					break;
+				}
+			}
+			authority = normalizeAuthority( lower, rest.substring( 2, end ) );
+			rest = rest.substring( end );
+			if( authority.length() == 0 && lower.equals( "file" ) )
+				authority = null;
+		}
+
+		String suffix = "";
+		int q = firstOf( rest, '?', '#' );
+		if( q > -1 ) {
+			suffix = rest.substring( q );
+			rest = rest.substring( 0, q );
+		}
+		String path = removeDotSegments( rest );
+		if( path.length() > 1 && path.endsWith( "/" ) )
+			path = path.substring( 0, path.length() - 1 );
+
+		String result = lower + ":" +
+			( authority == null ? "" : "//" + authority ) + path + suffix;
+		// keep the original instance in the common, already normal, case
+		return result.equals( url ) ? url : result;
+	}
+
+	static private String normalizeAuthority( String scheme, String a ) {
+		int at = a.lastIndexOf( '@' );
+		String user = at > -1 ? a.substring( 0, at + 1 ) : "";
+		String host = a.substring( at + 1 ).toLowerCase();
+		if( ( scheme.equals( "http" ) && host.endsWith( ":80" ) ) ||
+			( scheme.equals( "https" ) && host.endsWith( ":443" ) ) )
+			host = host.substring( 0, host.lastIndexOf( ':' ) );
+		else if( host.endsWith( ":" ) )
+			host = host.substring( 0, host.length() - 1 );
+		return user + host;
+	}
+
+	static private int firstOf( String s, char c1, char c2 ) {
+		int i1 = s.indexOf( c1 );
+		int i2 = s.indexOf( c2 );
+		if( i1 < 0 )
+			return i2;
+		if( i2 < 0 )
+			return i1;
+		return Math.min( i1, i2 );
+	}
+
+	/**
+	 * RFC 3986 section 5.2.4, more or less.  Applied to the whole
+	 * scheme-specific part for opaque urls, so that jar:file:/a.zip!/b/../c
+	 * also normalizes.
+	 */
+	static String removeDotSegments( String path ) {
+		if( path.indexOf( "/." ) < 0 && !path.startsWith( "." ) )
+			return path;
+		String[] segs = path.split( "/", -1 );
+		List<String> out = new ArrayList<String>( segs.length );
+		for( int i = 0; i < segs.length; i++ ) {
+			String seg = segs[i];
+			boolean last = i == segs.length - 1;
+			if( seg.equals( "." ) ) {
+				if( last )
+					out.add( "" );
+				continue;
+			}
+			if( seg.equals( ".." ) ) {
+				int n = out.size();
+				// never pop the leading "" of an absolute path
+				if( n > 1 || ( n == 1 && out.get(0).length() > 0 ) )
+					out.remove( n - 1 );
+				if( last )
+					out.add( "" );
+				continue;
+			}
+			out.add( seg );
+		}
+		StringBuilder sb = new StringBuilder( path.length() );
+		for( int i = 0; i < out.size(); i++ ) {
+			if( i > 0 )
+				sb.append( '/' );
+			sb.append( out.get(i) );
+		}
+		return sb.toString();
+	}
+
+	static private final Map<String,WeakReference<SchemaLocation>> interned =
+		new WeakHashMap<String,WeakReference<SchemaLocation>>();
+
+	private final String s;
+	private final int hash;
+	private final boolean remote;
+	private volatile URL url;
+}
+
+// eof
@@ -0,0 +1,454 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * @author Stuart Maclean
+ *
+ * Sharding: split the uber xsd into several, so that xjc can compile
+ * the shards in parallel, each shard binding what it shares with others
+ * via their episode files (xjc -episode, -b).
+ *
+ * Given the schemas to import (the pruned leaves, or as shaken), and so
+ * the set xjc will load:
+ *
+ * 1 group these into namespace families: all schemas of one target
+ * namespace, plus any chameleon pieces they include.  xjc maps a
+ * namespace to a Java package, so a family is never split, else two
+ * shards would each write that package's ObjectFactory,
+ *
+ * 2 contract import cycles among families (Tarjan, see SchemaGraph),
+ * leaving a DAG of units, in topological order,
+ *
+ * 3 in waves, from the DAG's sources: a unit reached from just one
+ * source goes in that source's shard, one reached from several is
+ * shared, and left for a later wave.  A unit's shard is so independent
+ * of all others of its wave, needing only those of later waves,
+ *
+ * 4 pack each wave's shards, largest first, into at most 'width', the
+ * number of xjc runs wanted at once, each to the least full so far.
+ *
+ * Shards are then numbered in build order, the last wave first, so
+ * each depends only on lower numbered shards.  Sizes, the estimate of
+ * xjc's work, are in schemas.
+ */
+public class Sharder {
+
+	static public class Shard {
+
+		Shard() {
+			members = new BitSet();
+			imports = new BitSet();
+			dependsOn = new BitSet();
+		}
+
+		/**
+		 * Build order: 0 for shards needing no other, else 1 more than
+		 * the highest of those needed.
+		 */
+		public int level() {
+			return level;
+		}
+
+		/**
+		 * @return Ids of the schemas whose classes this shard generates.
+		 */
+		public BitSet members() {
+			return members;
+		}
+
+		/**
+		 * @return Ids of the schemas for the shard's uber xsd to import.
+		 */
+		public BitSet imports() {
+			return imports;
+		}
+
+		/**
+		 * @return Indexes of the shards whose episodes this one needs.
+		 */
+		public BitSet dependsOn() {
+			return dependsOn;
+		}
+
+		public int size() {
+			return members.cardinality();
+		}
+
+		private final BitSet members, imports, dependsOn;
+		private int index, level;
+	}
+
+	/**
+	 * @param imports Ids of the schemas the (unsharded) uber xsd imports.
+	 * @param width Most shards per wave, i.e. to be built at once.
+	 * @return The shards, in build order.
+	 */
+	static List<Shard> shard( SchemaGraph g, BitSet imports, int width ) {
+		if( width < 1 )
+			throw new IllegalArgumentException( "Bad width: " + width );
+		int n = g.size();
+		BitSet loaded = reach( g, imports );
+
+		// 1 families, by union-find
+		int[] parent = new int[n];
+		for( int i = 0; i < n; i++ )
+			parent[i] = i;
+		for( int t = 0; t < g.namespaceCount(); t++ ) {
+			int first = -1;
+			for( int k = 0; k < g.namespaceSize( t ); k++ ) {
+				int i = g.namespaceMember( t, k );
+				if( !loaded.get( i ) )
+					continue;
+				if( first < 0 )
+					first = i;
+				else
+					union( parent, first, i );
+			}
+		}
+		for( int i = loaded.nextSetBit( 0 ); i >= 0;
+			 i = loaded.nextSetBit( i+1 ) ) {
+			if( !g.fragments().get( i ) ||
+				g.targetNamespace( i ).length() > 0 )
+				continue;
+			for( int k = 0; k < g.inDegree( i ); k++ ) {
+				int j = g.in( i, k );
+				if( loaded.get( j ) )
+					union( parent, i, j );
+			}
+		}
+		int[] family = new int[n];
+		int[] dense = new int[n];
+		Arrays.fill( dense, -1 );
+		int m = 0;
+		for( int i = loaded.nextSetBit( 0 ); i >= 0;
+			 i = loaded.nextSetBit( i+1 ) ) {
+			int r = find( parent, i );
+			if( dense[r] < 0 )
+				dense[r] = m++;
+			family[i] = dense[r];
+		}
+
+		// 2 the family graph, in CSR form, and its components
+		int[] start = new int[m+1];
+		for( int i = loaded.nextSetBit( 0 ); i >= 0;
+			 i = loaded.nextSetBit( i+1 ) ) {
+			for( int k = 0; k < g.outDegree( i ); k++ ) {
+				if( family[g.out( i, k )] != family[i] )
+					start[family[i]+1]++;
+			}
+		}
+		for( int f = 0; f < m; f++ )
+			start[f+1] += start[f];
+		int[] edges = new int[start[m]];
+		int[] fill = Arrays.copyOf( start, m );
+		for( int i = loaded.nextSetBit( 0 ); i >= 0;
+			 i = loaded.nextSetBit( i+1 ) ) {
+			for( int k = 0; k < g.outDegree( i ); k++ ) {
+				int f = family[g.out( i, k )];
+				if( f != family[i] )
+					edges[fill[family[i]]++] = f;
+			}
+		}
+		int[] completed = new int[m];
+		int units = SchemaGraph.strongComponents( m, start, edges,
+												  completed );
+		int[] unit = new int[n];
+		int[] size = new int[units];
+		for( int i = loaded.nextSetBit( 0 ); i >= 0;
+			 i = loaded.nextSetBit( i+1 ) ) {
+			unit[i] = units - 1 - completed[family[i]];
+			size[unit[i]]++;
+		}
+
+		// the unit DAG's in edges, for 3
+		int[] inStart = new int[units+1];
+		for( int i = loaded.nextSetBit( 0 ); i >= 0;
+			 i = loaded.nextSetBit( i+1 ) ) {
+			for( int k = 0; k < g.outDegree( i ); k++ ) {
+				int u = unit[g.out( i, k )];
+				if( u != unit[i] )
+					inStart[u+1]++;
+			}
+		}
+		for( int u = 0; u < units; u++ )
+			inStart[u+1] += inStart[u];
+		int[] inEdges = new int[inStart[units]];
+		fill = Arrays.copyOf( inStart, units );
+		for( int i = loaded.nextSetBit( 0 ); i >= 0;
+			 i = loaded.nextSetBit( i+1 ) ) {
+			for( int k = 0; k < g.outDegree( i ); k++ ) {
+				int u = unit[g.out( i, k )];
+				if( u != unit[i] )
+					inEdges[fill[u]++] = unit[i];
+			}
+		}
+
+		// 3 and 4
+		List<List<Shard>> waves = new ArrayList<List<Shard>>();
+		Shard[] shardOf = new Shard[units];
+		BitSet remaining = new BitSet( units );
+		remaining.set( 0, units );
+		int[] owner = new int[units];
+		long[] load = new long[units];
+		while( !remaining.isEmpty() ) {
+			// topological order, so a unit's importers are done first
+			List<Integer> sources = new ArrayList<Integer>();
+			for( int u = remaining.nextSetBit( 0 ); u >= 0;
+				 u = remaining.nextSetBit( u+1 ) ) {
+				int o = NONE;
+				for( int e = inStart[u]; e < inStart[u+1]; e++ ) {
+					int p = inEdges[e];
+					if( !remaining.get( p ) )
+						continue;
+					o = o == NONE || o == owner[p] ? owner[p] : SHARED;
+				}
+				if( o == NONE ) {
+					o = u;
+					sources.add( u );
+					load[u] = 0;
+				}
+				owner[u] = o;
+				if( o != SHARED )
+					load[o] += size[u];
+			}
+
+			final long[] loads = load;
+			Collections.sort( sources, new Comparator<Integer>() {
+					public int compare( Integer a, Integer b ) {
+						if( loads[a] != loads[b] )
+							return loads[a] > loads[b] ? -1 : 1;
+						return a.compareTo( b );
+					}
+				} );
+			List<Shard> wave = new ArrayList<Shard>();
+			long[] full = new long[Math.min( width, sources.size() )];
+			for( int s : sources ) {
+				int least = 0;
+				for( int b = 1; b < full.length; b++ ) {
+					if( full[b] < full[least] )
+						least = b;
+				}
+				if( least == wave.size() )
+					wave.add( new Shard() );
+				full[least] += load[s];
+				shardOf[s] = wave.get( least );
+			}
+			for( int u = remaining.nextSetBit( 0 ); u >= 0;
+				 u = remaining.nextSetBit( u+1 ) ) {
+				if( owner[u] == SHARED )
+					continue;
+				shardOf[u] = shardOf[owner[u]];
+				remaining.clear( u );
+			}
+			waves.add( wave );
+		}
+
+		// members, by unit in id order, by counting sort
+		int[] memberStart = new int[units+1];
+		for( int u = 0; u < units; u++ )
+			memberStart[u+1] = memberStart[u] + size[u];
+		int[] members = new int[memberStart[units]];
+		fill = Arrays.copyOf( memberStart, units );
+		for( int i = loaded.nextSetBit( 0 ); i >= 0;
+			 i = loaded.nextSetBit( i+1 ) ) {
+			members[fill[unit[i]]++] = i;
+			shardOf[unit[i]].members.set( i );
+		}
+
+		/*
+		  What each shard's uber imports: from each of its sources, the
+		  members no other member imports, then, for any member (in a
+		  cycle) still not loaded, that too.  The rest of the shard is
+		  reached from these.
+		*/
+		BitSet covered = new BitSet( n );
+		for( int u = 0; u < units; u++ ) {
+			if( owner[u] != u )
+				continue;
+			for( int e = memberStart[u]; e < memberStart[u+1]; e++ ) {
+				int i = members[e];
+				boolean inner = false;
+				for( int k = 0; k < g.inDegree( i ) && !inner; k++ ) {
+					int j = g.in( i, k );
+					inner = j != i && loaded.get( j ) && unit[j] == u;
+				}
+				if( !inner && !g.fragments().get( i ) )
+					cover( g, i, u, unit, loaded, covered,
+						   shardOf[u].imports );
+			}
+			for( int pass = 0; pass < 2; pass++ ) {
+				for( int e = memberStart[u]; e < memberStart[u+1]; e++ ) {
+					int i = members[e];
+					if( !covered.get( i ) &&
+						( pass == 1 || !g.fragments().get( i ) ) )
+						cover( g, i, u, unit, loaded, covered,
+							   shardOf[u].imports );
+				}
+			}
+		}
+
+		// build order, and what each needs
+		List<Shard> result = new ArrayList<Shard>();
+		for( int w = waves.size() - 1; w >= 0; w-- )
+			result.addAll( waves.get( w ) );
+		for( int s = 0; s < result.size(); s++ )
+			result.get( s ).index = s;
+		for( int i = loaded.nextSetBit( 0 ); i >= 0;
+			 i = loaded.nextSetBit( i+1 ) ) {
+			Shard from = shardOf[unit[i]];
+			for( int k = 0; k < g.outDegree( i ); k++ ) {
+				Shard to = shardOf[unit[g.out( i, k )]];
+				if( to != from )
+					from.dependsOn.set( to.index );
+			}
+		}
+		for( Shard s : result ) {
+			for( int d = s.dependsOn.nextSetBit( 0 ); d >= 0;
+				 d = s.dependsOn.nextSetBit( d+1 ) )
+				s.level = Math.max( s.level, result.get( d ).level + 1 );
+		}
+		return result;
+	}
+
+	/**
+	 * @return The file name of shard 'index' of uber xsd 'uber', e.g.
+	 * set-0.uber.xsd.
+	 */
+	static String fileName( String uber, int index ) {
+		return uber + "-" + index + ".uber.xsd";
+	}
+
+	/**
+	 * Manifest, as JSON: per shard, its uber xsd (relative to the
+	 * manifest), build level, size and the shards it depends on.
+	 */
+	static void writeManifest( List<Shard> shards, String uber, int width,
+							   File f ) throws IOException {
+		PrintWriter pw = XSDWalker.writer( f, false );
+		String name = new File( uber ).getName();
+		int schemas = 0;
+		for( Shard s : shards )
+			schemas += s.size();
+		pw.println( "{" );
+		pw.println( "  \"version\": " + VERSION + "," );
+		pw.println( "  \"width\": " + width + "," );
+		pw.println( "  \"schemas\": " + schemas + "," );
+		pw.println( "  \"shards\": [" );
+		for( int i = 0; i < shards.size(); i++ ) {
+			Shard s = shards.get( i );
+			pw.print( "    { \"index\": " + i +
+					  ", \"file\": " +
+					  Metrics.quote( fileName( name, i ) ) +
+					  ", \"level\": " + s.level +
+					  ", \"schemas\": " + s.size() +
+					  ", \"imports\": " + s.imports.cardinality() +
+					  ", \"dependsOn\": [" );
+			String sep = " ";
+			for( int d = s.dependsOn.nextSetBit( 0 ); d >= 0;
+				 d = s.dependsOn.nextSetBit( d+1 ) ) {
+				pw.print( sep + d );
+				sep = ", ";
+			}
+			pw.print( s.dependsOn.isEmpty() ? "]" : " ]" );
+			pw.println( " }" + ( i < shards.size() - 1 ? "," : "" ) );
+		}
+		pw.println( "  ]" );
+		pw.println( "}" );
+		XSDWalker.close( pw, f );
+	}
+
+	/**
+	 * @return The width a manifest written by writeManifest records,
+	 * or -1 if f is missing or unreadable.
+	 */
+	static int readWidth( File f ) {
+		if( !f.isFile() )
+			return -1;
+		try {
+			Matcher m = WIDTH.matcher( FileUtils.readFileToString( f ) );
+			return m.find() ? Integer.parseInt( m.group( 1 ) ) : -1;
+		} catch( IOException ioe ) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Import i, marking as covered all members of unit u it reaches.
+	 */
+	static private void cover( SchemaGraph g, int i, int u, int[] unit,
+							   BitSet loaded, BitSet covered,
+							   BitSet imports ) {
+		imports.set( i );
+		covered.set( i );
+		int[] todo = new int[16];
+		int top = 0;
+		todo[top++] = i;
+		while( top > 0 ) {
+			int v = todo[--top];
+			for( int k = 0; k < g.outDegree( v ); k++ ) {
+				int j = g.out( v, k );
+				if( covered.get( j ) || !loaded.get( j ) || unit[j] != u )
+					continue;
+				covered.set( j );
+				if( top == todo.length )
+					todo = Arrays.copyOf( todo, top * 2 );
+				todo[top++] = j;
+			}
+		}
+	}
+
+	static private BitSet reach( SchemaGraph g, BitSet ids ) {
+		BitSet result = (BitSet)ids.clone();
+		int[] todo = new int[g.size()];
+		int top = 0;
+		for( int i = ids.nextSetBit( 0 ); i >= 0; i = ids.nextSetBit( i+1 ) )
+			todo[top++] = i;
+		while( top > 0 ) {
+			int i = todo[--top];
+			for( int k = 0; k < g.outDegree( i ); k++ ) {
+				int j = g.out( i, k );
+				if( !result.get( j ) ) {
+					result.set( j );
+					todo[top++] = j;
+				}
+			}
+		}
+		return result;
+	}
+
+	static private int find( int[] parent, int i ) {
+		while( parent[i] != i ) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	static private void union( int[] parent, int a, int b ) {
+		int ra = find( parent, a );
+		int rb = find( parent, b );
+		if( ra != rb )
+			parent[Math.max( ra, rb )] = Math.min( ra, rb );
+	}
+
+	// owner markers: no importer yet seen, importers of 2+ owners
+	static private final int NONE = -1, SHARED = -2;
+
+	static private final Pattern WIDTH =
+		Pattern.compile( "\"width\":\\s*(\\d+)" );
+
+	static public final int VERSION = 1;
+}
+
+// eof
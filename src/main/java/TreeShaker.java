@@ -0,0 +1,278 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author Stuart Maclean
+ *
+ * Tree shaking: cut the uber xsd down to the schemas needed for a few
+ * named root elements/types, rather than every schema reachable, so
+ * that xjc generates just the classes wanted.
+ *
+ * Listens to a walk whose Parser is indexing (see Parser.setIndexing),
+ * so collecting each schema's global declarations, and what each
+ * references, in the same pass that finds the schemas.  Then shake:
+ *
+ * 1 index every declaration by Component, noting the schema(s) making
+ * it.  A chameleon include (no targetNamespace) declares, and refers
+ * unqualified, in its includer's namespace,
+ *
+ * 2 from the roots, follow references to the closure of components
+ * needed, so the schemas declaring them,
+ *
+ * 3 lift each needed fragment (an included piece) to its includer,
+ * which is what must be imported,
+ *
+ * 4 of all these reach by import/include (xjc will load all that), the
+ * uber need import just those no other reaches.
+ *
+ * A root is given as {namespace}name, or just name to match in any
+ * namespace, and names a global element or type.  References no schema
+ * in the graph declares (e.g. to schemas that failed to parse) are
+ * skipped.
+ */
+public class TreeShaker extends WalkListener.Adapter {
+
+	/**
+	 * @param roots Element/type names, see class comment.
+	 */
+	public TreeShaker( List<String> roots ) {
+		this.roots = roots;
+		infos = new HashMap<SchemaLocation,SchemaInfo>();
+		missing = new ArrayList<String>();
+	}
+
+	@Override
+	public void nodeDiscovered( XSDWalker.Node n, SchemaInfo info ) {
+		if( info.getDeclarations() == null )
+			throw new IllegalStateException( "Not indexed: " + n.location );
+		infos.put( n.location, info );
+	}
+
+	/**
+	 * @return Ids of the schemas for the uber xsd to import.
+	 */
+	public BitSet shake( SchemaGraph g ) {
+		Map<Component,List<Integer>> declaredBy =
+			new HashMap<Component,List<Integer>>();
+		Map<Component,List<Component>> references =
+			new HashMap<Component,List<Component>>();
+		for( int i = 0; i < g.size(); i++ ) {
+			SchemaInfo si = infos.get( g.location( i ) );
+			if( si == null )
+				continue;
+			String ns = effectiveNamespace( g, i );
+			for( Map.Entry<Component,List<Component>> me :
+					 si.getDeclarations().entrySet() ) {
+				Component c = adopt( me.getKey(), ns );
+				List<Integer> ids = declaredBy.get( c );
+				if( ids == null ) {
+					ids = new ArrayList<Integer>( 1 );
+					declaredBy.put( c, ids );
+				}
+				ids.add( i );
+				List<Component> refs = references.get( c );
+				if( refs == null ) {
+					refs = new ArrayList<Component>();
+					references.put( c, refs );
+				}
+				for( Component r : me.getValue() )
+					refs.add( adopt( r, ns ) );
+			}
+		}
+
+		// the components needed, from the roots
+		Set<Component> needed = new HashSet<Component>();
+		Deque<Component> todo = new ArrayDeque<Component>();
+		missing.clear();
+		for( String root : roots ) {
+			boolean found = false;
+			for( Component c : declaredBy.keySet() ) {
+				if( matches( root, c ) ) {
+					found = true;
+					if( needed.add( c ) )
+						todo.push( c );
+				}
+			}
+			if( !found )
+				missing.add( root );
+		}
+		while( !todo.isEmpty() ) {
+			for( Component r : references.get( todo.pop() ) ) {
+				if( declaredBy.containsKey( r ) && needed.add( r ) )
+					todo.push( r );
+			}
+		}
+		components = needed.size();
+
+		declaring = new BitSet( g.size() );
+		for( Component c : needed ) {
+			for( int i : declaredBy.get( c ) )
+				declaring.set( i );
+		}
+
+		BitSet lifted = lift( g, declaring );
+		closure = reach( g, lifted, new BitSet( g.size() ) );
+
+		// those no other schema in the closure reaches...
+		BitSet result = (BitSet)closure.clone();
+		for( int i = closure.nextSetBit( 0 ); i >= 0;
+			 i = closure.nextSetBit( i+1 ) ) {
+			for( int k = 0; k < g.outDegree( i ); k++ ) {
+				int j = g.out( i, k );
+				if( j != i )
+					result.clear( j );
+			}
+		}
+		// ...plus one per cycle that nothing outside it reaches
+		BitSet covered = reach( g, result, new BitSet( g.size() ) );
+		for( int i = closure.nextSetBit( 0 ); i >= 0;
+			 i = closure.nextSetBit( i+1 ) ) {
+			if( covered.get( i ) )
+				continue;
+			result.set( i );
+			BitSet one = new BitSet( g.size() );
+			one.set( i );
+			reach( g, one, covered );
+		}
+		return result;
+	}
+
+	/**
+	 * @return Roots matching no declaration, as of the last shake.
+	 */
+	public List<String> missing() {
+		return missing;
+	}
+
+	/**
+	 * @return Count of components needed, as of the last shake.
+	 */
+	public int components() {
+		return components;
+	}
+
+	/**
+	 * @return Ids of the schemas declaring needed components, as of
+	 * the last shake.
+	 */
+	public BitSet declaring() {
+		return declaring;
+	}
+
+	/**
+	 * @return Ids of all schemas xjc will load given the shaken uber
+	 * xsd, as of the last shake.
+	 */
+	public BitSet closure() {
+		return closure;
+	}
+
+	static boolean matches( String root, Component c ) {
+		if( c.space != Component.Space.ELEMENT &&
+			c.space != Component.Space.TYPE )
+			return false;
+		if( !root.startsWith( "{" ) )
+			return root.equals( c.name );
+		int close = root.indexOf( '}' );
+		return close > 0 &&
+			root.substring( 1, close ).equals( c.namespace ) &&
+			root.substring( close + 1 ).equals( c.name );
+	}
+
+	// components in no namespace, in a chameleon, are in ns
+	static private Component adopt( Component c, String ns ) {
+		return c.namespace.length() == 0 && ns.length() > 0 ?
+			c.in( ns ) : c;
+	}
+
+	/**
+	 * @return Node id's namespace, or, for a chameleon include, that of
+	 * (the first of) its includers having one.
+	 */
+	static private String effectiveNamespace( SchemaGraph g, int id ) {
+		String result = g.targetNamespace( id );
+		if( result.length() > 0 || !g.fragments().get( id ) )
+			return result;
+		for( int k = 0; k < g.inDegree( id ); k++ ) {
+			String ns = g.targetNamespace( g.in( id, k ) );
+			if( ns.length() > 0 )
+				return ns;
+		}
+		return result;
+	}
+
+	/**
+	 * Replace each fragment in ids by its includers, recursively, so
+	 * leaving only schemas which can be imported whole.
+	 */
+	static private BitSet lift( SchemaGraph g, BitSet ids ) {
+		BitSet result = new BitSet( g.size() );
+		BitSet seen = new BitSet( g.size() );
+		Deque<Integer> todo = new ArrayDeque<Integer>();
+		for( int i = ids.nextSetBit( 0 ); i >= 0; i = ids.nextSetBit( i+1 ) ) {
+			seen.set( i );
+			todo.push( i );
+		}
+		while( !todo.isEmpty() ) {
+			int i = todo.pop();
+			boolean lifted = false;
+			if( g.fragments().get( i ) ) {
+				String ns = g.targetNamespace( i );
+				for( int k = 0; k < g.inDegree( i ); k++ ) {
+					int j = g.in( i, k );
+					// an includer, not some importer
+					if( ns.length() > 0 &&
+						!ns.equals( g.targetNamespace( j ) ) )
+						continue;
+					lifted = true;
+					if( !seen.get( j ) ) {
+						seen.set( j );
+						todo.push( j );
+					}
+				}
+			}
+			if( !lifted )
+				result.set( i );
+		}
+		return result;
+	}
+
+	/**
+	 * @return 'into', plus all reachable from ids.
+	 */
+	static private BitSet reach( SchemaGraph g, BitSet ids, BitSet into ) {
+		Deque<Integer> todo = new ArrayDeque<Integer>();
+		for( int i = ids.nextSetBit( 0 ); i >= 0; i = ids.nextSetBit( i+1 ) ) {
+			if( !into.get( i ) ) {
+				into.set( i );
+				todo.push( i );
+			}
+		}
+		while( !todo.isEmpty() ) {
+			int i = todo.pop();
+			for( int k = 0; k < g.outDegree( i ); k++ ) {
+				int j = g.out( i, k );
+				if( !into.get( j ) ) {
+					into.set( j );
+					todo.push( j );
+				}
+			}
+		}
+		return into;
+	}
+
+	private final List<String> roots;
+	private final Map<SchemaLocation,SchemaInfo> infos;
+	private final List<String> missing;
+	private int components;
+	private BitSet declaring, closure;
+}
+
+// eof
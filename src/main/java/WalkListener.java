@@ -0,0 +1,70 @@
+import java.util.Collection;
+
+/**
+ * @author Stuart Maclean
+ *
+ * Told of an XSDWalker.process walk as it proceeds, so that work on
+ * each schema can start as soon as it is found, rather than once the
+ * whole graph is done.  Register with XSDWalker.addListener.
+ *
+ * Calls come from the walking thread(s), so under a concurrent walk
+ * (-j) from the workers, but never two at once.  A listener that is
+ * slow holds up the walk.  Under a concurrent walk, edges are made only
+ * once every node is found, so all edgeAdded (and namespaceMismatch)
+ * calls follow the last nodeDiscovered.
+ *
+ * A RuntimeException thrown by a listener aborts the walk, process
+ * throwing it in turn.
+ *
+ * @see WalkStream
+ */
+public interface WalkListener {
+
+	/**
+	 * n, as parsed to info, is new to the graph.  Its edges may not all
+	 * be made yet.
+	 */
+	void nodeDiscovered( XSDWalker.Node n, SchemaInfo info );
+
+	/**
+	 * from's dependency ii, located at 'to', made the edge from -> to.
+	 */
+	void edgeAdded( XSDWalker.Node from, XSDWalker.Node to, ImportInfo ii );
+
+	/**
+	 * The document at u would not parse, so is not in the graph.
+	 */
+	void parseFailed( SchemaLocation u, Exception e );
+
+	/**
+	 * from's dependency ii, located at 'to', made no edge, as 'to' is
+	 * not in the expected namespace, see XSDWalker.link.
+	 */
+	void namespaceMismatch( XSDWalker.Node from, XSDWalker.Node to,
+							ImportInfo ii );
+
+	/**
+	 * The walk is done, nodes being the result process returns.
+	 */
+	void walkCompleted( Collection<XSDWalker.Node> nodes );
+
+	/**
+	 * Does nothing, for listeners wanting only some calls.
+	 */
+	static public class Adapter implements WalkListener {
+		public void nodeDiscovered( XSDWalker.Node n, SchemaInfo info ) {
+		}
+		public void edgeAdded( XSDWalker.Node from, XSDWalker.Node to,
+							   ImportInfo ii ) {
+		}
+		public void parseFailed( SchemaLocation u, Exception e ) {
+		}
+		public void namespaceMismatch( XSDWalker.Node from,
+									   XSDWalker.Node to, ImportInfo ii ) {
+		}
+		public void walkCompleted( Collection<XSDWalker.Node> nodes ) {
+		}
+	}
+}
+
+// eof
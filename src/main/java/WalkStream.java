@@ -0,0 +1,153 @@
+import java.io.Closeable;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Stuart Maclean
+ *
+ * An XSDWalker.process walk, run in the background, yielding each node
+ * as it is discovered, see XSDWalker.stream.  So a consumer (indexing,
+ * code generation...) works on the first schemas while the walk is
+ * still fetching the rest.
+ *
+ * Nodes pass through a bounded queue.  Once it is full, the walk waits
+ * for the consumer, so a slow consumer slows the walk rather than
+ * having nodes pile up in memory.
+ *
+ * A node is yielded before all its edges are made: once the iterator is
+ * done, graph() gives the finished graph.  Iteration also ends if the
+ * walk fails, graph() then throwing why.  close() abandons the walk.
+ */
+public class WalkStream implements Iterator<XSDWalker.Node>, Closeable {
+
+	WalkStream( XSDWalker walker, int capacity ) {
+		if( capacity < 1 )
+			throw new IllegalArgumentException( "Bad capacity: " +
+												capacity );
+		this.walker = walker;
+		queue = new ArrayBlockingQueue<XSDWalker.Node>( capacity );
+		finished = new CountDownLatch( 1 );
+		listener = new WalkListener.Adapter() {
+				public void nodeDiscovered( XSDWalker.Node n,
+											SchemaInfo info ) {
+					put( n );
+				}
+				public void walkCompleted
+					( Collection<XSDWalker.Node> nodes ) {
+					result = nodes;
+				}
+			};
+	}
+
+	void start( final Iterable<URL> us ) {
+		walker.addListener( listener );
+		Thread t = new Thread( new Runnable() {
+				public void run() {
+					try {
+						walker.process( us );
+					} catch( Exception e ) {
+						failure = e;
+					} finally {
+						walker.removeListener( listener );
+						finished.countDown();
+						try {
+							put( END );
+						} catch( CancellationException ce ) {
+							// closed, so no one to tell
+						}
+					}
+				}
+			}, "xsdwalker-stream" );
+		t.setDaemon( true );
+		t.start();
+	}
+
+	public boolean hasNext() {
+		if( next == null ) {
+			try {
+				next = queue.take();
+			} catch( InterruptedException ie ) {
+				Thread.currentThread().interrupt();
+				next = END;
+			}
+		}
+		return next != END;
+	}
+
+	public XSDWalker.Node next() {
+		if( !hasNext() )
+			throw new NoSuchElementException();
+		XSDWalker.Node result = next;
+		next = null;
+		return result;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * @return All nodes, edges in place, as process would have returned.
+	 * Any nodes not yet iterated over are skipped.
+	 *
+	 * @throws Exception What the walk failed with.
+	 */
+	public Collection<XSDWalker.Node> graph() throws Exception {
+		while( hasNext() )
+			next();
+		// if closed, the walk may not have noticed yet
+		finished.await();
+		if( failure != null )
+			throw failure;
+		return result;
+	}
+
+	/**
+	 * Stop the walk, at its next discovery, and stop iterating.
+	 */
+	public void close() {
+		closed = true;
+		queue.clear();
+		next = END;
+	}
+
+	/**
+	 * Add n to the queue, waiting while it is full, unless closed.
+	 */
+	private void put( XSDWalker.Node n ) {
+		try {
+			while( !closed ) {
+				if( queue.offer( n, POLL, TimeUnit.MILLISECONDS ) )
+					return;
+			}
+		} catch( InterruptedException ie ) {
+			Thread.currentThread().interrupt();
+		}
+		throw new CancellationException( "Walk stream closed" );
+	}
+
+	// how often, in millis, a walk waiting on the consumer checks closed
+	static private final long POLL = 100;
+
+	// not interned, so never == to any node the walk finds
+	static private final XSDWalker.Node END =
+		new XSDWalker.Node( SchemaLocation.poison(), "" );
+
+	private final XSDWalker walker;
+	private final BlockingQueue<XSDWalker.Node> queue;
+	private final WalkListener listener;
+	private final CountDownLatch finished;
+	private XSDWalker.Node next;
+	private volatile boolean closed;
+	private volatile Collection<XSDWalker.Node> result;
+	private volatile Exception failure;
+}
+
+// eof
@@ -0,0 +1,517 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URL;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * @author Stuart Maclean
+ *
+ * The --watch mode: build the graph once, then keep it, and the uber
+ * xsd, report and graph files, up to date as the schemas change.
+ *
+ * A WatchService watches the input directories (recursively, less any
+ * excluded), plus the directory of every local schema in the graph.
+ * Events are gathered until none has arrived for a while (the
+ * debounce), so an editor's save, or a checkout touching many files,
+ * is handled as one update.  Each update then:
+ *
+ * 1 drops the touched schemas from the graph, with all their edges,
+ *
+ * 2 re-links, from their dependency lists, the schemas which import
+ * (include...) any touched one, walking whatever they now reach which
+ * the graph lacks, which re-parses the touched schemas,
+ *
+ * 3 drops whatever is no longer reachable from the inputs.
+ *
+ * Only touched schemas are parsed again: every other keeps the
+ * SchemaInfo and located dependencies it was found with.  Added and
+ * removed .xsd files in the input directories add and remove roots.
+ * The graph always ends up as a fresh walk of the same inputs would
+ * build it.
+ *
+ * Outputs are rendered to a scratch directory, and copied over the
+ * real ones only where their content differs, so tools watching those
+ * (e.g. an IDE running xjc) see changes only when there are any.
+ */
+public class Watcher {
+
+	/**
+	 * @param urls, files, dirs The inputs, as given on the command line.
+	 */
+	public Watcher( XSDWalker walker, DirectoryScanner scanner,
+					List<URL> urls, List<File> files, List<File> dirs,
+					PrintStream out ) throws Exception {
+		this.walker = walker;
+		this.scanner = scanner;
+		this.urls = urls;
+		this.files = files;
+		this.dirs = dirs;
+		this.out = out;
+		p = walker.newParser();
+		entries = new LinkedHashMap<SchemaLocation,Entry>();
+		roots = new LinkedHashSet<SchemaLocation>();
+		trees = new HashSet<Path>();
+		keys = new HashMap<WatchKey,Path>();
+		debounce = DEBOUNCE;
+	}
+
+	/**
+	 * @param graph Null for no graph file.
+	 */
+	public void setOutputs( File uber, File report, File graph ) {
+		this.uber = uber;
+		this.report = report;
+		this.graph = graph;
+	}
+
+	/**
+	 * @param dag True to report the hierarchy as a DAG.
+	 */
+	public void setDAG( boolean dag ) {
+		this.dag = dag;
+	}
+
+	/**
+	 * @param targetNamespace The uber xsd's, null for its file name.
+	 * @param byNamespace Import order, see XSDWalker.importOrder.
+	 */
+	public void setUber( String targetNamespace, boolean byNamespace ) {
+		this.uberNamespace = targetNamespace;
+		this.byNamespace = byNamespace;
+	}
+
+	/**
+	 * @param millis Quiet time after an event before we act on it.
+	 */
+	public void setDebounce( long millis ) {
+		this.debounce = millis;
+	}
+
+	/**
+	 * Build the graph and write the outputs, then update both on each
+	 * (debounced) burst of changes.  Returns only if interrupted.
+	 */
+	public void watch() throws Exception {
+		WatchService ws = FileSystems.getDefault().newWatchService();
+		try {
+			this.ws = ws;
+			// any trees a prior build() found went unwatched
+			trees.clear();
+			for( File dir : dirs )
+				registerTree( dir.toPath() );
+			for( File f : files )
+				register( f.getAbsoluteFile().getParentFile().toPath() );
+			build();
+			out.println( "Watching for changes" );
+			while( true ) {
+				Set<File> touched = new LinkedHashSet<File>();
+				WatchKey k = ws.take();
+				boolean overflow = false;
+				while( k != null ) {
+					overflow |= drain( k, touched );
+					k = ws.poll( debounce, TimeUnit.MILLISECONDS );
+				}
+				if( overflow ) {
+					log( "Too many changes, rebuilding" );
+					build();
+				} else if( !touched.isEmpty() ) {
+					update( touched );
+				}
+			}
+		} catch( InterruptedException ie ) {
+			Thread.currentThread().interrupt();
+		} finally {
+			ws.close();
+			if( scratch != null )
+				FileUtils.deleteDirectory( scratch );
+		}
+	}
+
+	/**
+	 * Walk all inputs afresh, and write the outputs.
+	 */
+	public void build() throws Exception {
+		entries.clear();
+		roots.clear();
+		for( File dir : dirs )
+			registerTree( dir.toPath() );
+		for( URL u : urls )
+			roots.add( walker.locate( u ) );
+		for( File f : files )
+			roots.add( location( f ) );
+		for( File f : scanner.list( dirs ) )
+			roots.add( location( f ) );
+		List<SchemaLocation> fresh = new ArrayList<SchemaLocation>();
+		for( SchemaLocation u : roots )
+			walk( u, fresh );
+		for( SchemaLocation u : fresh )
+			linkOuts( entries.get( u ) );
+		includes();
+		written();
+	}
+
+	/**
+	 * Bring the graph, and outputs, up to date with changes to (the
+	 * creation, modification or deletion of) the given files.
+	 */
+	public void update( Collection<File> touched ) throws Exception {
+		Set<SchemaLocation> relink = new LinkedHashSet<SchemaLocation>();
+		for( File f : touched ) {
+			SchemaLocation u = location( f );
+			if( isTreeFile( f ) ) {
+				if( f.isFile() )
+					roots.add( u );
+				else
+					roots.remove( u );
+			}
+			Entry e = entries.remove( u );
+			if( e != null )
+				detach( e.node );
+			// whoever depends on u, be it present, missing or new
+			for( Entry r : entries.values() ) {
+				for( SchemaLocation t : r.targets ) {
+					if( t.equals( u ) ) {
+						relink.add( r.node.location );
+						break;
+					}
+				}
+			}
+		}
+		// a referrer may itself have been touched, so be gone
+		relink.retainAll( entries.keySet() );
+		for( SchemaLocation u : relink ) {
+			Entry r = entries.get( u );
+			for( XSDWalker.Node t : r.node.outs )
+				t.ins.remove( r.node );
+			r.node.outs.clear();
+		}
+		List<SchemaLocation> fresh = new ArrayList<SchemaLocation>();
+		for( SchemaLocation u : roots )
+			walk( u, fresh );
+		for( SchemaLocation u : relink ) {
+			for( SchemaLocation t : entries.get( u ).targets )
+				walk( t, fresh );
+		}
+		relink.addAll( fresh );
+		for( SchemaLocation u : relink )
+			linkOuts( entries.get( u ) );
+		prune();
+		includes();
+		log( touched.size() + " changed, " + fresh.size() + " parsed" );
+		written();
+	}
+
+	/**
+	 * @return The graph as it stands, keyed by location.
+	 */
+	public Map<SchemaLocation,XSDWalker.Node> nodes() {
+		Map<SchemaLocation,XSDWalker.Node> result =
+			new LinkedHashMap<SchemaLocation,XSDWalker.Node>();
+		for( Entry e : entries.values() )
+			result.put( e.node.location, e.node );
+		return result;
+	}
+
+	/**
+	 * @return Count of output files (re)written so far.
+	 */
+	public int rewrites() {
+		return rewrites;
+	}
+
+	/**
+	 * Add u, and all it reaches which the graph lacks, to the graph,
+	 * noting each added location in 'fresh'.  No edges are made.
+	 */
+	private void walk( SchemaLocation u, List<SchemaLocation> fresh )
+		throws Exception {
+		Deque<SchemaLocation> todo = new ArrayDeque<SchemaLocation>();
+		todo.push( u );
+		while( !todo.isEmpty() ) {
+			u = todo.pop();
+			if( entries.containsKey( u ) )
+				continue;
+			SchemaInfo si;
+			try {
+				si = walker.parse( p, u );
+			} catch( Exception e ) {
+				XSDWalker.log.warn( "Parse failure: " + u );
+				continue;
+			}
+			XSDWalker.Node n = new XSDWalker.Node( u, si.targetNamespace );
+			List<ImportInfo> iis = si.getDependencies();
+			SchemaLocation[] targets = new SchemaLocation[iis.size()];
+			for( int i = 0; i < targets.length; i++ )
+				targets[i] = walker.locate( u, iis.get(i) );
+			entries.put( u, new Entry( n, si, targets ) );
+			fresh.add( u );
+			watchDirectory( u );
+			for( int i = targets.length - 1; i >= 0; i-- )
+				todo.push( targets[i] );
+		}
+	}
+
+	// edges for e's dependencies, in document order, as the walk makes
+	private void linkOuts( Entry e ) {
+		List<ImportInfo> iis = e.info.getDependencies();
+		for( int i = 0; i < e.targets.length; i++ ) {
+			Entry t = entries.get( e.targets[i] );
+			if( t != null )
+				XSDWalker.link( e.node, t.node, iis.get(i) );
+		}
+	}
+
+	// remove n's edges, both ways, leaving the nodes at their far ends
+	static private void detach( XSDWalker.Node n ) {
+		for( XSDWalker.Node t : n.outs )
+			t.ins.remove( n );
+		n.outs.clear();
+		for( XSDWalker.Node r : n.ins )
+			r.outs.remove( n );
+		n.ins.clear();
+	}
+
+	// drop whatever the roots no longer reach
+	private void prune() {
+		Set<XSDWalker.Node> reached = new HashSet<XSDWalker.Node>();
+		Deque<XSDWalker.Node> todo = new ArrayDeque<XSDWalker.Node>();
+		for( SchemaLocation u : roots ) {
+			Entry e = entries.get( u );
+			if( e != null && reached.add( e.node ) )
+				todo.push( e.node );
+		}
+		while( !todo.isEmpty() ) {
+			for( XSDWalker.Node t : todo.pop().outs ) {
+				if( reached.add( t ) )
+					todo.push( t );
+			}
+		}
+		List<SchemaLocation> lost = new ArrayList<SchemaLocation>();
+		for( Entry e : entries.values() ) {
+			if( !reached.contains( e.node ) )
+				lost.add( e.node.location );
+		}
+		for( SchemaLocation u : lost )
+			detach( entries.remove( u ).node );
+	}
+
+	// 'included' marks only ever get set by link, so start over
+	private void includes() {
+		for( Entry e : entries.values() )
+			e.node.included = false;
+		for( Entry e : entries.values() ) {
+			List<ImportInfo> iis = e.info.getDependencies();
+			for( int i = 0; i < e.targets.length; i++ ) {
+				ImportInfo ii = iis.get(i);
+				Entry t = entries.get( e.targets[i] );
+				if( t != null && ii.kind.isInclusion() &&
+					XSDWalker.links( t.node, ii ) )
+					t.node.included = true;
+			}
+		}
+	}
+
+	/**
+	 * Render each output to scratch, and copy over the real one if the
+	 * content differs.
+	 */
+	private void written() throws IOException {
+		SchemaGraph g = SchemaGraph.build( nodes().values() );
+		out.println( "Nodes: " + g.size() );
+		out.println( "Leaf Nodes: " + g.leaves().cardinality() );
+		if( scratch == null ) {
+			scratch = File.createTempFile( "xsdwalker", ".watch" );
+			scratch.delete();
+			scratch.mkdirs();
+		}
+		if( uber != null ) {
+			File f = new File( scratch, uber.getName() );
+			XSDWalker.toUberXSD( g, "xs", f, uberNamespace == null ?
+								 uber.getName() : uberNamespace, byNamespace );
+			replace( f, uber );
+		}
+		if( report != null ) {
+			File f = new File( scratch, report.getName() );
+			// report appends
+			f.delete();
+			XSDWalker.report( g, f, dag );
+			replace( f, report );
+		}
+		if( graph != null ) {
+			File f = new File( scratch, graph.getName() );
+			XSDWalker.writeGraph( g, f );
+			replace( f, graph );
+		}
+	}
+
+	private void replace( File from, File to ) throws IOException {
+		if( to.isFile() && FileUtils.contentEquals( from, to ) )
+			return;
+		FileUtils.copyFile( from, to );
+		rewrites++;
+		out.println( "Wrote " + to );
+	}
+
+	private void log( String s ) {
+		XSDWalker.log.info( s );
+		out.println( s );
+	}
+
+	private SchemaLocation location( File f ) throws IOException {
+		return walker.locate( f.toURI().toURL() );
+	}
+
+	// a file whose adding or removing adds or removes a root
+	private boolean isTreeFile( File f ) {
+		Path p = f.toPath();
+		Path dir = p.getParent();
+		return dir != null && trees.contains( dir ) &&
+			scanner.acceptsFile( p );
+	}
+
+	/**
+	 * Watch dir, and every directory under it the scanner would list.
+	 */
+	private void registerTree( Path dir ) throws IOException {
+		Files.walkFileTree( dir, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory
+					( Path d, BasicFileAttributes bfa ) throws IOException {
+					if( trees.contains( d ) ||
+						( !isInput( d ) && !scanner.acceptsDirectory( d ) ) )
+						return FileVisitResult.SKIP_SUBTREE;
+					trees.add( d );
+					register( d );
+					return FileVisitResult.CONTINUE;
+				}
+			} );
+	}
+
+	private boolean isInput( Path d ) {
+		for( File dir : dirs ) {
+			if( dir.toPath().equals( d ) )
+				return true;
+		}
+		return false;
+	}
+
+	// a local schema's directory, so we see edits to it
+	private void watchDirectory( SchemaLocation u ) throws IOException {
+		if( ws == null || !u.toString().startsWith( "file:" ) )
+			return;
+		File f = Parser.asFile( u.toString() );
+		if( f != null && f.getParentFile() != null )
+			register( f.getParentFile().toPath() );
+	}
+
+	// no-op unless watch()ing
+	private void register( Path dir ) throws IOException {
+		if( ws == null )
+			return;
+		Path key = dir.toAbsolutePath().normalize();
+		if( registered == null )
+			registered = new HashSet<Path>();
+		if( !registered.add( key ) || !Files.isDirectory( dir ) )
+			return;
+		WatchKey k = dir.register( ws, StandardWatchEventKinds.ENTRY_CREATE,
+								   StandardWatchEventKinds.ENTRY_DELETE,
+								   StandardWatchEventKinds.ENTRY_MODIFY );
+		keys.put( k, dir );
+	}
+
+	/**
+	 * Add the .xsd files k reports on to touched.  New directories in
+	 * our trees are watched, and their files taken as touched.
+	 *
+	 * @return True if events were lost, so we must start over.
+	 */
+	private boolean drain( WatchKey k, Set<File> touched )
+		throws IOException {
+		Path dir = keys.get( k );
+		boolean result = false;
+		for( WatchEvent<?> we : k.pollEvents() ) {
+			if( we.kind() == StandardWatchEventKinds.OVERFLOW ) {
+				result = true;
+				continue;
+			}
+			Path p = dir.resolve( (Path)we.context() );
+			if( we.kind() == StandardWatchEventKinds.ENTRY_CREATE &&
+				trees.contains( dir ) && Files.isDirectory( p ) &&
+				scanner.acceptsDirectory( p ) ) {
+				registerTree( p );
+				touched.addAll( scanner.list
+								( Collections.singletonList( p.toFile() ) ) );
+				continue;
+			}
+			if( p.getFileName().toString().endsWith( ".xsd" ) )
+				touched.add( p.toFile() );
+		}
+		if( !k.reset() )
+			keys.remove( k );
+		return result;
+	}
+
+	/**
+	 * A node in the graph, with what it was parsed to, and where each
+	 * of its dependencies was located.
+	 */
+	static private class Entry {
+		Entry( XSDWalker.Node node, SchemaInfo info,
+			   SchemaLocation[] targets ) {
+			this.node = node;
+			this.info = info;
+			this.targets = targets;
+		}
+		final XSDWalker.Node node;
+		final SchemaInfo info;
+		final SchemaLocation[] targets;
+	}
+
+	// quiet time, in millis, before acting on events
+	static private final long DEBOUNCE = 300;
+
+	private final XSDWalker walker;
+	private final DirectoryScanner scanner;
+	private final List<URL> urls;
+	private final List<File> files, dirs;
+	private final PrintStream out;
+	private final Parser p;
+	private final Map<SchemaLocation,Entry> entries;
+	private final Set<SchemaLocation> roots;
+	private final Set<Path> trees;
+	private final Map<WatchKey,Path> keys;
+	private Set<Path> registered;
+	private WatchService ws;
+	private File uber, report, graph, scratch;
+	private long debounce;
+	private boolean dag, byNamespace;
+	private String uberNamespace;
+	private int rewrites;
+}
+
+// eof
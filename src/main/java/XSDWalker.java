@@ -1,22 +1,44 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.IOFileFilter;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.cli.*;
 import org.apache.log4j.Logger;
 
@@ -37,24 +59,93 @@ import org.apache.log4j.Logger;
  *
  * Input .xsds can be directories (then scanned for .xsd files
  * recursively), individual file names, and urls (including http://
- * ones)
+ * ones).  A .zip or .jar input is read in place, each .xsd entry
+ * (excludes apply to entry paths) as a jar: url, see Archives.  Not
+ * with --watch.
  *
  *
  * Options:
  *
- * -e <arg>   exclude any file/directory matching the arg. Can be used 2+ times
+ * -d         use the DOM parser (full document tree + XPath) in place
+ * of the default streaming (StAX) scan of each schema's top-level imports.
+ *
+ * --dag      print the report's hierarchy as a DAG: a subtree shared
+ * between leaves is printed in full just once, and later as a ^location
+ * reference, so keeping report size linear in the graph size.
+ *
+ * -e <arg>   exclude any file/directory matching the arg. Can be used 2+
+ * times.  The arg is a glob (optionally glob:), a regex:, or an existing
+ * file/dir, see DirectoryScanner.
+ *
+ * --jmx      expose the metrics (see --metrics) as a JMX MBean,
+ * xsdwalker:type=Metrics, while running.
+ *
+ * --metrics <file>  write run metrics (phase times, per-node parse
+ * times, fetch latencies, cache hit rates) to file, as JSON.
+ *
+ * --watch    after the first run, watch the inputs (and every local
+ * schema found), and on each change re-parse just the changed files,
+ * rewriting outputs only if they change.  Runs until killed, so not
+ * via a Daemon.
+ *
+ * -m         memoize parsing by document content, so that identical
+ * copies of a schema at different locations are parsed just once.
+ *
+ * -M <file>  as -m, with the memo loaded from, and saved to, file.
  *
  * -n         dryrun, show the .xsd set but do not visit any.
  *
+ * --ns-order order the uber xsd's imports by target namespace, then
+ * location, rather than by location alone.
+ *
+ * -r <arg>   tree shaking: a root element or type, as {namespace}name,
+ * or just name for any namespace.  Can be used 2+ times.  The uber xsd
+ * then imports only the schemas needed for the roots' declarations,
+ * found by following type=, ref=, base= (etc) references from them,
+ * see TreeShaker.  Needs the streaming parser, and so not -d, nor -i,
+ * -m, -M or --watch.
+ *
+ * --shards <N>  also split the uber xsd into shards, for xjc to compile
+ * in parallel, N at a time: $uber-0.uber.xsd, $uber-1.uber.xsd ...,
+ * each a namespace family group, plus $uber.shards.json, giving each
+ * shard's size and the shards (their episodes) it depends on, see
+ * Sharder.  Shard files beyond the N'th left by an earlier run are
+ * deleted.  Not with --watch.
+ *
+ * -t <arg>   targetNamespace of the uber xsd, defaults to its file name.
+ *
  * -u <arg> name of uber .xsd output, defaults to first input name
  * (file/dir/url) if not supplied.
  *
  * -v         verbose
  *
+ * -i         incremental, reuse what the previous run learned (saved in
+ * $uber.snapshot) for all files unchanged since.  The uber xsd and
+ * report are rewritten only if the uber xsd content, or the options
+ * shaping them (--dag, --ns-order, -t, --shards), change.
+ *
+ * -j <N>    walk the import graph with N worker threads, each with
+ * its own Parser.  Defaults to 1, i.e. a sequential depth-first walk.
+ *
+ * -C <dir>  cache remote (http:) schemas in dir, across runs.
+ *
+ * -O         offline, serve remote schemas only from the cache (dir as
+ * given by -C, else $HOME/.xsdwalker/cache).
+ *
+ * -p <N>    download at most N remote schemas at once from any one
+ * host.  Downloads start as soon as each remote dependency is found,
+ * overlapping the walk.  Defaults to 4.  0 fetches each remote schema
+ * only when the walk reaches it.
+ *
+ * -c <file>  an OASIS XML catalog, mapping schema locations (or import
+ * namespaces) to e.g. local copies, before any fetch.  Can be used 2+
+ * times, the catalogs consulted in the order given.
+ *
  * -g produce a 'graph file', a simple text file listing all nodes and
  * edges in the resultant 'graph'.  We can then use e.g. yfiles or
  * some other graphing package to visualize the node set.  The output
- * graph file name is $uber.graph.
+ * graph file name is $uber.graph.  It also gives each node's strongly
+ * connected component, an import cycle being one component.
  * 
  */
 
@@ -62,30 +153,119 @@ public class XSDWalker {
 
 	static final Logger log = Logger.getLogger( XSDWalker.class.getName() );
 	
-	static private void printUsage( Options os, String usage,
-									String header, String footer ) {
+	static private void printUsage( PrintStream ps, Options os,
+									String usage, String header,
+									String footer ) {
 		HelpFormatter hf = new HelpFormatter();
-		hf.setWidth( 80 );
-		hf.printHelp( usage, header, os, footer );
+		PrintWriter pw = new PrintWriter( ps );
+		hf.printHelp( pw, 80, usage, header, os, hf.getLeftPadding(),
+					  hf.getDescPadding(), footer );
+		pw.flush();
 	}
 
 	public static void main( String[] args ) throws Exception {
+		int status = run( args, null, System.out, System.err, null );
+		if( status != 0 )
+			System.exit( status );
+	}
+
+	/**
+	 * One command line's worth of work, as main does it, but with all
+	 * output to the given streams, and relative paths resolved against
+	 * cwd.  So callable many times over in one JVM, see Daemon.
+	 *
+	 * @param cwd Directory against which relative paths (inputs,
+	 * outputs, option values) resolve, null for the JVM's own.  When
+	 * non-null, --watch is refused, as it would never return.
+	 * @param warm Parse cache to use unless args name one (-m/-M), so
+	 * kept warm by the caller across runs.  Null for none.
+	 * @return The exit status, 0 for success.
+	 */
+	static int run( String[] args, File cwd, PrintStream out,
+					PrintStream err, ParseCache warm ) throws Exception {
+		// archives read by this run stay open until it, and any other
+		// concurrent run, is done
+		Archives.acquire();
+		try {
+			return execute( args, cwd, out, err, warm );
+		} finally {
+			Archives.release();
+		}
+	}
+
+	static private int execute( String[] args, File cwd, PrintStream out,
+								PrintStream err, ParseCache warm )
+		throws Exception {
 
 		Options os = new Options();
+		os.addOption( "C", true,
+					  "cache directory for remote (http:) schemas." );
+		os.addOption( "O", false,
+					  "offline, serve remote schemas from cache only." );
+		os.addOption( "c", true,
+					  "XML catalog mapping schema locations, 2+ allowed." );
+		os.addOption( "p", true,
+					  "concurrent downloads per remote host, 0 for none." );
+		os.addOption( "d", false,
+					  "use DOM parser in place of streaming scanner." );
 		os.addOption( "g", false,
 					  "produce edges file, used for graphing." );
+		os.addOption( "m", false,
+					  "parse identical documents just once." );
+		os.addOption( "M", true,
+					  "as -m, persisting parse results in given file." );
 		os.addOption( "n", false,
 					  "dryrun, show the .xsd set but do not visit any." );
+		os.addOption( "r", true,
+					  "tree shake from root element/type {ns}name," +
+					  " 2+ allowed." );
+		os.addOption( "t", true,
+					  "targetNamespace of the uber xsd, default its name." );
+		os.addOption( OptionBuilder.
+					  withLongOpt( "metrics" ).
+					  hasArg().
+					  withArgName( "file" ).
+					  withDescription( "write run metrics, as JSON, to file." ).
+					  create() );
+		os.addOption( OptionBuilder.
+					  withLongOpt( "dag" ).
+					  withDescription( "report the hierarchy as a DAG, " +
+									   "each shared subtree printed once." ).
+					  create() );
+		os.addOption( OptionBuilder.
+					  withLongOpt( "jmx" ).
+					  withDescription( "expose run metrics as a JMX MBean." ).
+					  create() );
+		os.addOption( OptionBuilder.
+					  withLongOpt( "ns-order" ).
+					  withDescription( "order uber xsd imports by namespace, " +
+									   "then location." ).
+					  create() );
+		os.addOption( OptionBuilder.
+					  withLongOpt( "shards" ).
+					  hasArg().
+					  withArgName( "N" ).
+					  withDescription( "also write the uber xsd as shards," +
+									   " for N parallel xjc runs." ).
+					  create() );
+		os.addOption( OptionBuilder.
+					  withLongOpt( "watch" ).
+					  withDescription( "keep outputs up to date as inputs change." ).
+					  create() );
 		Option excludes = OptionBuilder.
 			hasArgs().
 			withDescription( "exclude file/directory matching pattern(s)" ).
 			create( 'e' );
 		os.addOption( excludes );
+		os.addOption( "i", false,
+					  "incremental, re-parse only files changed since last run." );
+		os.addOption( "j", true,
+					  "number of worker threads for the graph walk" );
 		os.addOption( "u", true,
 					  "name of uber .xsd output" );
 		os.addOption( "v", false, "verbose" );
 		final String USAGE =
-			"[-e file/dir]* [-g] [-n] [-u uber] [-v] (file|dir|url)+";
+			"[-C cacheDir] [-O] [-c catalog]* [-d] [--dag] [-e file/dir]* [-g] [-i] [-j threads] [-m] [-M memoFile] [--metrics file] [--jmx] [-n] [--ns-order] [-r root]* [--shards N] [-t tns] [--watch] [-p perHost] [-u uber] [-v] (file|dir|zip|url)+";
 		final String HEADER = "";
 		final String FOOTER = "";
 		
@@ -94,31 +274,142 @@ public class XSDWalker {
 		try {
 			cl = clp.parse( os, args );
 		} catch( Exception e ) {
-			System.err.println( e );
-			printUsage( os, USAGE, HEADER, FOOTER );
-			System.exit(1);
+			err.println( e );
+			printUsage( out, os, USAGE, HEADER, FOOTER );
+			return 1;
 		}
+		boolean domParser = cl.hasOption( "d" );
 		boolean dryRun = cl.hasOption( "n" );
 		boolean verbose = cl.hasOption( "v" );
 		boolean writeGraphFile = cl.hasOption( "g" );
+		boolean incremental = cl.hasOption( "i" );
+		boolean dag = cl.hasOption( "dag" );
+		boolean byNamespace = cl.hasOption( "ns-order" );
+		List<String> shakeRoots = null;
+		if( cl.hasOption( "r" ) ) {
+			shakeRoots = Arrays.asList( cl.getOptionValues( "r" ) );
+			// memo, snapshot and DOM parses lack the declarations needed
+			if( domParser || incremental || cl.hasOption( "m" ) ||
+				cl.hasOption( "M" ) || cl.hasOption( "watch" ) ) {
+				err.println( "Tree shaking (-r) cannot be used with" +
+							 " -d, -i, -m, -M or --watch" );
+				printUsage( out, os, USAGE, HEADER, FOOTER );
+				return 1;
+			}
+		}
 
-		final List<File> excludeFiles = new ArrayList<File>();
-		final List<File> excludeDirs = new ArrayList<File>();
+		DirectoryScanner scanner = new DirectoryScanner( SCAN_THREADS );
 		if( cl.hasOption( "e" ) ) {
 			log.info( "Found excludes" );
 			String[] ss = cl.getOptionValues( "e" );
 			for( String s : ss ) {
-			log.info( "Found exclude " + s );
-				File exclude = new File( s );
-				if( false ) {
-				} else if( exclude.isFile() ) {
-					excludeFiles.add( exclude );
-				} else if( exclude.isDirectory() ) {
-					excludeDirs.add( exclude );
+				log.info( "Found exclude " + s );
+				try {
+					scanner.exclude( s, cwd );
+				} catch( IllegalArgumentException iae ) {
+					err.println( "Bad exclude: " + s + ": " +
+										iae.getMessage() );
+					printUsage( out, os, USAGE, HEADER, FOOTER );
+					return 1;
+				}
+			}
+		}
+
+		int threads = 1;
+		if( cl.hasOption( "j" ) ) {
+			try {
+				threads = Integer.parseInt( cl.getOptionValue( "j" ) );
+			} catch( NumberFormatException nfe ) {
+			}
+			if( threads < 1 ) {
+				err.println( "Bad thread count: " +
+									cl.getOptionValue( "j" ) );
+				printUsage( out, os, USAGE, HEADER, FOOTER );
+				return 1;
+			}
+		}
+		
+		// a Daemon run, whose caller awaits our exit status
+		if( cl.hasOption( "watch" ) && cwd != null ) {
+			err.println( "--watch cannot be used via a daemon" );
+			printUsage( out, os, USAGE, HEADER, FOOTER );
+			return 1;
+		}
+
+		int shards = 0;
+		if( cl.hasOption( "shards" ) ) {
+			try {
+				shards = Integer.parseInt( cl.getOptionValue( "shards" ) );
+			} catch( NumberFormatException nfe ) {
+			}
+			if( shards < 1 || cl.hasOption( "watch" ) ) {
+				err.println( "Bad shard count: " +
+							 cl.getOptionValue( "shards" ) +
+							 ", nor with --watch" );
+				printUsage( out, os, USAGE, HEADER, FOOTER );
+				return 1;
+			}
+		}
+
+		int perHost = 4;
+		if( cl.hasOption( "p" ) ) {
+			try {
+				perHost = Integer.parseInt( cl.getOptionValue( "p" ) );
+			} catch( NumberFormatException nfe ) {
+				perHost = -1;
+			}
+			if( perHost < 0 ) {
+				err.println( "Bad per host download count: " +
+									cl.getOptionValue( "p" ) );
+				printUsage( out, os, USAGE, HEADER, FOOTER );
+				return 1;
+			}
+		}
+		
+		SchemaCache cache = null;
+		if( cl.hasOption( "C" ) || cl.hasOption( "O" ) ) {
+			File cacheDir = cl.hasOption( "C" ) ?
+				resolve( cwd, cl.getOptionValue( "C" ) ) :
+				SchemaCache.defaultDirectory();
+			cache = new SchemaCache( cacheDir );
+			cache.setOffline( cl.hasOption( "O" ) );
+			log.info( "Cache: " + cacheDir +
+					  ( cache.isOffline() ? " (offline)" : "" ) );
+		}
+
+		ParseCache parseCache = null;
+		File parseCacheFile = null;
+		if( cl.hasOption( "M" ) ) {
+			parseCacheFile = resolve( cwd, cl.getOptionValue( "M" ) );
+			parseCache = ParseCache.load( parseCacheFile, MEMO_ENTRIES,
+										  MEMO_BYTES );
+		} else if( cl.hasOption( "m" ) ) {
+			parseCache = new ParseCache( MEMO_ENTRIES, MEMO_BYTES );
+		}
+
+		Catalog catalog = null;
+		if( cl.hasOption( "c" ) ) {
+			catalog = new Catalog();
+			for( String s : cl.getOptionValues( "c" ) ) {
+				log.info( "Catalog: " + s );
+				try {
+					catalog.add( resolve( cwd, s ) );
+				} catch( IOException ioe ) {
+					err.println( ioe );
+					return 1;
 				}
 			}
 		}
 
+		Metrics metrics = null;
+		File metricsFile = null;
+		if( cl.hasOption( "metrics" ) || cl.hasOption( "jmx" ) ) {
+			metrics = new Metrics();
+			if( cl.hasOption( "metrics" ) )
+				metricsFile = resolve( cwd, cl.getOptionValue( "metrics" ) );
+		}
+		scanner.setMetrics( metrics );
+
 		String uber = null;
 		if( cl.hasOption( "u" ) ) {
 			uber = cl.getOptionValue( "u" );
@@ -126,21 +417,24 @@ public class XSDWalker {
 		
 		args = cl.getArgs();
 		if( args.length < 1 ) {
-			System.err.println( XSDWalker.class.getName() +
+			err.println( XSDWalker.class.getName() +
 								": no input dirs/files/urls" );
-			printUsage( os, USAGE, HEADER, FOOTER );
-			System.exit(1);
+			printUsage( out, os, USAGE, HEADER, FOOTER );
+			return 1;
 		}
 		
 		List<URL>  urls = new ArrayList<URL>();
 		List<File> dirs = new ArrayList<File>();
 		List<File> files = new ArrayList<File>();
+		List<File> archives = new ArrayList<File>();
 
 		for( String arg : args ) {
-			File f = new File( arg );
+			File f = resolve( cwd, arg );
 			if( false ) {
 			} else if( !f.exists() ) {
 				urls.add( new URL( arg ) );
+			} else if( f.isFile() && Archives.isArchive( f ) ) {
+				archives.add( f );
 			} else if( f.isFile() ) {
 				/*
 				  DO NOT include as an input the very artifact
@@ -157,6 +451,7 @@ public class XSDWalker {
 		log.info( "Dirs : " + dirs );
 		log.info( "Files: " + files );
 		log.info( "URLs: "  + urls );
+		log.info( "Archives: " + archives );
 
 		/*
 		  No output name offered via a -u option, so we pick one from
@@ -172,6 +467,9 @@ public class XSDWalker {
 					s = s.substring( 0, s.length() - ".xsd".length() );
 				}
 				uber = s;
+			} else if( !archives.isEmpty() ) {
+				String s = archives.get(0).getName();
+				uber = s.substring( 0, s.lastIndexOf( '.' ) );
 			} else if( !urls.isEmpty() ) {
 				String s = urls.get(0).toString();
 				if( s.endsWith( ".xsd" ) ) {
@@ -182,142 +480,433 @@ public class XSDWalker {
 			}
 		}
 
-		File uberFile = new File( uber + ".uber.xsd" );
+		File uberFile = resolve( cwd, uber + ".uber.xsd" );
 		log.info( "Uber schema: " + uberFile );
+		String uberNamespace = cl.hasOption( "t" ) ? cl.getOptionValue( "t" ) :
+			uberFile.getName();
 
-		File reportFile = new File( uber + ".txt" );
-		reportFile.delete();
+		File reportFile = resolve( cwd, uber + ".txt" );
 		log.info( "Report file: " + reportFile );
 
+		File snapshotFile = resolve( cwd, uber + ".snapshot" );
 
-		List<File> allFiles = new ArrayList<File>();
-		allFiles.addAll( files );
-
-		if( !dirs.isEmpty() ) {
-			IOFileFilter ff1 = new IOFileFilter() {
-					public boolean accept( File file ) {
-						// this is the method called for files...
-						for( File ex : excludeFiles )  {
-							if( file.getPath().contains( ex.getPath() ) )
-								return false;
-						}
-						return file.getName().endsWith( ".xsd" );
-					}
-					public boolean accept( File dir, String name ) {
-						// not sure this ever called ?
-						return false;
-					}
-				};
-			IOFileFilter ff2 = new IOFileFilter() {
-					// this is the method called for dirs...
-					public boolean accept( File file ) {
-						for( File ex : excludeDirs )  {
-							if( file.getPath().contains( ex.getPath() ) )
-								return false;
-						}
-						return true;
-					}
-					public boolean accept( File dir, String name ) {
-						// not sure this ever called ?
-						return false;
-					}
-				};
-			for( File dir : dirs ) {
-				Collection<File> fs = FileUtils.listFiles( dir, ff1, ff2 );
-				allFiles.addAll( fs );
-			}
+		// entries are then roots, as any url given
+		if( !archives.isEmpty() && cl.hasOption( "watch" ) ) {
+			err.println( "Archive inputs cannot be used with --watch" );
+			printUsage( out, os, USAGE, HEADER, FOOTER );
+			return 1;
 		}
-		Collections.sort( allFiles );
-
-		List<URL> allURLs = new ArrayList<URL>();
-		allURLs.addAll( urls );
-		for( File f : allFiles ) {
-			URL u = f.toURI().toURL();
-			//			URL u = f.getCanonicalFile().toURI().toURL();
-			allURLs.add( u );
+		for( File a : archives ) {
+			try {
+				urls.addAll( scanner.listArchive( a ) );
+			} catch( IOException ioe ) {
+				err.println( "Cannot read archive " + a + ": " + ioe );
+				return 1;
+			}
 		}
 
-		// The processing going forward is based a list of URLs, NOT files...
-		if( verbose ) {
-			for( URL u : allURLs )
-				log.info( u );
-		}
-		log.info( "Found " + allURLs.size() + " .xsd files/urls" );
-		
 		if( dryRun ) {
+			List<File> allFiles = new ArrayList<File>();
+			allFiles.addAll( files );
+			allFiles.addAll( scanner.list( dirs ) );
+			Collections.sort( allFiles );
+			List<URL> allURLs = new ArrayList<URL>();
+			allURLs.addAll( urls );
+			for( File f : allFiles )
+				allURLs.add( f.toURI().toURL() );
+			if( verbose ) {
+				for( URL u : allURLs )
+					log.info( u );
+			}
+			log.info( "Found " + allURLs.size() + " .xsd files/urls" );
 			log.info( "Skipping processing" );
 			if( writeGraphFile ) {
 				// write just the nodes as given on input...
-				File f = new File( uber + ".nodes" );
+				File f = resolve( cwd, uber + ".nodes" );
 				log.info( "Writing nodes: " + f );
-				PrintWriter pw = new PrintWriter( new FileWriter( f ) );
+				PrintWriter pw = writer( f, false );
 				String targetNamespace = "UNK";
 				for( URL u : allURLs ) {
 					pw.println( "N," + u.toString() + "," + targetNamespace );
 				}
-				pw.close();
+				close( pw, f );
 			}
-			return;
+			return 0;
 		}
 
-		XSDWalker w = new XSDWalker();
-		Collection<Node> ns = w.process( allURLs );
-		System.out.println( "Nodes: " + ns.size() );
-		if( ns.isEmpty() )
-			return;
-
-		if( verbose ) {
-			List<Node> toSort = new ArrayList<Node>( ns );
-			Collections.sort( toSort );
-			for( Node n : toSort )
-				System.out.println( n.location );
+		XSDWalker w = new XSDWalker( !domParser );
+		w.setThreads( threads );
+		w.setCache( cache );
+		w.setCatalog( catalog );
+		TreeShaker shaker = null;
+		if( shakeRoots != null ) {
+			shaker = new TreeShaker( shakeRoots );
+			w.setIndexing( true );
+			w.addListener( shaker );
+			// the caller's too may hold unindexed parses
+			warm = null;
 		}
+		// what -m/-M asked for, else the caller's
+		ParseCache memo = parseCache != null ? parseCache : warm;
+		long memoHits = memo == null ? 0 : memo.hits();
+		long memoMisses = memo == null ? 0 : memo.misses();
+		w.setParseCache( memo );
+		w.setMetrics( metrics );
+		Fetcher fetcher = null;
+		if( perHost > 0 ) {
+			fetcher = new Fetcher( FETCH_THREADS, perHost );
+			fetcher.setCache( cache );
+			fetcher.setMetrics( metrics );
+			w.setFetcher( fetcher );
+		}
+		if( metrics != null && cl.hasOption( "jmx" ) )
+			metrics.register();
+		// the fetcher's threads, and the MBean, last only as long as the run
+		try {
+			if( cl.hasOption( "watch" ) ) {
+				Watcher watcher = new Watcher( w, scanner, urls, files, dirs,
+											   out );
+				watcher.setOutputs( uberFile, reportFile, writeGraphFile ?
+									resolve( cwd, uber + ".graph" ) : null );
+				watcher.setDAG( dag );
+				watcher.setUber( uberNamespace, byNamespace );
+				watcher.watch();
+				return 0;
+			}
+			GraphSnapshot snapshot = null;
+			if( incremental ) {
+				snapshot = GraphSnapshot.load( snapshotFile );
+				snapshot.setCache( cache );
+				w.setSnapshot( snapshot );
+			}
+			// The processing going forward is based a list of URLs, NOT files...
+			Inputs inputs = new Inputs( urls, files, scanner.scan( dirs ),
+										verbose );
+			long t0 = System.nanoTime();
+			Collection<Node> ns = w.process( inputs );
+			if( metrics != null )
+				metrics.phase( "walk", System.nanoTime() - t0 );
+			log.info( "Found " + inputs.count + " .xsd files/urls" );
+			out.println( "Nodes: " + ns.size() );
+			if( snapshot != null )
+				out.println( "Reused: " + snapshot.reused() );
+			if( parseCache != null ) {
+				out.println( "Parse cache: " + parseCache );
+				if( parseCacheFile != null )
+					parseCache.save( parseCacheFile );
+			}
+			if( metrics != null ) {
+				if( cache != null )
+					metrics.cache( "schema", cache.hits(),
+								   cache.misses() + cache.revalidations() );
+				if( memo != null )
+					metrics.cache( "parse", memo.hits() - memoHits,
+								   memo.misses() - memoMisses );
+				if( snapshot != null )
+					metrics.cache( "snapshot", snapshot.reused(),
+								   ns.size() - snapshot.reused() );
+			}
+			if( ns.isEmpty() ) {
+				if( metricsFile != null )
+					metrics.writeJSON( metricsFile );
+				return 0;
+			}
 
-		//		resolve( ns );
-
-		Collection<Node> leaves = leafNodes( ns );
-		System.out.println( "Leaf Nodes: " + leaves.size() );
+			// all analysis and output from here on is from the compact form
+			t0 = System.nanoTime();
+			SchemaGraph g = SchemaGraph.build( ns );
+			ns = null;
+			w = null;
+			if( log.isInfoEnabled() )
+				logCollisions( g );
 		
-		Collection<Node> remotes = remoteNodes( ns );
-		System.out.println( "Remote Nodes: " + remotes.size() );
+			if( verbose ) {
+				for( int i = 0; i < g.size(); i++ )
+					out.println( g.location( i ) );
+			}
+
+			//		resolve( ns );
+
+			out.println( "Leaf Nodes: " + g.leaves().cardinality() );
+			out.println( "Remote Nodes: " + g.remotes().cardinality() );
+
+			BitSet imports = g.prunedLeaves();
+			if( shaker != null ) {
+				imports = shaker.shake( g );
+				for( String root : shaker.missing() )
+					err.println( "No declaration of root: " + root );
+				if( shaker.missing().size() == shakeRoots.size() )
+					return 1;
+				out.println( "Shaken: " + shaker.components() +
+							 " components, declared in " +
+							 shaker.declaring().cardinality() + " schemas, " +
+							 shaker.closure().cardinality() + " loaded, " +
+							 imports.cardinality() + " imported" );
+			}
 		
-		//XSDWalker.checkNamespaceLinkage( ns );
-		XSDWalker.report( ns, reportFile );
-		XSDWalker.toUberXSD( ns, "xs", uberFile );
-
-		if( writeGraphFile ) {
-			File f = new File( uber + ".graph" );
-			log.info( "Writing graph: " + f );
-			PrintWriter pw = new PrintWriter( new FileWriter( f ) );
-			for( Node n : ns ) {
-				pw.println( "N," + n.location.toString() + "," +
-							n.targetNamespace );
-			}
-			for( Node n : ns ) {
-				for( Node out : n.outs ) {
-					pw.println( "E," + n.location.toString() + "," +
-								out.location.toString() );
+			boolean rewrite = true;
+			if( snapshot != null ) {
+				boolean changed = snapshot.setLeaves
+					( GraphSnapshot.leafKeys( g ) );
+				// as are the options shaping the outputs (-r is refused with -i)
+				changed |= snapshot.setOptions
+					( Arrays.asList( "dag=" + dag, "ns-order=" + byNamespace,
+									 "t=" + ( cl.hasOption( "t" ) ?
+											  uberNamespace : "" ) ) );
+				// or sharded otherwise, if at all, last time
+				rewrite = changed || !uberFile.exists() || !reportFile.exists() ||
+					( shards > 0 && Sharder.readWidth
+					  ( resolve( cwd, uber + ".shards.json" ) ) != shards );
+				snapshot.save( snapshotFile );
+			}
+			if( metrics != null )
+				metrics.phase( "analyse", System.nanoTime() - t0 );
+
+			//XSDWalker.checkNamespaceLinkage( ns );
+			t0 = System.nanoTime();
+			if( rewrite ) {
+				reportFile.delete();
+				XSDWalker.report( g, reportFile, dag );
+				XSDWalker.toUberXSD( g, "xs", uberFile, uberNamespace,
+									 byNamespace, imports );
+				if( shards > 0 ) {
+					List<Sharder.Shard> ss = Sharder.shard( g, imports, shards );
+					for( int i = 0; i < ss.size(); i++ ) {
+						File f = resolve( cwd, Sharder.fileName( uber, i ) );
+						XSDWalker.toUberXSD
+							( g, "xs", f, cl.hasOption( "t" ) ?
+							  uberNamespace + "-" + i : f.getName(),
+							  byNamespace, ss.get( i ).imports() );
+					}
+					// any more left by an earlier, wider, run
+					for( int i = ss.size(); ; i++ ) {
+						File f = resolve( cwd, Sharder.fileName( uber, i ) );
+						if( !f.delete() )
+							break;
+						log.info( "Deleted stale shard: " + f );
+					}
+					File f = resolve( cwd, uber + ".shards.json" );
+					log.info( "Writing shard manifest: " + f );
+					Sharder.writeManifest( ss, uber, shards, f );
+					out.println( "Shards: " + ss.size() );
 				}
+			} else {
+				log.info( "Leaves unchanged, keeping " + uberFile + ", " +
+						  reportFile );
 			}
-			pw.close();
+
+			if( writeGraphFile ) {
+				File f = resolve( cwd, uber + ".graph" );
+				log.info( "Writing graph: " + f );
+				writeGraph( g, f );
+			}
+			if( metrics != null )
+				metrics.phase( "write", System.nanoTime() - t0 );
+			if( metricsFile != null ) {
+				log.info( "Writing metrics: " + metricsFile );
+				metrics.writeJSON( metricsFile );
+			}
+			return 0;
+		} finally {
+			if( fetcher != null )
+				fetcher.shutdown();
+			if( metrics != null )
+				metrics.unregister();
 		}
 	}
+
+	/**
+	 * @return path as a File, relative to cwd if not absolute.
+	 */
+	static File resolve( File cwd, String path ) {
+		File result = new File( path );
+		if( cwd == null || result.isAbsolute() )
+			return result;
+		return new File( cwd, path );
+	}
 	
 	public XSDWalker() throws Exception {
-		p = new Parser();
+		this( true );
+	}
+
+	/**
+	 * @param streaming Selects the Parser mode, see Parser( boolean ).
+	 */
+	public XSDWalker( boolean streaming ) throws Exception {
+		this.streaming = streaming;
+		p = new Parser( streaming );
+		threads = 1;
+		listeners = new CopyOnWriteArrayList<WalkListener>();
+	}
+
+	/**
+	 * @param cache Where remote schemas are fetched through, or null
+	 * for no caching.
+	 */
+	public void setCache( SchemaCache cache ) {
+		this.cache = cache;
+		p.setCache( cache );
+	}
+
+	/**
+	 * @param catalog Consulted for every schema location before it is
+	 * visited, or null for no mapping.
+	 */
+	public void setCatalog( Catalog catalog ) {
+		this.catalog = catalog;
+	}
+
+	/**
+	 * @param parseCache Consulted, by content digest, before any
+	 * document is parsed, or null to parse every document.
+	 */
+	public void setParseCache( ParseCache parseCache ) {
+		this.parseCache = parseCache;
+	}
+
+	/**
+	 * @param snapshot The outcome of a previous run, consulted before
+	 * parsing any url, and updated as we go.  Null to parse everything.
+	 */
+	public void setSnapshot( GraphSnapshot snapshot ) {
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * @param metrics Told of each node's parse time and bytes, and of
+	 * the concurrent walk's progress.  Null for none.
+	 */
+	public void setMetrics( Metrics metrics ) {
+		this.metrics = metrics;
+	}
+
+	Metrics metrics() {
+		return metrics;
+	}
+
+	/**
+	 * @param l Told of each process() walk as it goes.
+	 */
+	public void addListener( WalkListener l ) {
+		listeners.add( l );
+	}
+
+	public void removeListener( WalkListener l ) {
+		listeners.remove( l );
+	}
+
+	/**
+	 * Walk as process( us ) does, but in the background, yielding each
+	 * node as it is discovered.
+	 *
+	 * @param capacity Nodes discovered but not yet consumed, beyond
+	 * which the walk waits for the consumer.
+	 */
+	public WalkStream stream( Iterable<URL> us, int capacity ) {
+		WalkStream result = new WalkStream( this, capacity );
+		result.start( us );
+		return result;
+	}
+
+	/**
+	 * @return A Parser configured as is our own, for use by other
+	 * threads.
+	 */
+	Parser newParser() throws Exception {
+		Parser result = new Parser( streaming );
+		result.setCache( cache );
+		result.setIndexing( p.isIndexing() );
+		return result;
+	}
+
+	/**
+	 * @param indexing If true, every SchemaInfo the walk produces has
+	 * its declarations indexed, see Parser.setIndexing.
+	 */
+	public void setIndexing( boolean indexing ) {
+		p.setIndexing( indexing );
+	}
+
+	/**
+	 * @param fetcher If non-null, remote dependencies are downloaded
+	 * by it, starting as soon as they are discovered, rather than when
+	 * the walk reaches them.  Each download is parsed as it arrives,
+	 * and its own remote dependencies prefetched in turn.
+	 */
+	public void setFetcher( Fetcher fetcher ) {
+		this.fetcher = fetcher;
+		if( fetcher == null )
+			return;
+		preparsed = new ConcurrentHashMap<SchemaLocation,SchemaInfo>();
+		final ThreadLocal<Parser> parsers = new ThreadLocal<Parser>();
+		fetcher.setListener( new Fetcher.Listener() {
+				public void fetched( SchemaLocation u, byte[] content ) {
+					try {
+						Parser fp = parsers.get();
+						if( fp == null ) {
+							fp = newParser();
+							parsers.set( fp );
+						}
+						long t0 = System.nanoTime();
+						long b0 = fp.bytesRead();
+						SchemaInfo si = parse( fp, u, content );
+						Metrics m = metrics;
+						if( m != null )
+							m.parsed( u, System.nanoTime() - t0,
+									  fp.bytesRead() - b0 );
+						preparsed.put( u, si );
+						for( ImportInfo ii : si.getDependencies() )
+							prefetch( locate( u, ii ) );
+					} catch( Exception e ) {
+						// the walk will parse it again, and say why
+					}
+				}
+			} );
+	}
+
+	/**
+	 * Have our fetcher, if any, start on u now, unless the snapshot will
+	 * spare us parsing it.
+	 */
+	void prefetch( SchemaLocation u ) {
+		if( fetcher == null || !u.isRemote() )
+			return;
+		if( snapshot != null && snapshot.reuses( u ) )
+			return;
+		fetcher.prefetch( u );
+	}
+
+	/**
+	 * @param threads Worker count for process().  1 (the default)
+	 * selects the sequential depth-first walk, anything larger a
+	 * ConcurrentWalk.  Both produce the same graph.
+	 */
+	public void setThreads( int threads ) {
+		if( threads < 1 )
+			throw new IllegalArgumentException( "Bad thread count: " +
+												threads );
+		this.threads = threads;
 	}
 	
 	/**
 	 * @return A graph of nodes created by adding all the nodes in
-	 * 'us' and by following the import paths of each node in 'us',
-	 * recursively.
+	 * 'us' and by following the import (and include, redefine,
+	 * override) paths of each node in 'us', recursively.
 	 */
-	public Collection<Node> process( Collection<URL> us ) throws Exception {
-		Map<String,Node> nodes = new HashMap<String,Node>();
-
-		for( URL u : us )
-			visit( u, nodes, null, null, "" );
-		return nodes.values();
+	public Collection<Node> process( Iterable<URL> us ) throws Exception {
+		Collection<Node> result;
+		if( threads > 1 ) {
+			ConcurrentWalk cw = new ConcurrentWalk( threads, this );
+			result = cw.walk( us ).values();
+		} else {
+			Map<SchemaLocation,Node> nodes =
+				new HashMap<SchemaLocation,Node>();
+			for( URL u : us )
+				walk( locate( u ), nodes );
+			result = nodes.values();
+		}
+		completed( result );
+		return result;
 	}
 
 	/**
@@ -337,75 +926,340 @@ public class XSDWalker {
 		return process( us );
 	}
 	
-	private void visit( URL u, Map<String,Node> result,
-						Node referrer, String referringNamespace,
-						String indent )	throws Exception {
+	/**
+	 * Depth-first walk of the dependency graph from u.  Iterative, on an
+	 * explicit stack of Frames, so import chains of any depth are fine.
+	 * Nodes, edges and log output are as a recursive descent, visiting
+	 * each import in turn, would produce them.
+	 */
+	private void walk( SchemaLocation u, Map<SchemaLocation,Node> result )
+		throws Exception {
 
-		if( result.containsKey( u.toString() ) )
-			return;
+		Deque<Frame> stack = new ArrayDeque<Frame>();
+		StringBuilder line = new StringBuilder();
+		Frame f = visit( u, result, null, null, 0, line );
+		if( f != null )
+			stack.push( f );
+		while( !stack.isEmpty() ) {
+			f = stack.peek();
+			List<ImportInfo> iis = f.info.getDependencies();
+			if( f.next == iis.size() ) {
+				stack.pop();
+				continue;
+			}
+			ImportInfo ii = iis.get( f.next );
+			info( line, f.depth, ii.kind.label + " ", ii );
+			
+			SchemaLocation u2 = f.targets[f.next++];
+
+			Node tgt = result.get( u2 );
+			if( tgt == null ) {
+				Frame child = visit( u2, result, f.node, ii,
+									 f.depth + 1, line );
+				if( child != null )
+					stack.push( child );
+			} else {
+				// build an outgoing edge if namespace linkage matches...
+				edge( f.node, tgt, ii );
+			}
+		}
+	}
 
-		log.info( indent + "Visiting " + u );
+	/**
+	 * Parse u and add its node to the graph.
+	 *
+	 * @return The frame from which to walk u's imports, or null if u
+	 * is already in the graph or will not parse.
+	 */
+	private Frame visit( SchemaLocation u, Map<SchemaLocation,Node> result,
+						 Node referrer, ImportInfo reference,
+						 int depth, StringBuilder line ) throws Exception {
+
+		if( result.containsKey( u ) )
+			return null;
+
+		info( line, depth, "Visiting ", u );
 		
 		SchemaInfo si = null;
 
 		try {
-			si = p.parse( u.toString() );
+			si = parse( p, u );
 		} catch( Exception e ) {
 			log.warn( "Parse failure: " + u );
-			return;
+			failed( u, e );
+			return null;
 		}
 		
-		log.info( indent + "TNS " + si.targetNamespace );
+		info( line, depth, "TNS ", si.targetNamespace );
 		Node n = new Node( u, si.targetNamespace );
-		result.put( u.toString(), n );
+		result.put( u, n );
+		discovered( n, si );
 
 		// build an incoming edge if namespace linkage matches...
-		if( referrer != null ) {
-			if( si.targetNamespace.equals( referringNamespace ) ) {
-				referrer.outs.add( n );
-				n.ins.add( referrer );
-			} else {
-				log.warn( "Namespace mismatch: actual " + si.targetNamespace+
-						  ", expected " + referringNamespace );
+		if( referrer != null )
+			edge( referrer, n, reference );
+
+		// locate all dependencies now, so remote ones download meanwhile
+		List<ImportInfo> iis = si.getDependencies();
+		SchemaLocation[] targets = new SchemaLocation[iis.size()];
+		for( int i = 0; i < targets.length; i++ ) {
+			targets[i] = locate( u, iis.get(i) );
+			if( !result.containsKey( targets[i] ) )
+				prefetch( targets[i] );
+		}
+		return new Frame( n, si, targets, depth );
+	}
+
+	/**
+	 * Add edge from -> to, provided that 'to' has the namespace that
+	 * 'from' imports it as.  For an include (redefine, override), 'to'
+	 * must be in from's own namespace, or in none at all (a chameleon
+	 * include, which adopts from's).  Either way 'to' is then marked as
+	 * a fragment.
+	 *
+	 * @return True if the edge was made.
+	 */
+	static boolean link( Node from, Node to, ImportInfo ii ) {
+		if( links( to, ii ) ) {
+			from.outs.add( to );
+			to.ins.add( from );
+			if( ii.kind.isInclusion() )
+				to.included = true;
+			return true;
+		}
+		log.warn( "Namespace mismatch: actual " + to.targetNamespace +
+				  ", expected " + ii.namespace );
+		return false;
+	}
+
+	/**
+	 * link, telling our listeners how it went.
+	 */
+	void edge( Node from, Node to, ImportInfo ii ) {
+		boolean linked = link( from, to, ii );
+		if( listeners.isEmpty() )
+			return;
+		synchronized( listeners ) {
+			for( WalkListener l : listeners ) {
+				if( linked )
+					l.edgeAdded( from, to, ii );
+				else
+					l.namespaceMismatch( from, to, ii );
 			}
 		}
-		
-		for( ImportInfo ii : si.getImports() ) {
-			log.info( indent + "Import " + ii );
-			
-			String s = ii.schemaLocation;
-			URL u2;
-			if( false ) {
-			} else if( s.startsWith( "http:" ) ) {
-				u2 = new URL( s );
-			} else if( s.startsWith( "file:" ) ) {
-				File f = new File( s );
-				if( !f.isAbsolute() ) {
-					File dir = new File( u.toURI() ).getParentFile();
-					f = new File( dir, s );
-				}
-				f = f.getCanonicalFile();
-				u2 = f.toURI().toURL();
-			} else {
-				// is relative, to u??
-				u2 = new URL( u, s );
+	}
+
+	/*
+	  The listener calls, made one at a time, whichever thread walks.
+	*/
+
+	void discovered( Node n, SchemaInfo si ) {
+		if( listeners.isEmpty() )
+			return;
+		synchronized( listeners ) {
+			for( WalkListener l : listeners )
+				l.nodeDiscovered( n, si );
+		}
+	}
+
+	void failed( SchemaLocation u, Exception e ) {
+		if( listeners.isEmpty() )
+			return;
+		synchronized( listeners ) {
+			for( WalkListener l : listeners )
+				l.parseFailed( u, e );
+		}
+	}
+
+	private void completed( Collection<Node> ns ) {
+		if( listeners.isEmpty() )
+			return;
+		synchronized( listeners ) {
+			for( WalkListener l : listeners )
+				l.walkCompleted( ns );
+		}
+	}
+
+	/**
+	 * @return True if ii, a dependency of some node, makes an edge to
+	 * 'to', see link.
+	 */
+	static boolean links( Node to, ImportInfo ii ) {
+		return to.targetNamespace.equals( ii.namespace ) ||
+			( ii.kind.isInclusion() && to.targetNamespace.length() == 0 );
+	}
+
+	/**
+	 * Log 'what' + o, indented by depth, building the message in the
+	 * caller's (reused) line buffer.
+	 */
+	static private void info( StringBuilder line, int depth, String what,
+							  Object o ) {
+		if( !log.isInfoEnabled() )
+			return;
+		line.setLength( 0 );
+		for( int i = 0; i < depth; i++ )
+			line.append( ' ' );
+		line.append( what ).append( o );
+		log.info( line.toString() );
+	}
+
+	/**
+	 * A node whose dependencies are being walked, the next being
+	 * dependencies[next], located at targets[next].
+	 */
+	static private class Frame {
+		Frame( Node node, SchemaInfo info, SchemaLocation[] targets,
+			   int depth ) {
+			this.node = node;
+			this.info = info;
+			this.targets = targets;
+			this.depth = depth;
+		}
+		final Node node;
+		final SchemaInfo info;
+		final SchemaLocation[] targets;
+		final int depth;
+		int next;
+	}
+
+	/**
+	 * Parse u with p, unless our snapshot says we need not.
+	 */
+	SchemaInfo parse( Parser p, SchemaLocation u ) throws Exception {
+		Metrics m = metrics;
+		if( m == null )
+			return lookupOrParse( p, u );
+		long t0 = System.nanoTime();
+		long b0 = p.bytesRead();
+		try {
+			return lookupOrParse( p, u );
+		} finally {
+			m.parsed( u, System.nanoTime() - t0, p.bytesRead() - b0 );
+		}
+	}
+
+	private SchemaInfo lookupOrParse( Parser p, SchemaLocation u )
+		throws Exception {
+		if( snapshot == null )
+			return fetchAndParse( p, u );
+		SchemaInfo result = snapshot.lookup( u );
+		if( result != null ) {
+			log.debug( "Unchanged " + u );
+			return result;
+		}
+		result = fetchAndParse( p, u );
+		snapshot.record( u, result );
+		return result;
+	}
+
+	/**
+	 * Remote u we take from our fetcher, already parsed if the download
+	 * is complete.  Otherwise p does the i/o, unless we have a parse
+	 * cache, when we read u's content to look it up.
+	 */
+	private SchemaInfo fetchAndParse( Parser p, SchemaLocation u )
+		throws Exception {
+		if( fetcher != null && u.isRemote() ) {
+			InputStream is = fetcher.open( u );
+			SchemaInfo result = preparsed.remove( u );
+			if( result != null )
+				return result;
+			if( parseCache == null )
+				return p.parse( is, u.toString() );
+			return parse( p, u, IOUtils.toByteArray( is ) );
+		}
+		if( parseCache == null )
+			return p.parse( u.toString() );
+		byte[] content;
+		File f = null;
+		if( u.toString().startsWith( "file:" ) )
+			f = Parser.asFile( u.toString() );
+		if( f != null ) {
+			content = LocalFiles.read( f );
+		} else if( u.isRemote() && cache != null ) {
+			content = cache.get( u.toURL() );
+		} else {
+			InputStream is = Archives.open( u.toString() );
+			if( is == null )
+				is = u.toURL().openStream();
+			try {
+				content = IOUtils.toByteArray( is );
+			} finally {
+				is.close();
 			}
+		}
+		return parse( p, u, content );
+	}
 
-			Node tgt = result.get( u2.toString() );
-			if( tgt == null ) {
-				visit( u2, result, n, ii.namespace, indent + " " );
-			} else {
-				// build an outgoing edge if namespace linkage matches...
-				if( tgt.targetNamespace.equals( ii.namespace ) ) {
-					n.outs.add( tgt );
-					tgt.ins.add( n );
-				} else {
-					log.warn( "Namespace mismatch: actual " +
-							  tgt.targetNamespace+
-							  ", expected " + ii.namespace );
-				}
+	/**
+	 * Parse 'content', found at u, unless our parse cache has seen the
+	 * same content before, anywhere.
+	 */
+	private SchemaInfo parse( Parser p, SchemaLocation u, byte[] content )
+		throws Exception {
+		if( parseCache == null )
+			return p.parse( new ByteArrayInputStream( content ),
+							u.toString() );
+		String digest = SchemaCache.sha1( content );
+		SchemaInfo result = parseCache.get( digest );
+		if( result != null ) {
+			log.debug( "Parsed before: " + u );
+			return result;
+		}
+		result = p.parse( new ByteArrayInputStream( content ), u.toString() );
+		parseCache.put( digest, result );
+		return result;
+	}
+
+	/**
+	 * @return Where to find the dependency ii of the document at
+	 * 'base': its schemaLocation resolved against base, then mapped by
+	 * our catalog, if any.  Imports may also be mapped by namespace.
+	 */
+	SchemaLocation locate( SchemaLocation base, ImportInfo ii )
+		throws Exception {
+		SchemaLocation result = resolve( base, ii.schemaLocation );
+		if( catalog == null )
+			return result;
+		return catalog.map( result, ii.kind.isInclusion() ? null :
+							ii.namespace );
+	}
+
+	/**
+	 * @return Where to find root document u, mapped by our catalog, if
+	 * any.
+	 */
+	SchemaLocation locate( URL u ) {
+		SchemaLocation result = SchemaLocation.of( u );
+		if( catalog == null )
+			return result;
+		return catalog.map( result, null );
+	}
+
+	/**
+	 * @return The location of an import's schemaLocation 's',
+	 * as found in the document at 'base'.
+	 */
+	static SchemaLocation resolve( SchemaLocation base, String s )
+		throws Exception {
+		URL result;
+		if( false ) {
+		} else if( s.startsWith( "http:" ) ) {
+			result = new URL( s );
+		} else if( s.startsWith( "file:" ) ) {
+			File f = new File( s );
+			if( !f.isAbsolute() ) {
+				File dir = new File( base.toURI() ).getParentFile();
+				f = new File( dir, s );
 			}
+			f = f.getCanonicalFile();
+			result = f.toURI().toURL();
+		} else {
+			// is relative, to base??
+			result = new URL( base.toURL(), s );
 		}
+		return SchemaLocation.of( result );
 	}
 
 	/**
@@ -427,53 +1281,59 @@ public class XSDWalker {
 	static Collection<Node> remoteNodes( Collection<Node> ns ) {
 		List<Node> result = new ArrayList<Node>();
 		for( Node n : ns ) {
-			if( n.location.getProtocol().startsWith( "http" ) )
+			if( n.location.isRemote() )
 				result.add( n );
 		}
 		return result;
 	}
 
+
+	/**
+	   <xs:import namespace="http://cybox.mitre.org/common-2"
+	   schemaLocation="http://cybox.mitre.org/XMLSchema/common/2.0/cybox_common.xsd"/>
+	*/
+	static String asImportList( SchemaGraph g, BitSet ids,
+								String xsdPrefix ) throws IOException {
+		StringWriter sw = new StringWriter();
+		PrintWriter pw = new PrintWriter( sw );
+		writeImportList( g, ids, xsdPrefix, pw );
+		pw.flush();
+		return sw.toString();
+	}
+
 	/**
-	 * For all leaf nodes L, discard L if its tns appears in a node in the
-	 * remote node set H.  Essentially L-H.
+	 * As asImportList, but straight to pw, in id (so location) order.
 	 */
-	static Collection<Node> pruneLeafNodes( Collection<Node> leaves,
-											Collection<Node> remotes ) {
-		List<Node> result = new ArrayList<Node>();
-		for( Node l : leaves ) {
-			if( l.location.toString().startsWith( "http:" ) ) {
-				result.add( l );
-				continue;
-			}
-			boolean inRemote = false;
-			for( Node r : remotes ) {
-				if( l.targetNamespace.equals( r.targetNamespace ) ) {
-					inRemote = true;
-					break;
-				}
-			}
-			if( !inRemote )
-				result.add( l );
+	static void writeImportList( SchemaGraph g, BitSet ids,
+								 String xsdPrefix, PrintWriter pw )
+		throws IOException {
+		try {
+			XMLStreamWriter xw = xmlWriter( pw );
+			writeImportList( g, importOrder( g, ids, false ), xsdPrefix, xw );
+			xw.close();
+		} catch( XMLStreamException xse ) {
+			throw new IOException( xse );
 		}
-		return result;
+		pw.flush();
 	}
 
-
 	/**
-	   <xs:import namespace="http://cybox.mitre.org/common-2"
-	   schemaLocation="http://cybox.mitre.org/XMLSchema/common/2.0/cybox_common.xsd"/>
-	*/
-	static String asImportList( Collection<Node> ns, String xsdPrefix ) {
+	 * One indented import element per line, for each of the given
+	 * nodes, in the order given.  Attribute values are escaped by xw,
+	 * so any namespace or location is fine.
+	 */
+	static void writeImportList( SchemaGraph g, int[] ids, String xsdPrefix,
+								 XMLStreamWriter xw )
+		throws XMLStreamException {
 		File cwd = new File( "." );
 		URI cwdu = cwd.toURI();
 		
-		StringWriter sw = new StringWriter();
-		PrintWriter pw = new PrintWriter( sw );
-		for( Node n : ns ) {
-			String schemaLocation = "" + n.location;
+		for( int i : ids ) {
+			SchemaLocation location = g.location( i );
+			String schemaLocation = "" + location;
 			URI uri = null;
 			try {
-				uri = n.location.toURI();
+				uri = location.toURI();
 			} catch( URISyntaxException never ) {
 			}
 			if( uri.getScheme().equals( "file" ) ) {
@@ -481,50 +1341,170 @@ public class XSDWalker {
 				schemaLocation = "" + rel;
 			}
 			
-			// LOOK: printing xml by hand, pah! Use what?  A DOM?
-			pw.println( "  <" + xsdPrefix +
-						":import" +
-						" namespace=\"" + n.targetNamespace + "\"" +
-						" schemaLocation=\"" + schemaLocation + "\"/>" );
+			xw.writeCharacters( "  " );
+			xw.writeEmptyElement( xsdPrefix, "import",
+								  XMLConstants.W3C_XML_SCHEMA_NS_URI );
+			// a no-namespace schema is imported with no namespace attribute
+			String tns = g.targetNamespace( i );
+			if( tns.length() > 0 )
+				xw.writeAttribute( "namespace", tns );
+			xw.writeAttribute( "schemaLocation", schemaLocation );
+			xw.writeCharacters( "\n" );
 		}
-		return sw.toString();
+	}
+
+	/**
+	 * @param byNamespace True for ids ordered by target namespace, then
+	 * location, else by location alone.  Both are independent of walk
+	 * order, so the same graph always gives the same order.
+	 */
+	static int[] importOrder( SchemaGraph g, BitSet ids,
+							  boolean byNamespace ) {
+		int[] result = new int[ids.cardinality()];
+		int k = 0;
+		if( !byNamespace ) {
+			for( int i = ids.nextSetBit( 0 ); i >= 0;
+				 i = ids.nextSetBit( i+1 ) )
+				result[k++] = i;
+			return result;
+		}
+		// namespace ids are in order of first use, so sort those...
+		final SchemaGraph fg = g;
+		Integer[] ts = new Integer[g.namespaceCount()];
+		for( int t = 0; t < ts.length; t++ )
+			ts[t] = t;
+		Arrays.sort( ts, new Comparator<Integer>() {
+				public int compare( Integer t1, Integer t2 ) {
+					return fg.namespace( t1 ).compareTo( fg.namespace( t2 ) );
+				}
+			} );
+		// ...each namespace's members being in id order already
+		for( int t : ts ) {
+			for( int m = 0; m < g.namespaceSize( t ); m++ ) {
+				int id = g.namespaceMember( t, m );
+				if( ids.get( id ) )
+					result[k++] = id;
+			}
+		}
+		return result;
 	}
 
 	static void toUberXSD( Collection<Node> ns,
 						   String xsdPrefix, File outFile )
 		throws IOException {
-		List<Node> leaves = leafNodes( ns );
-		Collections.sort( leaves );
-		log.info( "Leaves : " + leaves.size() );
-		
-		Collection<Node> remotes = remoteNodes( ns );
-		log.info( "Remotes : " + remotes.size() );
-		Collection<Node> prunedLeaves = pruneLeafNodes( leaves, remotes );
-		log.info( "PrunedLeaves : " + prunedLeaves.size() );
+		toUberXSD( SchemaGraph.build( ns ), xsdPrefix, outFile );
+	}
+	
+	/**
+	 * The uber xsd, its targetNamespace its file name, imports in
+	 * location order.
+	 */
+	static void toUberXSD( SchemaGraph g,
+						   String xsdPrefix, File outFile )
+		throws IOException {
+		toUberXSD( g, xsdPrefix, outFile, outFile.getName(), false );
+	}
 
-		String imports = asImportList( prunedLeaves, xsdPrefix );
+	/**
+	 * Stream the uber xsd, a schema of just imports, one per pruned leaf
+	 * of g, to outFile, as UTF-8.  Memory use is independent of the
+	 * number of imports.
+	 *
+	 * @param targetNamespace The uber's own targetNamespace.
+	 * @param byNamespace Import order, see importOrder.
+	 */
+	static void toUberXSD( SchemaGraph g, String xsdPrefix, File outFile,
+						   String targetNamespace, boolean byNamespace )
+		throws IOException {
+		toUberXSD( g, xsdPrefix, outFile, targetNamespace, byNamespace,
+				   g.prunedLeaves() );
+	}
 
-		/*
-		  <xs:schema xmlns:xs="http://www.w3.org/2001/XMLSchema"
-		  targetNamespace="http://uber.org" 
-		  elementFormDefault="qualified" 
-		  attributeFormDefault="unqualified" 
-		  version="2.0">
-		*/
-		// LOOK: printing xml by hand, pah! Use what?  A DOM?
-		String root = "<" + xsdPrefix + ":schema " +
-			" xmlns:" + xsdPrefix + "=\"http://www.w3.org/2001/XMLSchema\"" +
-			" targetNamespace=\"" + outFile.getName() + "\"" +
-			" elementFormDefault=\"qualified\"" +
-			" attributeFormDefault=\"unqualified\"" + 
-			" version=\"2.0\">";
-		PrintWriter pw = new PrintWriter( new FileWriter( outFile ) );
-		pw.println( root );
-		pw.println( imports );
-		pw.println( "</" + xsdPrefix + ":schema>" );
-		pw.close();
+	/**
+	 * @param imports Ids of the schemas to import, in place of the
+	 * pruned leaves, e.g. as shaken by a TreeShaker.
+	 */
+	static void toUberXSD( SchemaGraph g, String xsdPrefix, File outFile,
+						   String targetNamespace, boolean byNamespace,
+						   BitSet imports )
+		throws IOException {
+		log.info( "Leaves : " + g.leaves().cardinality() );
+		log.info( "Remotes : " + g.remotes().cardinality() );
+		log.info( "PrunedLeaves : " + g.prunedLeaves().cardinality() );
+		log.info( "Cycles : " + g.cyclic().cardinality() );
+
+		OutputStream os = new BufferedOutputStream
+			( new FileOutputStream( outFile ), BUFFER );
+		try {
+			XMLStreamWriter xw = xmlWriter( os );
+			xw.writeStartDocument( "UTF-8", "1.0" );
+			xw.writeCharacters( "\n" );
+			xw.writeStartElement( xsdPrefix, "schema",
+								  XMLConstants.W3C_XML_SCHEMA_NS_URI );
+			xw.writeNamespace( xsdPrefix, XMLConstants.W3C_XML_SCHEMA_NS_URI );
+			xw.writeAttribute( "targetNamespace", targetNamespace );
+			xw.writeAttribute( "elementFormDefault", "qualified" );
+			xw.writeAttribute( "attributeFormDefault", "unqualified" );
+			xw.writeAttribute( "version", "2.0" );
+			xw.writeCharacters( "\n" );
+			writeImportList( g, importOrder( g, imports, byNamespace ),
+							 xsdPrefix, xw );
+			xw.writeEndElement();
+			xw.writeCharacters( "\n" );
+			xw.writeEndDocument();
+			xw.close();
+		} catch( XMLStreamException xse ) {
+			throw new IOException( "Writing " + outFile, xse );
+		} finally {
+			os.close();
+		}
+	}
+
+	static private synchronized XMLOutputFactory outputFactory() {
+		if( outputFactory == null )
+			outputFactory = XMLOutputFactory.newInstance();
+		return outputFactory;
+	}
+
+	static XMLStreamWriter xmlWriter( OutputStream os )
+		throws XMLStreamException {
+		XMLOutputFactory xof = outputFactory();
+		synchronized( xof ) {
+			return xof.createXMLStreamWriter( os, "UTF-8" );
+		}
+	}
+
+	static XMLStreamWriter xmlWriter( Writer w ) throws XMLStreamException {
+		XMLOutputFactory xof = outputFactory();
+		synchronized( xof ) {
+			return xof.createXMLStreamWriter( w );
+		}
+	}
 
+	static private XMLOutputFactory outputFactory;
+
+	/**
+	 * All our output files are written through one of these: buffered,
+	 * so a large report costs few system calls, and never built up in
+	 * memory first.
+	 */
+	static PrintWriter writer( File f, boolean append ) throws IOException {
+		return new PrintWriter( new BufferedWriter
+								( new FileWriter( f, append ), BUFFER ) );
+	}
+
+	/**
+	 * Close pw, surfacing any write error, which PrintWriter would
+	 * otherwise swallow.
+	 */
+	static void close( PrintWriter pw, File f ) throws IOException {
+		pw.close();
+		if( pw.checkError() )
+			throw new IOException( "Write failed: " + f );
 	}
+
+	// output buffer, in chars
+	static private final int BUFFER = 64 * 1024;
 	
 	static List<String> leafNodeLocations( Collection<Node> ns ) {
 		List<String> result = new ArrayList<String>();
@@ -541,63 +1521,227 @@ public class XSDWalker {
 		throws IOException {
 		List<Node> leaves = leafNodes( ns );
 		Collections.sort( leaves );
-		PrintWriter pw = new PrintWriter( new FileWriter( output, true ) );
+		PrintWriter pw = writer( output, true );
 		for( XSDWalker.Node n : leaves ) {
-			String s = n.hierarchy();
-			pw.println( s );
+			n.hierarchy( pw, "", new HashSet<Node>() );
+			pw.println();
 		}
-		pw.close();
+		close( pw, output );
 	}
 		
 	static void report( Collection<Node> ns, File output )
 		throws IOException {
+		report( SchemaGraph.build( ns ), output );
+	}
+	
+	static void report( SchemaGraph g, File output )
+		throws IOException {
+		report( g, output, false );
+	}
+
+	/**
+	 * @param dag True to print the hierarchy as a DAG, see hierarchy.
+	 */
+	static void report( SchemaGraph g, File output, boolean dag )
+		throws IOException {
 		
-		PrintWriter pw = new PrintWriter( new FileWriter( output, true ) );
-		pw.println( "Nodes: " + ns.size() );
-		List<Node> sorted = new ArrayList<Node>( ns );
-		Collections.sort( sorted );
-		for( Node n : sorted ) {
-			pw.println( n.location );
+		PrintWriter pw = writer( output, true );
+		pw.println( "Nodes: " + g.size() );
+		for( int i = 0; i < g.size(); i++ ) {
+			pw.println( g.location( i ) );
 		}
 		pw.println();
-		List<Node> leaves = leafNodes( ns );
-		Collections.sort( leaves );
-		pw.println( "Leaves: " + leaves.size() );
-		for( Node n : leaves ) {
-			pw.println( n.location );
+		BitSet leaves = g.leaves();
+		pw.println( "Leaves: " + leaves.cardinality() );
+		for( int i = leaves.nextSetBit( 0 ); i >= 0;
+			 i = leaves.nextSetBit( i+1 ) ) {
+			pw.println( g.location( i ) );
 		}
 		pw.println();
-		pw.println( "Hierarchy: " );
-		for( XSDWalker.Node n : leaves ) {
-			String s = n.hierarchy();
-			pw.println( s );
+		BitSet cyclic = g.cyclic();
+		pw.println( "Import Cycles: " + cyclic.cardinality() );
+		for( int c = cyclic.nextSetBit( 0 ); c >= 0;
+			 c = cyclic.nextSetBit( c+1 ) ) {
+			pw.println( "Component " + c + ": " + g.componentSize( c ) );
+			for( int k = 0; k < g.componentSize( c ); k++ ) {
+				pw.print( ' ' );
+				pw.println( g.location( g.componentMember( c, k ) ) );
+			}
+		}
+		pw.println();
+		pw.println( "Topological Order: " + g.componentCount() +
+					" components" );
+		for( int c = 0; c < g.componentCount(); c++ ) {
+			for( int k = 0; k < g.componentSize( c ); k++ ) {
+				pw.print( c );
+				pw.print( cyclic.get( c ) ? "* " : " " );
+				pw.println( g.location( g.componentMember( c, k ) ) );
+			}
+		}
+		pw.println();
+		pw.println( dag ? "Hierarchy (DAG, ^ marks a subtree shown above): " :
+					"Hierarchy: " );
+		/*
+		  From each source, so an import cycle nothing outside imports
+		  is shown too.  As a DAG, what one source's hierarchy shows, no
+		  later one repeats
+		*/
+		BitSet sources = g.sources();
+		BitSet shown = dag ? new BitSet( g.size() ) : null;
+		for( int i = sources.nextSetBit( 0 ); i >= 0;
+			 i = sources.nextSetBit( i+1 ) ) {
+			if( dag )
+				hierarchy( g, i, pw, shown, true );
+			else
+				hierarchy( g, i, pw, new BitSet( g.size() ) );
+			pw.println();
 		}
 
-		Collection<Node> remotes = remoteNodes( ns );
-		Collection<Node> prunedLeaves = pruneLeafNodes( leaves, remotes );
+		BitSet prunedLeaves = g.prunedLeaves();
 		pw.println();
-		pw.println( "Unique Leaves: " + prunedLeaves.size() );
-		for( XSDWalker.Node n : prunedLeaves ) {
-			pw.println( n.location );
+		pw.println( "Unique Leaves: " + prunedLeaves.cardinality() );
+		for( int i = prunedLeaves.nextSetBit( 0 ); i >= 0;
+			 i = prunedLeaves.nextSetBit( i+1 ) ) {
+			pw.println( g.location( i ) );
 		}
 		
 		pw.println();
 		pw.println( "As Import List" );
-		String s = asImportList( prunedLeaves, "xs" );
-		pw.println( s );
+		writeImportList( g, prunedLeaves, "xs", pw );
+		pw.println();
+
+		BitSet collisions = g.namespaceCollisions();
+		pw.println( "Namespace Collisions: " + collisions.cardinality() );
+		for( int t = collisions.nextSetBit( 0 ); t >= 0;
+			 t = collisions.nextSetBit( t+1 ) ) {
+			pw.println( g.namespace( t ) );
+			for( int k = 0; k < g.namespaceSize( t ); k++ ) {
+				int id = g.namespaceMember( t, k );
+				if( !g.fragments().get( id ) ) {
+					pw.print( ' ' );
+					pw.println( g.location( id ) );
+				}
+			}
+		}
 		
-		pw.close();
+		close( pw, output );
+	}
+
+	/**
+	 * As Node.hierarchy, but over the SchemaGraph.  The stack is a pair
+	 * of int arrays, (node, next out edge), so any depth is fine.
+	 */
+	static void hierarchy( SchemaGraph g, int id, PrintWriter pw,
+						   BitSet visited ) {
+		hierarchy( g, id, pw, visited, false );
+	}
+
+	/**
+	 * @param refs True to print a node already in visited, as reached
+	 * again, as a one-line ^location reference, rather than skip it.
+	 * With visited shared across calls, every edge is then printed just
+	 * once, as either a subtree or a reference: the hierarchy as a DAG.
+	 */
+	static void hierarchy( SchemaGraph g, int id, PrintWriter pw,
+						   BitSet visited, boolean refs ) {
+		if( visited.get( id ) )
+			return;
+		visited.set( id );
+		pw.println( g.location( id ) );
+		int[] ids = new int[16];
+		int[] next = new int[16];
+		int top = 0;
+		ids[0] = id;
+		while( top >= 0 ) {
+			int n = ids[top];
+			if( next[top] == g.outDegree( n ) ) {
+				top--;
+				continue;
+			}
+			int tgt = g.out( n, next[top]++ );
+			if( visited.get( tgt ) ) {
+				if( refs ) {
+					indent( pw, top + 1 );
+					pw.print( '^' );
+					pw.println( g.location( tgt ) );
+				}
+				continue;
+			}
+			visited.set( tgt );
+			indent( pw, top + 1 );
+			pw.println( g.location( tgt ) );
+			if( ++top == ids.length ) {
+				ids = Arrays.copyOf( ids, top * 2 );
+				next = Arrays.copyOf( next, top * 2 );
+			}
+			ids[top] = tgt;
+			next[top] = 0;
+		}
+	}
+
+	/**
+	 * Write n spaces, with no per-call String.
+	 */
+	static void indent( PrintWriter pw, int n ) {
+		while( n > 0 ) {
+			int k = Math.min( n, SPACES.length );
+			pw.write( SPACES, 0, k );
+			n -= k;
+		}
+	}
+
+	static private final char[] SPACES = new char[128];
+	static {
+		Arrays.fill( SPACES, ' ' );
+	}
+
+	/**
+	 * Graph file: one 'N,location,tns' line per node, then one
+	 * 'E,from,to' line per edge, then one 'C,component,location' line
+	 * per node, in topological order, see SchemaGraph.component.
+	 */
+	static void writeGraph( SchemaGraph g, File output ) throws IOException {
+		PrintWriter pw = writer( output, false );
+		for( int i = 0; i < g.size(); i++ ) {
+			pw.print( "N," );
+			pw.print( g.location( i ) );
+			pw.print( ',' );
+			pw.println( g.targetNamespace( i ) );
+		}
+		for( int i = 0; i < g.size(); i++ ) {
+			for( int k = 0; k < g.outDegree( i ); k++ ) {
+				pw.print( "E," );
+				pw.print( g.location( i ) );
+				pw.print( ',' );
+				pw.println( g.location( g.out( i, k ) ) );
+			}
+		}
+		for( int c = 0; c < g.componentCount(); c++ ) {
+			for( int k = 0; k < g.componentSize( c ); k++ ) {
+				pw.print( "C," );
+				pw.print( c );
+				pw.print( ',' );
+				pw.println( g.location( g.componentMember( c, k ) ) );
+			}
+		}
+		close( pw, output );
 	}
 		
-	private boolean haveTargetNamespace( Collection<Node> ns, String tns ) {
-		for( Node n : ns )
-			/*
-			  node tns can be null so make tns the argument to
-			  String.equals and NOT the target
-			*/
-			if( tns.equals( n.targetNamespace ) )
-				return true;
-		return false;
+	/**
+	 * Log each target namespace found at 2+ locations, fragments aside,
+	 * as listed in the report.
+	 */
+	static void logCollisions( SchemaGraph g ) {
+		BitSet collisions = g.namespaceCollisions();
+		for( int t = collisions.nextSetBit( 0 ); t >= 0;
+			 t = collisions.nextSetBit( t+1 ) ) {
+			for( int k = 0; k < g.namespaceSize( t ); k++ ) {
+				int id = g.namespaceMember( t, k );
+				if( !g.fragments().get( id ) )
+					log.info( "Namespace collision: " + g.namespace( t ) +
+							  " at " + g.location( id ) );
+			}
+		}
 	}
 
 	/*
@@ -612,7 +1756,7 @@ public class XSDWalker {
 	*/
 	
 	static class Node implements Comparable<Node> {
-		Node( URL location, String tns ) {
+		Node( SchemaLocation location, String tns ) {
 			this.location = location;
 			this.targetNamespace = tns;
 			imports = new ArrayList<ImportInfo>();
@@ -641,27 +1785,35 @@ public class XSDWalker {
 
 		@Override
 		public int compareTo( Node o ) {
-			URL u1 = this.location;
-			URL u2 = o.location;
-			return u1.toString().compareTo( u2.toString() );
+			return this.location.compareTo( o.location );
 		}
 		
-		public String hierarchy() {
-			StringWriter sw = new StringWriter();
-			PrintWriter pw = new PrintWriter( sw );
-			Set<Node> visited = new HashSet<Node>();
-			hierarchy( pw, "", visited );
-			return sw.toString();
-		}
-
+		/**
+		 * Print this node, then, depth-first and indented one space per
+		 * level, all nodes reachable from it not already in 'visited'.
+		 * Iterative, so any depth is fine.
+		 */
 		public void hierarchy( PrintWriter pw, String indent,
 							   Set<Node> visited ) {
-			if( visited.contains( this ) )
+			if( !visited.add( this ) )
 				return;
-			visited.add( this );
-			pw.println( indent + location );
-			for( Node tgt : outs ) {
-				tgt.hierarchy( pw, indent + " ", visited );
+			pw.print( indent );
+			pw.println( location );
+			Deque<Iterator<Node>> stack = new ArrayDeque<Iterator<Node>>();
+			stack.push( outs.iterator() );
+			while( !stack.isEmpty() ) {
+				Iterator<Node> it = stack.peek();
+				if( !it.hasNext() ) {
+					stack.pop();
+					continue;
+				}
+				Node tgt = it.next();
+				if( !visited.add( tgt ) )
+					continue;
+				pw.print( indent );
+				indent( pw, stack.size() );
+				pw.println( tgt.location );
+				stack.push( tgt.outs.iterator() );
 			}
 		}
 		
@@ -671,11 +1823,17 @@ public class XSDWalker {
 				ins.size() + "," + outs.size();
 		}
 		
-		final URL location;
+		final SchemaLocation location;
 		final String targetNamespace;
 		final List<ImportInfo> imports;
 		final List<Node> ins, outs;
 		//		String targetNamespace;
+
+		/*
+		  Target of some include, redefine or override, so a piece of
+		  another schema's namespace, not a schema in its own right.
+		*/
+		boolean included;
 	}
 
 	static class Edge {
@@ -688,7 +1846,76 @@ public class XSDWalker {
 		final String namespace;
 	}
 
+	/**
+	 * The walk's roots: urls, then files, then the files found by a
+	 * DirectoryScanner, as it finds them.  Single use.
+	 */
+	static private class Inputs implements Iterable<URL> {
+		Inputs( List<URL> urls, List<File> files, Iterator<File> found,
+				boolean verbose ) {
+			this.urls = urls.iterator();
+			this.files = files.iterator();
+			this.found = found;
+			this.verbose = verbose;
+		}
+
+		public Iterator<URL> iterator() {
+			return new Iterator<URL>() {
+				public boolean hasNext() {
+					return urls.hasNext() || files.hasNext() ||
+						found.hasNext();
+				}
+				public URL next() {
+					URL result;
+					try {
+						if( urls.hasNext() )
+							result = urls.next();
+						else if( files.hasNext() )
+							result = files.next().toURI().toURL();
+						else
+							result = found.next().toURI().toURL();
+					} catch( MalformedURLException mue ) {
+						// File.toURI always gives a valid file: url
+						throw new IllegalStateException( mue );
+					}
+					count++;
+					if( verbose )
+						log.info( result );
+					return result;
+				}
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		private final Iterator<URL> urls;
+		private final Iterator<File> files, found;
+		private final boolean verbose;
+		int count;
+	}
+
+	// downloads in flight, over all hosts
+	static private final int FETCH_THREADS = 16;
+
+	// directories listed at once, when scanning input dirs
+	static private final int SCAN_THREADS = 8;
+
+	// bounds on the parse cache, -m/-M
+	static final int MEMO_ENTRIES = 100000;
+	static final long MEMO_BYTES = 256L * 1024 * 1024;
+
+	private final boolean streaming;
 	private final Parser p;
+	private int threads;
+	private SchemaCache cache;
+	private Catalog catalog;
+	private Fetcher fetcher;
+	private ConcurrentMap<SchemaLocation,SchemaInfo> preparsed;
+	private ParseCache parseCache;
+	private GraphSnapshot snapshot;
+	private volatile Metrics metrics;
+	private final List<WalkListener> listeners;
 	//	private final Logger log;
 }
 
@@ -0,0 +1,154 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.net.URL;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Schema bundles read straight from a zip: entries as jar: urls,
+ * relative imports resolved inside the archive, excludes applied to
+ * entry paths, an archive changing between runs noticed, and no
+ * archive left open once runs are done.
+ */
+public class ArchivesTest extends junit.framework.TestCase {
+
+	protected void setUp() throws Exception {
+		dir = File.createTempFile( "archive", "" );
+		dir.delete();
+		dir.mkdirs();
+		zip = new File( dir, "bundle.zip" );
+		write( "" );
+	}
+
+	protected void tearDown() throws Exception {
+		Archives.release();
+		FileUtils.deleteDirectory( dir );
+	}
+
+	public void testList() throws Exception {
+		List<URL> us = new DirectoryScanner( 1 ).listArchive( zip );
+		assertEquals( 4, us.size() );
+		assertEquals( "jar:" + zip.toURI() + "!/bundle/common/common.xsd",
+					  us.get( 0 ).toString() );
+		// spaces encoded, so each a valid uri
+		assertTrue( us.get( 2 ).toString().endsWith
+					( "!/bundle/ext%20pack/ext.xsd" ) );
+
+		DirectoryScanner ds = new DirectoryScanner( 1 );
+		ds.exclude( "glob:ext pack" );
+		ds.exclude( "glob:**/old/*.xsd" );
+		us = ds.listArchive( zip );
+		assertEquals( 2, us.size() );
+		assertTrue( us.get( 1 ).toString().endsWith( "!/bundle/core.xsd" ) );
+	}
+
+	public void testWalk() throws Exception {
+		XSDWalker w = new XSDWalker();
+		SchemaGraph g = SchemaGraph.build
+			( w.process( new DirectoryScanner( 1 ).listArchive( zip ) ) );
+		// the ../ import resolved in the archive, no new node
+		assertEquals( 4, g.size() );
+		assertEquals( 4, g.edgeCount() );
+		// common, core, ext pack, old
+		assertEquals( "{1, 3}", g.leaves().toString() );
+		int common = g.id( SchemaLocation.of
+						   ( "jar:" + zip.toURI() +
+							 "!/bundle/common/common.xsd" ) );
+		assertEquals( 3, g.inDegree( common ) );
+		assertEquals( "urn:common", g.targetNamespace( common ) );
+	}
+
+	public void testRun() throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream( bos );
+		PrintStream err = new PrintStream( new ByteArrayOutputStream() );
+		String[] args = { "-i", "bundle.zip" };
+		assertEquals( 0, XSDWalker.run( args, dir, out, err, null ) );
+		String s = FileUtils.readFileToString
+			( new File( dir, "bundle.uber.xsd" ) );
+		assertTrue( s, s.contains( "!/bundle/core.xsd" ) );
+		assertTrue( bos.toString().contains( "Nodes: 4" ) );
+
+		// unchanged, so all reused
+		bos.reset();
+		assertEquals( 0, XSDWalker.run( args, dir, out, err, null ) );
+		assertTrue( bos.toString(), bos.toString().contains( "Reused: 4" ) );
+
+		// one entry edited, so just that re-read
+		zip.delete();
+		write( "<xs:element name='c' type='xs:string'/>" );
+		zip.setLastModified( zip.lastModified() + 2000 );
+		bos.reset();
+		assertEquals( 0, XSDWalker.run( args, dir, out, err, null ) );
+		assertTrue( bos.toString(), bos.toString().contains( "Reused: 3" ) );
+		assertEquals( 0, Archives.handles() );
+
+		ByteArrayOutputStream ebos = new ByteArrayOutputStream();
+		assertEquals( 1, XSDWalker.run
+					  ( new String[] { "--watch", zip.getPath() }, null, out,
+						new PrintStream( ebos ), null ) );
+		assertTrue( ebos.toString(),
+					ebos.toString().contains( "Archive inputs cannot" ) );
+	}
+
+	/*
+	  An archive replaced while in use is reopened, the old handle
+	  closed only when the last user is done.
+	*/
+	public void testReplaced() throws Exception {
+		Archives.acquire();
+		Archives.acquire();
+		assertEquals( 5, Archives.entries( zip ).size() );
+		zip.delete();
+		write( "<xs:element name='c' type='xs:string'/>" );
+		zip.setLastModified( zip.lastModified() + 2000 );
+		assertEquals( 5, Archives.entries( zip ).size() );
+		assertEquals( 2, Archives.handles() );
+		Archives.release();
+		assertEquals( 2, Archives.handles() );
+		Archives.release();
+		assertEquals( 0, Archives.handles() );
+	}
+
+	/*
+	  core imports common, and ext, which imports ../common; old is a
+	  stale copy.
+	*/
+	private void write( String commonBody ) throws Exception {
+		ZipOutputStream zos = new ZipOutputStream
+			( new FileOutputStream( zip ) );
+		entry( zos, "bundle/core.xsd", "urn:core",
+			   "<xs:import namespace='urn:common'" +
+			   " schemaLocation='common/common.xsd'/>" +
+			   "<xs:import namespace='urn:ext'" +
+			   " schemaLocation='ext%20pack/ext.xsd'/>" );
+		entry( zos, "bundle/common/common.xsd", "urn:common", commonBody );
+		entry( zos, "bundle/ext pack/ext.xsd", "urn:ext",
+			   "<xs:import namespace='urn:common'" +
+			   " schemaLocation='../common/common.xsd'/>" );
+		entry( zos, "bundle/old/old.xsd", "urn:old",
+			   "<xs:import namespace='urn:common'" +
+			   " schemaLocation='../common/common.xsd'/>" );
+		zos.putNextEntry( new ZipEntry( "bundle/README" ) );
+		zos.closeEntry();
+		zos.close();
+	}
+
+	private void entry( ZipOutputStream zos, String name, String tns,
+						String body ) throws Exception {
+		zos.putNextEntry( new ZipEntry( name ) );
+		zos.write( ( "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'" +
+					 " targetNamespace='" + tns + "'>" + body +
+					 "</xs:schema>" ).getBytes( "UTF-8" ) );
+		zos.closeEntry();
+	}
+
+	private File dir, zip;
+}
+
+// eof
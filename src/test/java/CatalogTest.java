@@ -0,0 +1,115 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Catalog entry matching, and a walk whose remote imports are all
+ * served from local copies via a catalog, so with no fetching at all
+ * (the remote host does not exist).
+ */
+public class CatalogTest extends junit.framework.TestCase {
+
+	protected void setUp() throws Exception {
+		dir = File.createTempFile( "catalog", "" );
+		dir.delete();
+		dir.mkdirs();
+		File vendor = new File( dir, "vendor" );
+		vendor.mkdirs();
+		schema( new File( dir, "main.xsd" ), "urn:main",
+				"<xs:import namespace='urn:a'" +
+				" schemaLocation='http://schemas.invalid/a/1.0/a.xsd'/>" +
+				"<xs:import namespace='urn:b'" +
+				" schemaLocation='http://schemas.invalid/b.xsd'/>" +
+				"<xs:import namespace='urn:c'" +
+				" schemaLocation='http://elsewhere.invalid/c.xsd'/>" );
+		schema( new File( vendor, "a/1.0/a.xsd" ), "urn:a",
+				"<xs:include schemaLocation='a2.xsd'/>" );
+		schema( new File( vendor, "a/1.0/a2.xsd" ), "urn:a", "" );
+		schema( new File( vendor, "b-local.xsd" ), "urn:b", "" );
+		schema( new File( vendor, "c-by-ns.xsd" ), "urn:c", "" );
+
+		write( new File( dir, "catalog.xml" ),
+			   "<catalog xmlns='" + NS + "'>" +
+			   " <rewriteURI uriStartString='http://schemas.invalid/'" +
+			   "  rewritePrefix='vendor/'/>" +
+			   " <nextCatalog catalog='more/next.xml'/>" +
+			   "</catalog>" );
+		write( new File( dir, "more/next.xml" ),
+			   "<catalog xmlns='" + NS + "'>" +
+			   " <group xml:base='../vendor/'>" +
+			   "  <system systemId='http://schemas.invalid/b.xsd'" +
+			   "   uri='b-local.xsd'/>" +
+			   "  <uri name='urn:c' uri='c-by-ns.xsd'/>" +
+			   " </group>" +
+			   "</catalog>" );
+	}
+
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory( dir );
+	}
+
+	public void testEntries() throws Exception {
+		Catalog c = new Catalog();
+		c.add( new File( dir, "catalog.xml" ) );
+		String vendor = new File( dir, "vendor" ).toURI().toString();
+		// first catalog's prefix beats next catalog's exact entry
+		assertEquals( vendor + "b.xsd",
+					  c.resolve( "http://schemas.invalid/b.xsd" ) );
+		assertEquals( vendor + "a/1.0/a.xsd",
+					  c.resolve( "http://schemas.invalid/a/1.0/a.xsd" ) );
+		assertNull( c.resolve( "http://elsewhere.invalid/c.xsd" ) );
+
+		SchemaLocation u = SchemaLocation.of( "http://elsewhere.invalid/x" );
+		assertSame( u, c.map( u, null ) );
+		assertEquals( vendor + "c-by-ns.xsd", c.map( u, "urn:c" ).toString() );
+	}
+
+	public void testWalkOffline() throws Exception {
+		Catalog c = new Catalog();
+		// exact system entry first, then the rewrite for the rest
+		c.add( new File( dir, "more/next.xml" ) );
+		c.add( new File( dir, "catalog.xml" ) );
+		XSDWalker w = new XSDWalker();
+		w.setCatalog( c );
+		List<File> roots = new ArrayList<File>();
+		roots.add( new File( dir, "main.xsd" ) );
+		SchemaGraph g = SchemaGraph.build( w.processFiles( roots ) );
+		assertEquals( 5, g.size() );
+		assertEquals( 0, g.remotes().cardinality() );
+		int main = -1;
+		for( int i = 0; i < g.size(); i++ ) {
+			String s = g.location( i ).toString();
+			assertTrue( s, s.startsWith( "file:" ) );
+			if( s.endsWith( "main.xsd" ) )
+				main = i;
+		}
+		assertEquals( 3, g.outDegree( main ) );
+		assertTrue( g.location( g.out( main, 1 ) ).toString().
+					endsWith( "vendor/b-local.xsd" ) );
+		assertTrue( g.location( g.out( main, 2 ) ).toString().
+					endsWith( "vendor/c-by-ns.xsd" ) );
+	}
+
+	private void schema( File f, String tns, String body ) throws Exception {
+		write( f, "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'" +
+			   " targetNamespace='" + tns + "'>" + body + "</xs:schema>" );
+	}
+
+	private void write( File f, String content ) throws Exception {
+		f.getParentFile().mkdirs();
+		PrintWriter pw = new PrintWriter( new FileWriter( f ) );
+		pw.println( content );
+		pw.close();
+	}
+
+	private File dir;
+
+	static private final String NS =
+		"urn:oasis:names:tc:entity:xmlns:xml:catalog";
+}
+
+// eof
@@ -0,0 +1,113 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.*;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * The concurrent walk must produce the same graph, and so the same
+ * report and uber xsd, as the sequential one.
+ */
+public class ConcurrentWalkTest extends junit.framework.TestCase {
+
+	protected void setUp() throws Exception {
+		dir = File.createTempFile( "walk", "" );
+		dir.delete();
+		dir.mkdirs();
+		// a layered graph, each schema importing some of the next layer
+		int layers = 6, width = 8;
+		for( int l = 0; l < layers; l++ ) {
+			for( int w = 0; w < width; w++ ) {
+				PrintWriter pw = new PrintWriter
+					( new FileWriter( new File( dir, name( l, w ) ) ) );
+				pw.println( "<xs:schema xmlns:xs=" +
+							"'http://www.w3.org/2001/XMLSchema'" +
+							" targetNamespace='urn:" + name( l, w ) + "'>" );
+				if( l < layers - 1 ) {
+					for( int k = 0; k < 3; k++ ) {
+						String tgt = name( l+1, (w + k*k) % width );
+						pw.println( "<xs:import namespace='urn:" + tgt +
+									"' schemaLocation='" + tgt + "'/>" );
+					}
+					// namespace mismatch, no edge
+					String tgt = name( l+1, (w+1) % width );
+					pw.println( "<xs:import namespace='urn:bogus'" +
+								" schemaLocation='" + tgt + "'/>" );
+				}
+				// parse failure, no node
+				pw.println( "<xs:import namespace='urn:missing'" +
+							" schemaLocation='missing.xsd'/>" );
+				pw.println( "</xs:schema>" );
+				pw.close();
+			}
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory( dir );
+	}
+
+	public void testSameGraph() throws Exception {
+		// only some of the files are roots, the rest are reached by import
+		List<File> roots = new ArrayList<File>();
+		for( int w = 0; w < 8; w += 3 )
+			roots.add( new File( dir, name( 0, w ) ) );
+		roots.add( new File( dir, name( 3, 5 ) ) );
+
+		XSDWalker w1 = new XSDWalker();
+		Collection<XSDWalker.Node> seq = w1.processFiles( roots );
+		XSDWalker w4 = new XSDWalker();
+		w4.setThreads( 4 );
+		Collection<XSDWalker.Node> par = w4.processFiles( roots );
+
+		assertEquals( describe( seq ), describe( par ) );
+		SchemaGraph g1 = SchemaGraph.build( seq );
+		SchemaGraph g4 = SchemaGraph.build( par );
+		assertTrue( g1.namespaceId( "urn:" + name( 5, 0 ) ) >= 0 );
+		assertTrue( g4.namespaceId( "urn:" + name( 5, 0 ) ) >= 0 );
+		assertEquals( -1, g4.namespaceId( "urn:bogus" ) );
+
+		File r1 = new File( dir, "seq.txt" );
+		File r4 = new File( dir, "par.txt" );
+		XSDWalker.report( seq, r1 );
+		XSDWalker.report( par, r4 );
+		assertEquals( FileUtils.readFileToString( r1 ),
+					  FileUtils.readFileToString( r4 ) );
+
+		File u1 = new File( dir, "seq.uber.xsd" );
+		File u4 = new File( dir, "par.uber.xsd" );
+		XSDWalker.toUberXSD( seq, "xs", u1 );
+		XSDWalker.toUberXSD( par, "xs", u4 );
+		assertEquals( FileUtils.readFileToString( u1 ).
+					  replace( "seq.uber.xsd", "par.uber.xsd" ),
+					  FileUtils.readFileToString( u4 ) );
+	}
+
+	public void testEmpty() throws Exception {
+		XSDWalker w = new XSDWalker();
+		w.setThreads( 2 );
+		assertTrue( w.processFiles( new ArrayList<File>() ).isEmpty() );
+	}
+
+	private String describe( Collection<XSDWalker.Node> ns ) {
+		List<XSDWalker.Node> sorted = new ArrayList<XSDWalker.Node>( ns );
+		Collections.sort( sorted );
+		StringBuilder sb = new StringBuilder();
+		for( XSDWalker.Node n : sorted ) {
+			sb.append( n ).append( " ->" );
+			for( XSDWalker.Node out : n.outs )
+				sb.append( ' ' ).append( out.location );
+			sb.append( '\n' );
+		}
+		return sb.toString();
+	}
+
+	private String name( int layer, int w ) {
+		return "s" + layer + "_" + w + ".xsd";
+	}
+
+	private File dir;
+}
+
+// eof
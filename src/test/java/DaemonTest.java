@@ -0,0 +1,156 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Runs via a Daemon, from a Client, produce the same files as runs in
+ * process, and repeat runs hit the daemon's warm parse cache.
+ */
+public class DaemonTest extends junit.framework.TestCase {
+
+	protected void setUp() throws Exception {
+		dir = File.createTempFile( "daemon", "" );
+		dir.delete();
+		dir.mkdirs();
+		File set = new File( dir, "set" );
+		schema( new File( set, "a.xsd" ), "urn:a",
+				"<xs:import namespace='urn:b' schemaLocation='sub/b.xsd'/>" );
+		schema( new File( set, "sub/b.xsd" ), "urn:b",
+				"<xs:include schemaLocation='b2.xsd'/>" );
+		schema( new File( set, "sub/b2.xsd" ), "urn:b", "" );
+		schema( new File( set, "c.xsd" ), "urn:c", "" );
+		daemon = new Daemon( 0, 2 );
+		daemon.start();
+	}
+
+	protected void tearDown() throws Exception {
+		daemon.stop();
+		FileUtils.deleteDirectory( dir );
+	}
+
+	public void testSameOutput() throws Exception {
+		// in process, all paths absolute
+		File local = new File( dir, "local" );
+		local.mkdirs();
+		ByteArrayOutputStream out1 = new ByteArrayOutputStream();
+		int status = XSDWalker.run
+			( new String[] { "-g", "-u", new File( local, "set" ).getPath(),
+							 new File( dir, "set" ).getPath() },
+			  null, new PrintStream( out1 ), System.err, null );
+		assertEquals( 0, status );
+
+		// via the daemon, paths relative to the client's directory
+		File remote = new File( dir, "remote" );
+		remote.mkdirs();
+		ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+		ByteArrayOutputStream err2 = new ByteArrayOutputStream();
+		status = Client.call( daemon.getPort(), remote,
+							  new String[] { "-g", "../set" }, out2, err2 );
+		assertEquals( err2.toString(), 0, status );
+		assertEquals( out1.toString(), out2.toString( "UTF-8" ) );
+		for( String s : new String[] { "set.uber.xsd", "set.txt",
+									   "set.graph" } ) {
+			File f1 = new File( local, s );
+			File f2 = new File( remote, s );
+			assertTrue( s, f2.isFile() );
+			assertEquals( s, FileUtils.readFileToString( f1 ),
+						  FileUtils.readFileToString( f2 ) );
+		}
+
+		// again, all parses now from the warm cache
+		long hits = daemon.parseCache().hits();
+		status = Client.call( daemon.getPort(), remote,
+							  new String[] { "../set" }, out2, err2 );
+		assertEquals( 0, status );
+		assertEquals( hits + 4, daemon.parseCache().hits() );
+	}
+
+	public void testBadArgs() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		int status = Client.call( daemon.getPort(), dir,
+								  new String[] { "-j", "0", "set" },
+								  out, err );
+		assertEquals( 1, status );
+		assertTrue( err.toString(),
+					err.toString().contains( "Bad thread count" ) );
+	}
+
+	public void testNoWatch() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		int status = Client.call( daemon.getPort(), dir,
+								  new String[] { "--watch", "set" },
+								  out, err );
+		assertEquals( 1, status );
+		assertTrue( err.toString(),
+					err.toString().contains( "--watch cannot be used" ) );
+	}
+
+	public void testShutdown() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals( 0, Client.call( daemon.getPort(), dir,
+									  new String[] { Daemon.SHUTDOWN },
+									  out, out ) );
+		daemon.awaitStop();
+		try {
+			Client.call( daemon.getPort(), dir, new String[] { "set" },
+						 out, out );
+			fail();
+		} catch( IOException expected ) {
+		}
+	}
+
+	public void testNoFetchThreadLeak() throws Exception {
+		// other tests' Fetchers may still be about
+		int before = fetchThreads();
+		SchemaServer server = new SchemaServer();
+		try {
+			server.put( "/r.xsd",
+						"<xs:schema xmlns:xs='http://www.w3.org/2001/" +
+						"XMLSchema' targetNamespace='urn:r'/>" );
+			schema( new File( dir, "remote/d.xsd" ), "urn:d",
+					"<xs:import namespace='urn:r' schemaLocation='" +
+					server.url( "/r.xsd" ) + "'/>" );
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			for( int i = 0; i < 3; i++ )
+				assertEquals( 0, Client.call( daemon.getPort(), dir,
+											  new String[] { "remote" },
+											  out, out ) );
+			assertTrue( server.requests() > 0 );
+		} finally {
+			server.stop();
+		}
+		// shutdownNow only interrupts, so give the pools' threads a moment
+		for( int i = 0; i < 50 && fetchThreads() > before; i++ )
+			Thread.sleep( 100 );
+		assertEquals( before, fetchThreads() );
+	}
+
+	private int fetchThreads() {
+		int n = 0;
+		for( Thread t : Thread.getAllStackTraces().keySet() )
+			if( t.getName().startsWith( "xsdwalker-fetch-" ) )
+				n++;
+		return n;
+	}
+
+	private void schema( File f, String tns, String body ) throws Exception {
+		f.getParentFile().mkdirs();
+		PrintWriter pw = new PrintWriter( new FileWriter( f ) );
+		pw.println( "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'" +
+					" targetNamespace='" + tns + "'>" + body +
+					"</xs:schema>" );
+		pw.close();
+	}
+
+	private File dir;
+	private Daemon daemon;
+}
+
+// eof
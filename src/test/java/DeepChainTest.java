@@ -0,0 +1,112 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Import chains deeper than any thread stack would allow a recursive
+ * walk, or hierarchy print, to handle.
+ */
+public class DeepChainTest extends junit.framework.TestCase {
+
+	protected void setUp() throws Exception {
+		dir = File.createTempFile( "deep", "" );
+		dir.delete();
+		dir.mkdirs();
+		for( int i = 0; i < DEPTH; i++ ) {
+			PrintWriter pw = new PrintWriter
+				( new FileWriter( new File( dir, name( i ) ) ) );
+			pw.println( "<xs:schema xmlns:xs=" +
+						"'http://www.w3.org/2001/XMLSchema'" +
+						" targetNamespace='urn:" + name( i ) + "'>" );
+			if( i < DEPTH - 1 )
+				pw.println( "<xs:import namespace='urn:" + name( i+1 ) +
+							"' schemaLocation='" + name( i+1 ) + "'/>" );
+			// back edge, already visited, so a cycle
+			if( i > 0 )
+				pw.println( "<xs:import namespace='urn:" + name( 0 ) +
+							"' schemaLocation='" + name( 0 ) + "'/>" );
+			pw.println( "</xs:schema>" );
+			pw.close();
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory( dir );
+	}
+
+	public void testWalkSmallStack() throws Throwable {
+		final List<File> roots = new ArrayList<File>();
+		roots.add( new File( dir, name( 0 ) ) );
+		final Object[] result = new Object[1];
+		Runnable r = new Runnable() {
+				public void run() {
+					try {
+						XSDWalker w = new XSDWalker();
+						Collection<XSDWalker.Node> ns = w.processFiles( roots );
+						SchemaGraph g = SchemaGraph.build( ns );
+						File report = new File( dir, "report.txt" );
+						XSDWalker.report( g, report );
+						StringWriter sw = new StringWriter();
+						PrintWriter pw = new PrintWriter( sw );
+						new ArrayList<XSDWalker.Node>( ns ).get(0).hierarchy
+							( pw, "", new HashSet<XSDWalker.Node>() );
+						pw.close();
+						result[0] = g;
+					} catch( Throwable t ) {
+						result[0] = t;
+					}
+				}
+			};
+		Thread t = new Thread( null, r, "deep", 256 * 1024 );
+		t.start();
+		t.join();
+		if( result[0] instanceof Throwable )
+			throw (Throwable)result[0];
+		SchemaGraph g = (SchemaGraph)result[0];
+		assertEquals( DEPTH, g.size() );
+		assertEquals( 2 * ( DEPTH - 1 ), g.edgeCount() );
+		// every node is reachable from every other, so no leaves
+		assertTrue( g.leaves().isEmpty() );
+	}
+
+	public void testHierarchyIndent() throws Exception {
+		XSDWalker w = new XSDWalker();
+		List<File> roots = new ArrayList<File>();
+		roots.add( new File( dir, name( DEPTH - 3 ) ) );
+		SchemaGraph g = SchemaGraph.build( w.processFiles( roots ) );
+		StringWriter sw = new StringWriter();
+		PrintWriter pw = new PrintWriter( sw );
+		int root = 0;
+		while( !g.location( root ).toString().endsWith( name( DEPTH - 3 ) ) )
+			root++;
+		XSDWalker.hierarchy( g, root, pw, new BitSet( g.size() ) );
+		pw.close();
+		String[] lines = sw.toString().split( "\n" );
+		assertEquals( DEPTH, lines.length );
+		// the chain to the end, then the back edge to s0 and on from there
+		assertTrue( lines[0].endsWith( name( DEPTH - 3 ) ) );
+		assertTrue( lines[2].startsWith( "  file:" ) );
+		assertTrue( lines[3].startsWith( "   file:" ) );
+		assertTrue( lines[3].endsWith( "/" + name( 0 ) ) );
+		String last = lines[DEPTH-1];
+		assertEquals( DEPTH - 1, last.indexOf( "file:" ) );
+	}
+
+	private String name( int i ) {
+		return "d" + i + ".xsd";
+	}
+
+	private File dir;
+
+	static private final int DEPTH = 3000;
+}
+
+// eof
@@ -0,0 +1,144 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Directory scanning, with each kind of exclude, and a concurrent walk
+ * whose roots are streamed from a scan in progress.
+ */
+public class DirectoryScannerTest extends junit.framework.TestCase {
+
+	protected void setUp() throws Exception {
+		dir = File.createTempFile( "scan", "" );
+		dir.delete();
+		dir.mkdirs();
+		// a imports b, which is in a subdirectory
+		schema( "a.xsd", "urn:a",
+				"<xs:import namespace='urn:b' schemaLocation='sub/b.xsd'/>" );
+		schema( "sub/b.xsd", "urn:b", "" );
+		schema( "sub/deep/c.xsd", "urn:c", "" );
+		schema( "old/d.xsd", "urn:d", "" );
+		schema( "old/deeper/e.xsd", "urn:e", "" );
+		schema( "test/f-test.xsd", "urn:f", "" );
+		write( new File( dir, "notes.txt" ), "not a schema" );
+	}
+
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory( dir );
+	}
+
+	public void testAll() throws Exception {
+		List<File> fs = new DirectoryScanner( 4 ).list( dirs() );
+		assertEquals( names( "a", "sub/b", "sub/deep/c", "old/d",
+							 "old/deeper/e", "test/f-test" ), fs );
+	}
+
+	public void testGlob() throws Exception {
+		DirectoryScanner ds = new DirectoryScanner( 4 );
+		// by name, so prunes old, and everything below it
+		ds.exclude( "old" );
+		ds.exclude( "glob:*-test.xsd" );
+		assertEquals( names( "a", "sub/b", "sub/deep/c" ),
+					  ds.list( dirs() ) );
+	}
+
+	public void testRegex() throws Exception {
+		DirectoryScanner ds = new DirectoryScanner( 1 );
+		ds.exclude( "regex:.*/sub/deep" );
+		assertEquals( names( "a", "sub/b", "old/d", "old/deeper/e",
+							 "test/f-test" ), ds.list( dirs() ) );
+	}
+
+	public void testExisting() throws Exception {
+		DirectoryScanner ds = new DirectoryScanner( 2 );
+		ds.exclude( new File( dir, "old" ).getPath() );
+		ds.exclude( new File( dir, "sub/b.xsd" ).getPath() );
+		assertEquals( names( "a", "sub/deep/c", "test/f-test" ),
+					  ds.list( dirs() ) );
+	}
+
+	public void testBadPattern() throws Exception {
+		try {
+			new DirectoryScanner( 1 ).exclude( "regex:([" );
+			fail();
+		} catch( IllegalArgumentException iae ) {
+		}
+	}
+
+	public void testStreamedWalk() throws Exception {
+		final Iterator<File> found = new DirectoryScanner( 4 ).scan( dirs() );
+		Iterable<URL> us = new Iterable<URL>() {
+			public Iterator<URL> iterator() {
+				return new Iterator<URL>() {
+					public boolean hasNext() {
+						return found.hasNext();
+					}
+					public URL next() {
+						try {
+							return found.next().toURI().toURL();
+						} catch( Exception e ) {
+							throw new RuntimeException( e );
+						}
+					}
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+		XSDWalker w = new XSDWalker();
+		w.setThreads( 4 );
+		Collection<XSDWalker.Node> ns = w.process( us );
+		assertEquals( 6, ns.size() );
+		SchemaGraph g = SchemaGraph.build( ns );
+		SchemaGraph g2 = SchemaGraph.build
+			( new XSDWalker().processFiles
+			  ( new DirectoryScanner( 1 ).list( dirs() ) ) );
+		assertEquals( g2.size(), g.size() );
+		for( int i = 0; i < g.size(); i++ ) {
+			assertEquals( g2.location( i ), g.location( i ) );
+			assertEquals( g2.outDegree( i ), g.outDegree( i ) );
+		}
+	}
+
+	private List<File> dirs() {
+		List<File> result = new ArrayList<File>();
+		result.add( dir );
+		return result;
+	}
+
+	// expected scan result, sorted as list() sorts
+	private List<File> names( String... ss ) {
+		List<File> result = new ArrayList<File>();
+		for( String s : ss )
+			result.add( new File( dir, s + ".xsd" ) );
+		Collections.sort( result );
+		return result;
+	}
+
+	private void schema( String path, String tns, String body )
+		throws Exception {
+		write( new File( dir, path ),
+			   "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'" +
+			   " targetNamespace='" + tns + "'>" + body + "</xs:schema>" );
+	}
+
+	private void write( File f, String content ) throws Exception {
+		f.getParentFile().mkdirs();
+		PrintWriter pw = new PrintWriter( new FileWriter( f ) );
+		pw.println( content );
+		pw.close();
+	}
+
+	private File dir;
+}
+
+// eof
@@ -0,0 +1,212 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The Fetcher against a local SchemaServer with added latency:
+ * overlapped downloads, per host limits, retries and the walk it
+ * speeds up.
+ */
+public class FetcherTest extends junit.framework.TestCase {
+
+	protected void setUp() throws Exception {
+		server = new SchemaServer();
+		dir = File.createTempFile( "fetch", "" );
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	protected void tearDown() throws Exception {
+		server.stop();
+		FileUtils.deleteDirectory( dir );
+	}
+
+	public void testRetry() throws Exception {
+		server.put( "/a.xsd", "A" );
+		server.failNext( 2 );
+		Fetcher f = new Fetcher( 2, 2 );
+		f.setRetries( 3, 10 );
+		SchemaLocation a = SchemaLocation.of( server.url( "/a.xsd" ) );
+		assertEquals( "A", IOUtils.toString( f.open( a ), "UTF-8" ) );
+		assertEquals( 3, server.requests() );
+
+		// 503s beyond our retries
+		server.failNext( 5 );
+		f.setRetries( 1, 10 );
+		try {
+			f.open( a );
+			fail();
+		} catch( IOException expected ) {
+		}
+		assertEquals( 5, server.requests() );
+		f.shutdown();
+	}
+
+	public void testNoRetryOnNotFound() throws Exception {
+		Fetcher f = new Fetcher( 2, 2 );
+		f.setRetries( 3, 10 );
+		try {
+			f.open( SchemaLocation.of( server.url( "/none.xsd" ) ) );
+			fail();
+		} catch( IOException expected ) {
+		}
+		assertEquals( 1, server.requests() );
+		f.shutdown();
+	}
+
+	/*
+	  Through a SchemaCache, a 404, and a miss when offline, are no
+	  more worth retrying than when fetching directly.
+	*/
+	public void testNoRetryThroughCache() throws Exception {
+		SchemaCache cache = new SchemaCache( new File( dir, "cache" ) );
+		Fetcher f = new Fetcher( 2, 2 );
+		f.setCache( cache );
+		f.setRetries( 3, 10 );
+		try {
+			f.open( SchemaLocation.of( server.url( "/none.xsd" ) ) );
+			fail();
+		} catch( Fetcher.HttpError expected ) {
+			assertEquals( 404, expected.code );
+		}
+		assertEquals( 1, server.requests() );
+
+		server.failNext( 1 );
+		server.put( "/a.xsd", "A" );
+		assertEquals( "A", IOUtils.toString
+					  ( f.open( SchemaLocation.of( server.url( "/a.xsd" ) ) ),
+						"UTF-8" ) );
+		assertEquals( 3, server.requests() );
+		f.shutdown();
+
+		// each attempt is one cache lookup, so one miss
+		cache = new SchemaCache( new File( dir, "offline" ) );
+		cache.setOffline( true );
+		f = new Fetcher( 2, 2 );
+		f.setCache( cache );
+		f.setRetries( 3, 10 );
+		try {
+			f.open( SchemaLocation.of( server.url( "/a.xsd" ) ) );
+			fail();
+		} catch( FileNotFoundException expected ) {
+		}
+		assertEquals( 1, cache.misses() );
+		assertEquals( 3, server.requests() );
+		f.shutdown();
+	}
+
+	public void testPerHostLimit() throws Exception {
+		server.setLatency( 50 );
+		Fetcher f = new Fetcher( 8, 2 );
+		List<SchemaLocation> us = new ArrayList<SchemaLocation>();
+		for( int i = 0; i < 8; i++ ) {
+			server.put( "/" + i + ".xsd", "" + i );
+			us.add( SchemaLocation.of( server.url( "/" + i + ".xsd" ) ) );
+		}
+		for( SchemaLocation u : us )
+			f.prefetch( u );
+		for( int i = 0; i < 8; i++ )
+			assertEquals( "" + i,
+						  IOUtils.toString( f.open( us.get(i) ), "UTF-8" ) );
+		assertEquals( 8, server.requests() );
+		assertEquals( 2, server.maxInFlight() );
+		f.shutdown();
+	}
+
+	/*
+	  Two pool threads, one download per host: a slow host's queued
+	  downloads wait on it, not on a pool thread, so a fast host's
+	  download proceeds long before the slow host's queue drains.
+	*/
+	public void testSlowHostNoStarvation() throws Exception {
+		SchemaServer fast = new SchemaServer();
+		Fetcher f = new Fetcher( 2, 1 );
+		try {
+			server.setLatency( 1000 );
+			for( int i = 0; i < 4; i++ ) {
+				server.put( "/" + i + ".xsd", "" + i );
+				f.prefetch( SchemaLocation.of
+							( server.url( "/" + i + ".xsd" ) ) );
+			}
+			fast.put( "/a.xsd", "A" );
+			assertEquals( "A", IOUtils.toString
+						  ( f.open( SchemaLocation.of
+									( fast.url( "/a.xsd" ) ) ), "UTF-8" ) );
+			// a loaded machine may be slow enough for its second to start
+			assertTrue( "" + server.requests(), server.requests() <= 2 );
+		} finally {
+			f.shutdown();
+			fast.stop();
+		}
+	}
+
+	/*
+	  A local root importing W remote schemas, each importing one more.
+	  Fetched only when reached, every request costs the walk a full
+	  round trip.  Prefetched, siblings download together.
+	*/
+	public void testWalkOverlapsDownloads() throws Exception {
+		int width = 8;
+		StringBuilder sb = new StringBuilder();
+		for( int i = 0; i < width; i++ ) {
+			server.put( "/r" + i + ".xsd", schema
+						( "urn:r" + i, "urn:s" + i,
+						  server.url( "/s" + i + ".xsd" ).toString() ) );
+			server.put( "/s" + i + ".xsd", schema( "urn:s" + i, null, null ) );
+			sb.append( "<xs:import namespace='urn:r" + i +
+					   "' schemaLocation='" + server.url( "/r" + i + ".xsd" ) +
+					   "'/>" );
+		}
+		File root = new File( dir, "root.xsd" );
+		PrintWriter pw = new PrintWriter( new FileWriter( root ) );
+		pw.println( "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'" +
+					" targetNamespace='urn:root'>" + sb + "</xs:schema>" );
+		pw.close();
+		List<File> roots = new ArrayList<File>();
+		roots.add( root );
+
+		server.setLatency( 100 );
+		long t0 = System.currentTimeMillis();
+		SchemaGraph g1 = SchemaGraph.build
+			( new XSDWalker().processFiles( roots ) );
+		long inline = System.currentTimeMillis() - t0;
+
+		XSDWalker w = new XSDWalker();
+		Fetcher f = new Fetcher( 8, 4 );
+		w.setFetcher( f );
+		t0 = System.currentTimeMillis();
+		SchemaGraph g2 = SchemaGraph.build( w.processFiles( roots ) );
+		long prefetched = System.currentTimeMillis() - t0;
+		f.shutdown();
+
+		assertEquals( 1 + 2 * width, g1.size() );
+		assertEquals( g1.size(), g2.size() );
+		assertEquals( g1.edgeCount(), g2.edgeCount() );
+		for( int i = 0; i < g1.size(); i++ )
+			assertEquals( g1.location( i ), g2.location( i ) );
+		assertEquals( 4 * width, server.requests() );
+		assertTrue( "Inline " + inline + "ms, prefetched " + prefetched +
+					"ms", prefetched * 2 < inline );
+	}
+
+	private String schema( String tns, String ns, String location ) {
+		return "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'" +
+			" targetNamespace='" + tns + "'>" +
+			( ns == null ? "" : "<xs:import namespace='" + ns +
+			  "' schemaLocation='" + location + "'/>" ) +
+			"</xs:schema>";
+	}
+
+	private SchemaServer server;
+	private File dir;
+}
+
+// eof
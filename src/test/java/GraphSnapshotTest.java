@@ -0,0 +1,206 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.*;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Incremental walks: only changed files are re-parsed, yet the graph
+ * comes out as a full walk would build it.
+ */
+public class GraphSnapshotTest extends junit.framework.TestCase {
+
+	protected void setUp() throws Exception {
+		dir = File.createTempFile( "snapshot", "" );
+		dir.delete();
+		dir.mkdirs();
+		write( "a.xsd", "urn:a", "urn:b", "b.xsd", "urn:c", "c.xsd" );
+		write( "b.xsd", "urn:b", "urn:c", "c.xsd" );
+		write( "c.xsd", "urn:c" );
+		write( "d.xsd", "urn:d" );
+		snapshotFile = new File( dir, "x.snapshot" );
+	}
+
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory( dir );
+	}
+
+	public void testIncremental() throws Exception {
+		assertEquals( 0, walk().reused() );
+
+		GraphSnapshot s = walk();
+		assertEquals( 4, s.reused() );
+		assertFalse( s.setLeaves( leaves() ) );
+
+		// touched but not edited: still reused
+		File c = new File( dir, "c.xsd" );
+		c.setLastModified( c.lastModified() - 10000 );
+		assertEquals( 4, walk().reused() );
+
+		// d now imports a new schema e, which must be parsed
+		write( "d.xsd", "urn:d", "urn:e", "e.xsd" );
+		write( "e.xsd", "urn:e" );
+		s = walk();
+		assertEquals( 3, s.reused() );
+		assertEquals( describe( fresh() ), describe( last ) );
+		// e no longer a leaf, but d still is, so the uber is unchanged
+		assertFalse( s.setLeaves( leaves() ) );
+
+		// b no longer imports c
+		write( "b.xsd", "urn:b" );
+		s = walk();
+		assertEquals( 4, s.reused() );
+		assertEquals( describe( fresh() ), describe( last ) );
+	}
+
+	public void testBadSnapshot() throws Exception {
+		FileUtils.writeStringToFile( snapshotFile, "garbage\n" );
+		assertEquals( 0, walk().reused() );
+		assertEquals( 4, walk().reused() );
+	}
+
+	/*
+	  d imports a remote r.  Without a cache, r is parsed every time.
+	  With one, r is reused while the server says it is unchanged.
+	*/
+	public void testRemote() throws Exception {
+		SchemaServer server = new SchemaServer();
+		try {
+			server.put( "/r.xsd", "<xs:schema" +
+						" xmlns:xs='http://www.w3.org/2001/XMLSchema'" +
+						" targetNamespace='urn:r'/>" );
+			write( "d.xsd", "urn:d", "urn:r",
+				   server.url( "/r.xsd" ).toString() );
+			walk();
+			assertEquals( 4, walk().reused() );
+			assertEquals( 2, server.requests() );
+
+			// revalidated every time
+			SchemaCache cache = new SchemaCache( new File( dir, "cache" ) );
+			cache.setTTL( 0 );
+			assertEquals( 4, walk( cache ).reused() );
+			assertEquals( 5, walk( cache ).reused() );
+			assertEquals( 4, server.requests() );
+			assertEquals( 1, server.notModified() );
+
+			// r now imports s
+			server.put( "/s.xsd", "<xs:schema" +
+						" xmlns:xs='http://www.w3.org/2001/XMLSchema'" +
+						" targetNamespace='urn:s'/>" );
+			server.put( "/r.xsd", "<xs:schema" +
+						" xmlns:xs='http://www.w3.org/2001/XMLSchema'" +
+						" targetNamespace='urn:r'>" +
+						"<xs:import namespace='urn:s'" +
+						" schemaLocation='s.xsd'/></xs:schema>" );
+			GraphSnapshot s = walk( cache );
+			assertEquals( 4, s.reused() );
+			assertEquals( 6, last.size() );
+			assertEquals( 6, walk( cache ).reused() );
+		} finally {
+			server.stop();
+		}
+	}
+
+	/*
+	  Nothing re-parsed, the leaves the same, but the uber xsd must
+	  still be rewritten when -t or --ns-order asks for a different one.
+	*/
+	public void testOptions() throws Exception {
+		File uber = new File( dir, "x.uber.xsd" );
+		run();
+		long written = uber.lastModified();
+		uber.setLastModified( written - 10000 );
+		run();
+		assertEquals( written - 10000, uber.lastModified() );
+
+		run( "-t", "urn:uber" );
+		assertTrue( FileUtils.readFileToString( uber ).
+					contains( "urn:uber" ) );
+		uber.setLastModified( written - 10000 );
+		run( "-t", "urn:uber" );
+		assertEquals( written - 10000, uber.lastModified() );
+
+		run( "-t", "urn:uber", "--ns-order" );
+		assertTrue( uber.lastModified() != written - 10000 );
+		// and back again
+		uber.setLastModified( written - 10000 );
+		run( "-t", "urn:uber" );
+		assertTrue( uber.lastModified() != written - 10000 );
+	}
+
+	private void run( String... options ) throws Exception {
+		List<String> args = new ArrayList<String>( Arrays.asList( options ) );
+		args.addAll( Arrays.asList( "-i", "-u", "x", "a.xsd", "d.xsd" ) );
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		PrintStream ps = new PrintStream( bos );
+		assertEquals( bos.toString(), 0, XSDWalker.run
+					  ( args.toArray( new String[args.size()] ), dir, ps, ps,
+						null ) );
+	}
+
+	private GraphSnapshot walk() throws Exception {
+		return walk( null );
+	}
+
+	private GraphSnapshot walk( SchemaCache cache ) throws Exception {
+		GraphSnapshot s = GraphSnapshot.load( snapshotFile );
+		s.setCache( cache );
+		XSDWalker w = new XSDWalker();
+		w.setCache( cache );
+		w.setSnapshot( s );
+		last = w.processFiles( roots() );
+		s.setLeaves( leaves() );
+		s.save( snapshotFile );
+		return s;
+	}
+
+	private Collection<XSDWalker.Node> fresh() throws Exception {
+		return new XSDWalker().processFiles( roots() );
+	}
+
+	private List<String> leaves() {
+		return GraphSnapshot.leafKeys( SchemaGraph.build( last ) );
+	}
+
+	private List<File> roots() {
+		return Arrays.asList( new File( dir, "a.xsd" ),
+							  new File( dir, "d.xsd" ) );
+	}
+
+	private String describe( Collection<XSDWalker.Node> ns ) {
+		List<XSDWalker.Node> sorted = new ArrayList<XSDWalker.Node>( ns );
+		Collections.sort( sorted );
+		StringBuilder sb = new StringBuilder();
+		for( XSDWalker.Node n : sorted ) {
+			sb.append( n ).append( " ->" );
+			for( XSDWalker.Node out : n.outs )
+				sb.append( ' ' ).append( out.location );
+			sb.append( '\n' );
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @param imports namespace, schemaLocation pairs
+	 */
+	private void write( String name, String tns, String... imports )
+		throws Exception {
+		PrintWriter pw = new PrintWriter
+			( new FileWriter( new File( dir, name ) ) );
+		pw.println( "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'" +
+					" targetNamespace='" + tns + "'>" );
+		for( int i = 0; i < imports.length; i += 2 )
+			pw.println( "<xs:import namespace='" + imports[i] +
+						"' schemaLocation='" + imports[i+1] + "'/>" );
+		pw.println( "</xs:schema>" );
+		pw.close();
+	}
+
+	private File dir, snapshotFile;
+	private Collection<XSDWalker.Node> last;
+}
+
+// eof
@@ -0,0 +1,131 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Include, redefine and override are followed like imports, with the
+ * namespace rules for each, and their targets are fragments: neither
+ * leaves nor namespace collisions.
+ */
+public class IncludeTest extends junit.framework.TestCase {
+
+	protected void setUp() throws Exception {
+		dir = File.createTempFile( "include", "" );
+		dir.delete();
+		dir.mkdirs();
+		write( "a.xsd", "urn:a",
+			   "<xs:include schemaLocation='a2.xsd'/>" +
+			   "<xs:include schemaLocation='chameleon.xsd'/>" +
+			   "<xs:import namespace='urn:b' schemaLocation='b.xsd'/>" +
+			   "<xs:redefine schemaLocation='a3.xsd'/>" +
+			   "<xs:override schemaLocation='a4.xsd'/>" +
+			   // wrong namespace, so no edge
+			   "<xs:include schemaLocation='x.xsd'/>" );
+		write( "a2.xsd", "urn:a",
+			   "<xs:import namespace='urn:c' schemaLocation='c.xsd'/>" );
+		write( "a3.xsd", "urn:a", "" );
+		write( "a4.xsd", "urn:a", "" );
+		write( "chameleon.xsd", null, "" );
+		write( "b.xsd", "urn:b", "" );
+		write( "c.xsd", "urn:c", "" );
+		write( "x.xsd", "urn:x", "" );
+		// a genuine collision, with a.xsd
+		write( "other.xsd", "urn:a", "" );
+	}
+
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory( dir );
+	}
+
+	public void testWalk() throws Exception {
+		List<File> roots = new ArrayList<File>();
+		roots.add( new File( dir, "a.xsd" ) );
+		roots.add( new File( dir, "other.xsd" ) );
+		SchemaGraph g1 = walk( roots, 1 );
+		SchemaGraph g4 = walk( roots, 4 );
+		for( SchemaGraph g : new SchemaGraph[] { g1, g4 } ) {
+			assertEquals( 9, g.size() );
+			assertEquals( 5, g.outDegree( id( g, "a.xsd" ) ) );
+			assertEquals( 1, g.inDegree( id( g, "c.xsd" ) ) );
+			assertEquals( "[a.xsd, other.xsd, x.xsd]",
+						  names( g, g.leaves() ) );
+			assertEquals( "[a2.xsd, a3.xsd, a4.xsd, chameleon.xsd]",
+						  names( g, g.fragments() ) );
+			BitSet cs = g.namespaceCollisions();
+			assertEquals( 1, cs.cardinality() );
+			assertEquals( "urn:a", g.namespace( cs.nextSetBit( 0 ) ) );
+		}
+	}
+
+	public void testUberChameleonLeaf() throws Exception {
+		List<File> roots = new ArrayList<File>();
+		roots.add( new File( dir, "chameleon.xsd" ) );
+		SchemaGraph g = walk( roots, 1 );
+		String s = XSDWalker.asImportList( g, g.prunedLeaves(), "xs" );
+		assertTrue( s, s.indexOf( "namespace=" ) < 0 );
+		assertTrue( s, s.indexOf( "chameleon.xsd" ) > -1 );
+	}
+
+	public void testSnapshotKeepsKinds() throws Exception {
+		List<File> roots = new ArrayList<File>();
+		roots.add( new File( dir, "a.xsd" ) );
+		File f = new File( dir, "snapshot" );
+		XSDWalker w = new XSDWalker();
+		GraphSnapshot s = new GraphSnapshot();
+		w.setSnapshot( s );
+		SchemaGraph g1 = SchemaGraph.build( w.processFiles( roots ) );
+		s.save( f );
+
+		w = new XSDWalker();
+		s = GraphSnapshot.load( f );
+		w.setSnapshot( s );
+		SchemaGraph g2 = SchemaGraph.build( w.processFiles( roots ) );
+		assertEquals( g1.size(), s.reused() );
+		assertEquals( names( g1, g1.fragments() ),
+					  names( g2, g2.fragments() ) );
+		assertEquals( g1.edgeCount(), g2.edgeCount() );
+	}
+
+	private SchemaGraph walk( List<File> roots, int threads )
+		throws Exception {
+		XSDWalker w = new XSDWalker();
+		w.setThreads( threads );
+		return SchemaGraph.build( w.processFiles( roots ) );
+	}
+
+	private int id( SchemaGraph g, String name ) {
+		for( int i = 0; i < g.size(); i++ ) {
+			if( g.location( i ).toString().endsWith( "/" + name ) )
+				return i;
+		}
+		throw new IllegalArgumentException( name );
+	}
+
+	private String names( SchemaGraph g, BitSet ids ) {
+		List<String> result = new ArrayList<String>();
+		for( int i = ids.nextSetBit( 0 ); i >= 0; i = ids.nextSetBit( i+1 ) )
+			result.add( new File( g.location( i ).toString() ).getName() );
+		return result.toString();
+	}
+
+	private void write( String name, String tns, String body )
+		throws Exception {
+		PrintWriter pw = new PrintWriter
+			( new FileWriter( new File( dir, name ) ) );
+		pw.println( "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'" +
+					( tns == null ? "" : " targetNamespace='" + tns + "'" ) +
+					">" );
+		pw.println( body );
+		pw.println( "</xs:schema>" );
+		pw.close();
+	}
+
+	private File dir;
+}
+
+// eof
@@ -0,0 +1,86 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * LocalFiles streams, pooled and mapped, deliver exactly the file
+ * content, and the Parser reads through them in both modes.
+ */
+public class LocalFilesTest extends junit.framework.TestCase {
+
+	protected void setUp() throws Exception {
+		dir = File.createTempFile( "nio", "" );
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory( dir );
+	}
+
+	public void testContent() throws Exception {
+		int[] sizes = { 0, 1, 1000, LocalFiles.BUFFER_SIZE,
+						LocalFiles.BUFFER_SIZE * 3 + 7,
+						(int)LocalFiles.MAP_THRESHOLD,
+						(int)LocalFiles.MAP_THRESHOLD + 1 };
+		Random r = new Random( 42 );
+		for( int size : sizes ) {
+			byte[] bs = new byte[size];
+			r.nextBytes( bs );
+			File f = new File( dir, "f" + size );
+			FileUtils.writeByteArrayToFile( f, bs );
+
+			assertTrue( Arrays.equals( bs, LocalFiles.read( f ) ) );
+
+			// bulk reads, of awkward lengths
+			InputStream is = LocalFiles.open( f );
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			byte[] buf = new byte[1000];
+			int n;
+			while( ( n = is.read( buf, 0, buf.length ) ) != -1 )
+				baos.write( buf, 0, n );
+			is.close();
+			assertTrue( "" + size, Arrays.equals( bs, baos.toByteArray() ) );
+
+			// single bytes, after a skip
+			is = LocalFiles.open( f );
+			int skip = size / 3;
+			assertEquals( skip, is.skip( skip ) );
+			for( int i = skip; i < size; i++ )
+				assertEquals( bs[i] & 0xff, is.read() );
+			assertEquals( -1, is.read() );
+			is.close();
+		}
+	}
+
+	public void testParseLarge() throws Exception {
+		File f = new File( dir, "large.xsd" );
+		PrintWriter pw = new PrintWriter( new FileWriter( f ) );
+		pw.println( "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'" +
+					" targetNamespace='urn:large'>" );
+		pw.println( "<xs:import namespace='urn:b' schemaLocation='b.xsd'/>" );
+		for( int i = 0; f.length() <= LocalFiles.MAP_THRESHOLD; i++ ) {
+			pw.println( "<xs:element name='e" + i + "' type='xs:string'/>" );
+			if( i % 1000 == 0 )
+				pw.flush();
+		}
+		pw.println( "</xs:schema>" );
+		pw.close();
+		String uri = f.toURI().toString();
+		for( boolean streaming : new boolean[] { true, false } ) {
+			SchemaInfo si = new Parser( streaming ).parse( uri );
+			assertEquals( "urn:large", si.targetNamespace );
+			assertEquals( "[urn:b,b.xsd]", si.getImports().toString() );
+		}
+	}
+
+	private File dir;
+}
+
+// eof
@@ -0,0 +1,173 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Metrics gathered by sequential and concurrent walks, local and
+ * remote, as JSON and over JMX.
+ */
+public class MetricsTest extends junit.framework.TestCase {
+
+	protected void setUp() throws Exception {
+		server = new SchemaServer();
+		dir = File.createTempFile( "metrics", "" );
+		dir.delete();
+		dir.mkdirs();
+		server.put( "/r.xsd", schema( "urn:r", "" ) );
+		write( new File( dir, "a.xsd" ), schema
+			   ( "urn:a",
+				 "<xs:import namespace='urn:b' schemaLocation='b.xsd'/>" +
+				 "<xs:import namespace='urn:r' schemaLocation='" +
+				 server.url( "/r.xsd" ) + "'/>" ) );
+		write( new File( dir, "b.xsd" ), schema( "urn:b", "" ) );
+	}
+
+	protected void tearDown() throws Exception {
+		server.stop();
+		FileUtils.deleteDirectory( dir );
+	}
+
+	public void testSequential() throws Exception {
+		Metrics m = walk( 1 );
+		assertEquals( 3, m.getNodes() );
+		assertTrue( m.getBytes() > 0 );
+		assertEquals( 1, m.getFetches() );
+		assertEquals( 0, m.getFetchFailures() );
+		assertEquals( 0, m.getQueueDepthMax() );
+		assertEquals( 0.0, m.getWorkerUtilization() );
+	}
+
+	public void testConcurrent() throws Exception {
+		Metrics m = walk( 4 );
+		assertEquals( 3, m.getNodes() );
+		assertEquals( 1, m.getFetches() );
+		assertTrue( m.getQueueDepthMax() >= 1 );
+		double u = m.getWorkerUtilization();
+		assertTrue( "" + u, u > 0 && u <= 1 );
+	}
+
+	public void testJSON() throws Exception {
+		Metrics m = walk( 2 );
+		m.phase( "walk", 2000000 );
+		m.cache( "parse", 3, 1 );
+		StringWriter sw = new StringWriter();
+		m.writeJSON( new PrintWriter( sw ) );
+		String s = sw.toString();
+		assertTrue( s, s.startsWith( "{" ) );
+		assertTrue( s, s.trim().endsWith( "}" ) );
+		assertTrue( s, s.contains( "\"walk\": 2.000" ) );
+		assertTrue( s, s.contains( "\"count\": 3," ) );
+		assertTrue( s, s.contains
+					( "\"parse\": { \"hits\": 3, \"misses\": 1," +
+					  " \"hitRate\": 0.750 }" ) );
+		assertTrue( s, s.contains( "\"fetchMillis\": " ) );
+		assertEquals( "\"a\\\"b\\\\c\\u000a\"", Metrics.quote( "a\"b\\c\n" ) );
+	}
+
+	public void testJMX() throws Exception {
+		Metrics m = walk( 1 );
+		m.register();
+		MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+		ObjectName on = new ObjectName( Metrics.NAME );
+		try {
+			assertEquals( 3L, mbs.getAttribute( on, "Nodes" ) );
+			assertEquals( 1L, mbs.getAttribute( on, "Fetches" ) );
+			// a second registration replaces the first
+			Metrics m2 = new Metrics();
+			m2.register();
+			assertEquals( 0L, mbs.getAttribute( on, "Nodes" ) );
+			// which the first, now unregistering, leaves be
+			m.unregister();
+			assertTrue( mbs.isRegistered( on ) );
+			m2.unregister();
+			assertFalse( mbs.isRegistered( on ) );
+		} finally {
+			if( mbs.isRegistered( on ) )
+				mbs.unregisterMBean( on );
+		}
+	}
+
+	/*
+	  As concurrent --jmx runs in a Daemon do.  Each must register,
+	  none failing on finding the name already taken.
+	*/
+	public void testConcurrentRegister() throws Exception {
+		final List<Exception> failures = new ArrayList<Exception>();
+		Thread[] ts = new Thread[8];
+		for( int i = 0; i < ts.length; i++ ) {
+			ts[i] = new Thread() {
+					public void run() {
+						try {
+							for( int j = 0; j < 100; j++ ) {
+								Metrics m = new Metrics();
+								m.register();
+								m.unregister();
+							}
+						} catch( Exception e ) {
+							synchronized( failures ) {
+								failures.add( e );
+							}
+						}
+					}
+				};
+			ts[i].start();
+		}
+		for( Thread t : ts )
+			t.join();
+		assertEquals( failures.toString(), 0, failures.size() );
+		MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+		assertFalse( mbs.isRegistered( new ObjectName( Metrics.NAME ) ) );
+	}
+
+	public void testRunUnregisters() throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		PrintStream ps = new PrintStream( bos );
+		assertEquals( 0, XSDWalker.run
+					  ( new String[] { "--jmx", "-u", "x", "a.xsd" }, dir,
+						ps, ps, null ) );
+		MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+		assertFalse( mbs.isRegistered( new ObjectName( Metrics.NAME ) ) );
+	}
+
+	private Metrics walk( int threads ) throws Exception {
+		Metrics m = new Metrics();
+		XSDWalker w = new XSDWalker();
+		w.setThreads( threads );
+		w.setMetrics( m );
+		Fetcher f = new Fetcher( 2, 2 );
+		f.setMetrics( m );
+		w.setFetcher( f );
+		List<File> roots = new ArrayList<File>();
+		roots.add( new File( dir, "a.xsd" ) );
+		assertEquals( 3, w.processFiles( roots ).size() );
+		f.shutdown();
+		return m;
+	}
+
+	private String schema( String tns, String body ) {
+		return "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'" +
+			" targetNamespace='" + tns + "'>" + body + "</xs:schema>";
+	}
+
+	private void write( File f, String content ) throws Exception {
+		PrintWriter pw = new PrintWriter( new FileWriter( f ) );
+		pw.println( content );
+		pw.close();
+	}
+
+	private SchemaServer server;
+	private File dir;
+}
+
+// eof
@@ -0,0 +1,122 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * ParseCache bounds, persistence, and a walk over duplicated vendored
+ * copies of a schema set, each distinct document parsed just once.
+ */
+public class ParseCacheTest extends junit.framework.TestCase {
+
+	protected void setUp() throws Exception {
+		dir = File.createTempFile( "memo", "" );
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory( dir );
+	}
+
+	public void testBounds() throws Exception {
+		ParseCache pc = new ParseCache( 2, Long.MAX_VALUE );
+		pc.put( "a", info( "urn:a" ) );
+		pc.put( "b", info( "urn:b" ) );
+		assertNotNull( pc.get( "a" ) );
+		// b now least recently used
+		pc.put( "c", info( "urn:c" ) );
+		assertNull( pc.get( "b" ) );
+		assertNotNull( pc.get( "a" ) );
+		assertNotNull( pc.get( "c" ) );
+		assertEquals( 1, pc.evictions() );
+		assertEquals( 3, pc.hits() );
+		assertEquals( 1, pc.misses() );
+
+		long one = ParseCache.size( info( "urn:a" ) );
+		pc = new ParseCache( 100, 2 * one );
+		pc.put( "a", info( "urn:a" ) );
+		pc.put( "b", info( "urn:b" ) );
+		assertEquals( 2, pc.size() );
+		assertEquals( 2 * one, pc.bytes() );
+		pc.put( "c", info( "urn:c" ) );
+		assertEquals( 2, pc.size() );
+		assertNull( pc.get( "a" ) );
+	}
+
+	public void testPersist() throws Exception {
+		ParseCache pc = new ParseCache();
+		SchemaInfo a = info( "urn:a" );
+		a.addInclusion( ImportInfo.Kind.REDEFINE, "a2.xsd" );
+		pc.put( "a", a );
+		pc.put( "b", info( "urn:b" ) );
+		File f = new File( dir, "memo" );
+		pc.save( f );
+
+		ParseCache pc2 = ParseCache.load( f, 100, Long.MAX_VALUE );
+		assertEquals( 2, pc2.size() );
+		assertEquals( pc.bytes(), pc2.bytes() );
+		SchemaInfo a2 = pc2.get( "a" );
+		assertEquals( "urn:a", a2.targetNamespace );
+		assertEquals( 2, a2.getDependencies().size() );
+		assertEquals( ImportInfo.Kind.REDEFINE,
+					  a2.getDependencies().get(1).kind );
+		assertEquals( "urn:a,a2.xsd", a2.getDependencies().get(1).toString() );
+
+		// junk file, empty cache
+		FileUtils.writeStringToFile( f, "junk" );
+		assertEquals( 0, ParseCache.load( f, 100, 1000 ).size() );
+	}
+
+	public void testVendoredCopies() throws Exception {
+		int copies = 3;
+		List<File> roots = new ArrayList<File>();
+		for( int c = 0; c < copies; c++ ) {
+			File root = new File( dir, "vendor" + c );
+			write( new File( root, "main.xsd" ), "urn:main",
+				   "<xs:import namespace='urn:common'" +
+				   " schemaLocation='common/common.xsd'/>" );
+			write( new File( root, "common/common.xsd" ), "urn:common",
+				   "<xs:include schemaLocation='types.xsd'/>" );
+			write( new File( root, "common/types.xsd" ), "urn:common", "" );
+			roots.add( new File( root, "main.xsd" ) );
+		}
+		SchemaGraph plain = SchemaGraph.build
+			( new XSDWalker().processFiles( roots ) );
+
+		XSDWalker w = new XSDWalker();
+		ParseCache pc = new ParseCache();
+		w.setParseCache( pc );
+		SchemaGraph memo = SchemaGraph.build( w.processFiles( roots ) );
+		assertEquals( 3 * copies, memo.size() );
+		assertEquals( plain.size(), memo.size() );
+		assertEquals( plain.edgeCount(), memo.edgeCount() );
+		for( int i = 0; i < plain.size(); i++ ) {
+			assertEquals( plain.location( i ), memo.location( i ) );
+			assertEquals( plain.outDegree( i ), memo.outDegree( i ) );
+		}
+		assertEquals( 3, pc.misses() );
+		assertEquals( 3 * ( copies - 1 ), pc.hits() );
+	}
+
+	private SchemaInfo info( String tns ) {
+		SchemaInfo result = new SchemaInfo( tns );
+		result.addImport( "urn:x", "x.xsd" );
+		return result;
+	}
+
+	private void write( File f, String tns, String body ) throws Exception {
+		f.getParentFile().mkdirs();
+		PrintWriter pw = new PrintWriter( new FileWriter( f ) );
+		pw.println( "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'" +
+					" targetNamespace='" + tns + "'>" + body + "</xs:schema>" );
+		pw.close();
+	}
+
+	private File dir;
+}
+
+// eof
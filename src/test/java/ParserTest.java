@@ -0,0 +1,109 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Check that the streaming (StAX) and DOM Parser modes agree.
+ */
+public class ParserTest extends junit.framework.TestCase {
+
+	public void testImports() throws Exception {
+		File f = write
+			( "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'" +
+			  " targetNamespace='urn:a'>" +
+			  " <xs:annotation><xs:documentation>" +
+			  "  <xs:import namespace='urn:not' schemaLocation='not.xsd'/>" +
+			  " </xs:documentation></xs:annotation>" +
+			  " <xs:import namespace='urn:b' schemaLocation='b.xsd'/>" +
+			  " <xs:import namespace='urn:c'/>" +
+			  " <xs:include schemaLocation='a2.xsd'/>" +
+			  " <xs:import namespace='urn:d' schemaLocation='d/d.xsd'>" +
+			  "  <xs:annotation/>" +
+			  " </xs:import>" +
+			  " <xs:element name='e' type='xs:string'/>" +
+			  "</xs:schema>" );
+		SchemaInfo si = check( f );
+		assertEquals( "urn:a", si.targetNamespace );
+		List<ImportInfo> iis = si.getImports();
+		assertEquals( 2, iis.size() );
+		assertEquals( "urn:b,b.xsd", iis.get(0).toString() );
+		assertEquals( "urn:d,d/d.xsd", iis.get(1).toString() );
+	}
+
+	public void testDependencies() throws Exception {
+		File f = write
+			( "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'" +
+			  " targetNamespace='urn:a'>" +
+			  " <xs:include schemaLocation='a2.xsd'/>" +
+			  " <xs:import namespace='urn:b' schemaLocation='b.xsd'/>" +
+			  " <xs:redefine schemaLocation='a3.xsd'>" +
+			  "  <xs:simpleType name='t'>" +
+			  "   <xs:restriction base='t'/>" +
+			  "  </xs:simpleType>" +
+			  " </xs:redefine>" +
+			  " <xs:include/>" +
+			  " <xs:override schemaLocation='a4.xsd'/>" +
+			  " <xs:element name='e' type='xs:string'/>" +
+			  "</xs:schema>" );
+		SchemaInfo si = check( f );
+		List<ImportInfo> iis = si.getDependencies();
+		assertEquals( 4, iis.size() );
+		assertEquals( ImportInfo.Kind.INCLUDE, iis.get(0).kind );
+		assertEquals( "urn:a,a2.xsd", iis.get(0).toString() );
+		assertEquals( ImportInfo.Kind.IMPORT, iis.get(1).kind );
+		assertEquals( ImportInfo.Kind.REDEFINE, iis.get(2).kind );
+		assertEquals( "urn:a,a3.xsd", iis.get(2).toString() );
+		assertEquals( ImportInfo.Kind.OVERRIDE, iis.get(3).kind );
+		assertEquals( 1, si.getImports().size() );
+	}
+
+	public void testNoTargetNamespace() throws Exception {
+		File f = write
+			( "<xsd:schema xmlns:xsd='http://www.w3.org/2001/XMLSchema'>" +
+			  " <xsd:import namespace='urn:b' schemaLocation='b.xsd'/>" +
+			  "</xsd:schema>" );
+		SchemaInfo si = check( f );
+		assertEquals( "", si.targetNamespace );
+		assertEquals( 1, si.getImports().size() );
+	}
+
+	public void testNotASchema() throws Exception {
+		File f = write( "<foo targetNamespace='urn:a'><bar/></foo>" );
+		SchemaInfo si = check( f );
+		assertEquals( "", si.targetNamespace );
+		assertTrue( si.getImports().isEmpty() );
+	}
+
+	private SchemaInfo check( File f ) throws Exception {
+		SchemaInfo dom = new Parser( false ).parse( f );
+		SchemaInfo stax = new Parser( true ).parse( f );
+		assertEquals( dom.targetNamespace, stax.targetNamespace );
+		assertEquals( dom.getImports().toString(),
+					  stax.getImports().toString() );
+		assertEquals( kinds( dom ), kinds( stax ) );
+		SchemaInfo byURI = new Parser( true ).parse
+			( f.toURI().toURL().toString() );
+		assertEquals( stax.getImports().toString(),
+					  byURI.getImports().toString() );
+		return stax;
+	}
+
+	private String kinds( SchemaInfo si ) {
+		StringBuilder sb = new StringBuilder();
+		for( ImportInfo ii : si.getDependencies() )
+			sb.append( ii.kind ).append( ' ' ).append( ii ).append( '\n' );
+		return sb.toString();
+	}
+
+	private File write( String xml ) throws Exception {
+		File f = File.createTempFile( "parser", ".xsd" );
+		f.deleteOnExit();
+		PrintWriter pw = new PrintWriter( new FileWriter( f ) );
+		pw.println( xml );
+		pw.close();
+		return f;
+	}
+}
+
+// eof
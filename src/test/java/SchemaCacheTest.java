@@ -0,0 +1,118 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.*;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * SchemaCache behaviour against a local SchemaServer: freshness,
+ * revalidation, offline mode, LRU eviction, and a remote walk.
+ */
+public class SchemaCacheTest extends junit.framework.TestCase {
+
+	protected void setUp() throws Exception {
+		server = new SchemaServer();
+		dir = File.createTempFile( "cache", "" );
+		dir.delete();
+		cache = new SchemaCache( dir );
+	}
+
+	protected void tearDown() throws Exception {
+		server.stop();
+		FileUtils.deleteDirectory( dir );
+	}
+
+	public void testFreshness() throws Exception {
+		server.put( "/a.xsd", "A" );
+		URL u = server.url( "/a.xsd" );
+		assertEquals( "A", new String( cache.get( u ), "UTF-8" ) );
+		assertEquals( "A", new String( cache.get( u ), "UTF-8" ) );
+		assertEquals( 1, server.requests() );
+
+		// stale, so revalidated, and not modified
+		cache.setTTL( 0 );
+		assertEquals( "A", new String( cache.get( u ), "UTF-8" ) );
+		assertEquals( 2, server.requests() );
+		assertEquals( 1, server.notModified() );
+
+		// stale and changed
+		server.put( "/a.xsd", "A2" );
+		assertEquals( "A2", new String( cache.get( u ), "UTF-8" ) );
+		assertEquals( 3, server.requests() );
+
+		// a new cache instance on the same directory sees the entry
+		SchemaCache c2 = new SchemaCache( dir );
+		assertEquals( "A2", new String( c2.get( u ), "UTF-8" ) );
+		assertEquals( 3, server.requests() );
+	}
+
+	public void testOffline() throws Exception {
+		server.put( "/a.xsd", "A" );
+		URL a = server.url( "/a.xsd" );
+		cache.get( a );
+		server.stop();
+
+		cache.setTTL( 0 );
+		cache.setOffline( true );
+		assertEquals( "A", new String( cache.get( a ), "UTF-8" ) );
+		try {
+			cache.get( server.url( "/b.xsd" ) );
+			fail( "Expected a cache miss" );
+		} catch( IOException expected ) {
+		}
+		assertEquals( 1, server.requests() );
+	}
+
+	public void testEviction() throws Exception {
+		server.put( "/a.xsd", "AAAA" );
+		server.put( "/b.xsd", "BBBB" );
+		server.put( "/c.xsd", "CCCC" );
+		URL a = server.url( "/a.xsd" );
+		URL b = server.url( "/b.xsd" );
+		URL c = server.url( "/c.xsd" );
+		cache.setMaxBytes( 8 );
+		cache.get( a );
+		Thread.sleep( 50 );
+		cache.get( b );
+		Thread.sleep( 50 );
+		// a now more recently used than b
+		cache.get( a );
+		Thread.sleep( 50 );
+		cache.get( c );
+		assertTrue( cache.contains( a ) );
+		assertFalse( cache.contains( b ) );
+		assertTrue( cache.contains( c ) );
+		assertEquals( 2, new File( dir, "blobs" ).list().length );
+	}
+
+	public void testRemoteWalk() throws Exception {
+		String xs = "xmlns:xs='http://www.w3.org/2001/XMLSchema'";
+		server.put( "/a.xsd", "<xs:schema " + xs +
+					" targetNamespace='urn:a'>" +
+					"<xs:import namespace='urn:b' schemaLocation='b.xsd'/>" +
+					"</xs:schema>" );
+		server.put( "/b.xsd", "<xs:schema " + xs +
+					" targetNamespace='urn:b'/>" );
+		List<URL> us = Collections.singletonList( server.url( "/a.xsd" ) );
+
+		XSDWalker w = new XSDWalker();
+		w.setCache( cache );
+		assertEquals( 2, w.process( us ).size() );
+		assertEquals( 2, server.requests() );
+
+		cache.setOffline( true );
+		XSDWalker w2 = new XSDWalker( false );
+		w2.setCache( cache );
+		Collection<XSDWalker.Node> ns = w2.process( us );
+		assertEquals( 2, ns.size() );
+		assertEquals( 1, XSDWalker.leafNodes( ns ).size() );
+		assertEquals( 2, server.requests() );
+	}
+
+	private SchemaServer server;
+	private File dir;
+	private SchemaCache cache;
+}
+
+// eof
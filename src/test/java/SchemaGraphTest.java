@@ -0,0 +1,220 @@
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.*;
+
+/**
+ * SchemaGraph construction: CSR edges, the namespace index, the
+ * leaf/remote/pruned sets and the strongly connected components.
+ */
+public class SchemaGraphTest extends junit.framework.TestCase {
+
+	public void testSmall() throws Exception {
+		XSDWalker.Node a = node( "file:/a.xsd", "urn:a" );
+		XSDWalker.Node b = node( "file:/b.xsd", "urn:b" );
+		XSDWalker.Node c = node( "file:/c.xsd", "urn:c" );
+		// local copy of a remote schema, pruned from the uber
+		XSDWalker.Node r1 = node( "file:/r.xsd", "urn:r" );
+		XSDWalker.Node r2 = node( "http://h/r.xsd", "urn:r" );
+		link( c, b );
+		link( c, a );
+		link( b, a );
+		link( b, r2 );
+		SchemaGraph g = SchemaGraph.build
+			( Arrays.asList( r2, a, r1, b, c ) );
+
+		assertEquals( 5, g.size() );
+		assertEquals( 4, g.edgeCount() );
+		assertEquals( 4, g.namespaceCount() );
+		// ids follow location order
+		assertEquals( "file:/a.xsd", g.location( 0 ).toString() );
+		assertEquals( "http://h/r.xsd", g.location( 4 ).toString() );
+
+		// c's outs keep their Node.outs order: b then a
+		assertEquals( 2, g.outDegree( 2 ) );
+		assertEquals( 1, g.out( 2, 0 ) );
+		assertEquals( 0, g.out( 2, 1 ) );
+		assertEquals( 2, g.inDegree( 0 ) );
+		assertEquals( 1, g.in( 0, 0 ) );
+		assertEquals( 2, g.in( 0, 1 ) );
+
+		assertEquals( "{2, 3}", g.leaves().toString() );
+		assertEquals( "{4}", g.remotes().toString() );
+		assertEquals( "{2}", g.prunedLeaves().toString() );
+	}
+
+	public void testNamespaces() throws Exception {
+		XSDWalker.Node a1 = node( "file:/a.xsd", "urn:a" );
+		XSDWalker.Node a2 = node( "http://h/a.xsd", "urn:a" );
+		XSDWalker.Node b = node( "file:/b.xsd", "urn:b" );
+		XSDWalker.Node p = node( "file:/p.xsd", "urn:b" );
+		p.included = true;
+		link( b, p );
+		SchemaGraph g = SchemaGraph.build( Arrays.asList( a2, b, a1, p ) );
+		int a = g.namespaceId( "urn:a" );
+		assertEquals( "urn:a", g.namespace( a ) );
+		assertEquals( -1, g.namespaceId( "urn:c" ) );
+		assertEquals( 2, g.namespaceSize( a ) );
+		assertEquals( 0, g.namespaceMember( a, 0 ) );
+		assertEquals( 3, g.namespaceMember( a, 1 ) );
+
+		// b's fragment p is no collision
+		assertEquals( "{" + a + "}", g.namespaceCollisions().toString() );
+
+		// a1 is a local copy of a remote schema
+		assertEquals( "{1, 3}", g.prunedLeaves().toString() );
+	}
+
+	/*
+	  Half the nodes local, half remote, all namespaces distinct, so a
+	  nested loop pruning makes leaves x remotes comparisons.  Ours
+	  probes the namespace index once per local source.
+	*/
+	public void testLinearPruning() throws Exception {
+		for( int n = 20000; n <= 160000; n *= 8 ) {
+			List<XSDWalker.Node> ns = new ArrayList<XSDWalker.Node>();
+			for( int i = 0; i < n / 2; i++ ) {
+				ns.add( node( "file:/l/" + i + ".xsd", "urn:l" + i ) );
+				ns.add( node( "http://h/r/" + i + ".xsd", "urn:r" + i ) );
+			}
+			SchemaGraph g = SchemaGraph.build( ns );
+			assertEquals( n, g.prunedLeaves().cardinality() );
+			assertEquals( n / 2, g.pruneProbes() );
+		}
+	}
+
+	/*
+	  A 100k node, 300k edge, graph.  The built form is just arrays,
+	  so this should take a few MB only.
+	*/
+	public void testLarge() throws Exception {
+		int n = 100000;
+		List<XSDWalker.Node> ns = new ArrayList<XSDWalker.Node>( n );
+		for( int i = 0; i < n; i++ )
+			ns.add( node( "file:/big/" + i + ".xsd", "urn:" + ( i % 1000 ) ) );
+		for( int i = 0; i < n; i++ ) {
+			for( int k = 1; k <= 3; k++ ) {
+				int j = i * 3 + k;
+				if( j < n )
+					link( ns.get(i), ns.get(j) );
+			}
+		}
+		SchemaGraph g = SchemaGraph.build( ns );
+		assertEquals( n, g.size() );
+		assertEquals( n - 1, g.edgeCount() );
+		assertEquals( 1000, g.namespaceCount() );
+		assertEquals( 1, g.leaves().cardinality() );
+		assertEquals( 1, g.prunedLeaves().cardinality() );
+		for( int i = 0; i < n; i++ ) {
+			int expected = g.location( i ).toString().equals
+				( "file:/big/0.xsd" ) ? 0 : 1;
+			assertEquals( expected, g.inDegree( i ) );
+		}
+	}
+
+	/*
+	  a imports the b,c cycle.  The d,e cycle has no importer, so no
+	  leaf, but still has a source, and is still in the uber.
+	*/
+	public void testComponents() throws Exception {
+		XSDWalker.Node a = node( "file:/a.xsd", "urn:a" );
+		XSDWalker.Node b = node( "file:/b.xsd", "urn:b" );
+		XSDWalker.Node c = node( "file:/c.xsd", "urn:c" );
+		XSDWalker.Node d = node( "file:/d.xsd", "urn:d" );
+		XSDWalker.Node e = node( "file:/e.xsd", "urn:e" );
+		XSDWalker.Node f = node( "file:/f.xsd", "urn:f" );
+		link( a, b );
+		link( b, c );
+		link( c, b );
+		link( c, f );
+		link( d, e );
+		link( e, d );
+		link( e, f );
+		SchemaGraph g = SchemaGraph.build
+			( Arrays.asList( f, e, d, c, b, a ) );
+
+		assertEquals( "{0}", g.leaves().toString() );
+		assertEquals( "{0, 3}", g.sources().toString() );
+		assertEquals( "{0, 3}", g.prunedLeaves().toString() );
+		assertEquals( 4, g.componentCount() );
+		assertEquals( g.component( 1 ), g.component( 2 ) );
+		assertEquals( g.component( 3 ), g.component( 4 ) );
+		assertEquals( 2, g.cyclic().cardinality() );
+		assertTrue( g.cyclic().get( g.component( 1 ) ) );
+		assertFalse( g.cyclic().get( g.component( 5 ) ) );
+		assertEquals( 2, g.componentSize( g.component( 3 ) ) );
+		assertEquals( 3, g.componentMember( g.component( 4 ), 0 ) );
+		// topological: every edge leads to a later component, or its own
+		for( int i = 0; i < g.size(); i++ ) {
+			for( int k = 0; k < g.outDegree( i ); k++ )
+				assertTrue( g.component( i ) <= g.component( g.out( i, k ) ) );
+		}
+
+		String s = XSDWalker.asImportList( g, g.prunedLeaves(), "xs" );
+		assertTrue( s, s.contains( "file:/d.xsd" ) );
+	}
+
+	/*
+	  One 200k node cycle: no recursion, so no stack overflow.
+	*/
+	public void testDeepCycle() throws Exception {
+		int n = 200000;
+		List<XSDWalker.Node> ns = new ArrayList<XSDWalker.Node>( n );
+		for( int i = 0; i < n; i++ )
+			ns.add( node( "file:/deep/" + i + ".xsd", "urn:deep" ) );
+		for( int i = 0; i < n; i++ )
+			link( ns.get(i), ns.get( (i+1) % n ) );
+		SchemaGraph g = SchemaGraph.build( ns );
+		assertTrue( g.leaves().isEmpty() );
+		assertEquals( 1, g.componentCount() );
+		assertEquals( n, g.componentSize( 0 ) );
+		assertEquals( 1, g.sources().cardinality() );
+	}
+
+	/*
+	  Two leaves sharing a subtree: as a DAG, the second leaf's
+	  hierarchy just refers to it, as does the first's own repeat visit.
+	*/
+	public void testHierarchyDAG() throws Exception {
+		XSDWalker.Node l1 = node( "file:/l1.xsd", "urn:l1" );
+		XSDWalker.Node l2 = node( "file:/l2.xsd", "urn:l2" );
+		XSDWalker.Node s = node( "file:/s.xsd", "urn:s" );
+		XSDWalker.Node t = node( "file:/t.xsd", "urn:t" );
+		link( l1, s );
+		link( l1, t );
+		link( s, t );
+		link( l2, s );
+		SchemaGraph g = SchemaGraph.build( Arrays.asList( l1, l2, s, t ) );
+
+		StringWriter sw = new StringWriter();
+		PrintWriter pw = new PrintWriter( sw );
+		BitSet shown = new BitSet( g.size() );
+		XSDWalker.hierarchy( g, 0, pw, shown, true );
+		XSDWalker.hierarchy( g, 1, pw, shown, true );
+		pw.close();
+		assertEquals( Arrays.asList( "file:/l1.xsd",
+									 " file:/s.xsd",
+									 "  file:/t.xsd",
+									 " ^file:/t.xsd",
+									 "file:/l2.xsd",
+									 " ^file:/s.xsd" ),
+					  Arrays.asList( sw.toString().split( "\\r?\\n" ) ) );
+
+		// the tree form repeats the shared subtree
+		sw = new StringWriter();
+		pw = new PrintWriter( sw );
+		XSDWalker.hierarchy( g, 1, pw, new BitSet( g.size() ) );
+		pw.close();
+		assertEquals( 3, sw.toString().split( "\\r?\\n" ).length );
+	}
+
+	private XSDWalker.Node node( String location, String tns ) {
+		return new XSDWalker.Node( SchemaLocation.of( location ), tns );
+	}
+
+	private void link( XSDWalker.Node from, XSDWalker.Node to ) {
+		from.outs.add( to );
+		to.ins.add( from );
+	}
+}
+
+// eof
@@ -0,0 +1,52 @@
+/**
+ * Normalization and interning of SchemaLocation.
+ */
+public class SchemaLocationTest extends junit.framework.TestCase {
+
+	public void testNormalize() throws Exception {
+		same( "file:/a/b/c.xsd", "file:/a/b/c.xsd" );
+		same( "file:/a/b/c.xsd", "file:/a/x/../b/./c.xsd" );
+		same( "file:/a/b/c.xsd", "FILE:///a/b/c.xsd" );
+		same( "file:/c.xsd", "file:/../c.xsd" );
+		same( "http://stix.mitre.org/x/y.xsd",
+			  "HTTP://STIX.Mitre.ORG:80/x/z/../y.xsd" );
+		same( "https://h/x", "https://h:443/x/" );
+		same( "http://h:8080/x", "http://h:8080/x" );
+		same( "http://h/a/b?q=../x", "http://h/a/./b?q=../x" );
+		same( "jar:file:/s.zip!/a/c.xsd", "jar:file:/s.zip!/a/b/../c.xsd" );
+		// path case is significant
+		assertFalse( SchemaLocation.of( "file:/A.xsd" ).equals
+					 ( SchemaLocation.of( "file:/a.xsd" ) ) );
+	}
+
+	public void testInterned() throws Exception {
+		SchemaLocation l1 = SchemaLocation.of( "http://h/a/../b.xsd" );
+		SchemaLocation l2 = SchemaLocation.of( new java.net.URL
+											   ( "http://H/b.xsd" ) );
+		assertSame( l1, l2 );
+		assertEquals( 0, l1.compareTo( l2 ) );
+		assertTrue( l1.isRemote() );
+		assertFalse( SchemaLocation.of( "file:/b.xsd" ).isRemote() );
+	}
+
+	/*
+	  Nothing holds a location once its users are gone, so a daemon's
+	  runs do not accumulate them.
+	*/
+	public void testWeak() throws Exception {
+		java.lang.ref.WeakReference<SchemaLocation> ref =
+			new java.lang.ref.WeakReference<SchemaLocation>
+			( SchemaLocation.of( "file:/weak/" + System.nanoTime() ) );
+		for( int i = 0; i < 100 && ref.get() != null; i++ ) {
+			System.gc();
+			Thread.sleep( 10 );
+		}
+		assertNull( ref.get() );
+	}
+
+	private void same( String expected, String url ) {
+		assertEquals( expected, SchemaLocation.of( url ).toString() );
+	}
+}
+
+// eof
@@ -0,0 +1,136 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for a remote schema host (e.g. stix.mitre.org),
+ * used by the tests.  Serves documents from memory, with a strong ETag
+ * per document and honouring If-None-Match.  Counts requests, and the
+ * most ever in flight at once, and can add an artificial latency to
+ * each, or fail some with a 503.
+ */
+class SchemaServer {
+
+	SchemaServer() throws IOException {
+		docs = new ConcurrentHashMap<String,String>();
+		requests = new AtomicInteger();
+		notModified = new AtomicInteger();
+		inFlight = new AtomicInteger();
+		maxInFlight = new AtomicInteger();
+		failures = new AtomicInteger();
+		server = HttpServer.create( new InetSocketAddress( "127.0.0.1", 0 ),
+									0 );
+		server.createContext( "/", new HttpHandler() {
+				public void handle( HttpExchange he ) throws IOException {
+					serve( he );
+				}
+			} );
+		server.setExecutor( Executors.newCachedThreadPool() );
+		server.start();
+	}
+
+	void put( String path, String content ) {
+		docs.put( path, content );
+	}
+
+	void setLatency( long latency ) {
+		this.latency = latency;
+	}
+
+	/**
+	 * Answer the next n requests with 503 Service Unavailable.
+	 */
+	void failNext( int n ) {
+		failures.set( n );
+	}
+
+	URL url( String path ) throws IOException {
+		return new URL( "http://127.0.0.1:" +
+						server.getAddress().getPort() + path );
+	}
+
+	int requests() {
+		return requests.get();
+	}
+
+	int notModified() {
+		return notModified.get();
+	}
+
+	int maxInFlight() {
+		return maxInFlight.get();
+	}
+
+	void stop() {
+		server.stop( 0 );
+	}
+
+	private void serve( HttpExchange he ) throws IOException {
+		int n = inFlight.incrementAndGet();
+		int max;
+		while( n > ( max = maxInFlight.get() ) &&
+			   !maxInFlight.compareAndSet( max, n ) )
+			;
+		try {
+			serveOne( he );
+		} finally {
+			inFlight.decrementAndGet();
+		}
+	}
+
+	private void serveOne( HttpExchange he ) throws IOException {
+		requests.incrementAndGet();
+		InputStream is = he.getRequestBody();
+		while( is.read() != -1 )
+			;
+		if( latency > 0 ) {
+			try {
+				Thread.sleep( latency );
+			} catch( InterruptedException ie ) {
+			}
+		}
+		if( failures.getAndDecrement() > 0 ) {
+			he.sendResponseHeaders( 503, -1 );
+			he.close();
+			return;
+		}
+		String doc = docs.get( he.getRequestURI().getPath() );
+		if( doc == null ) {
+			he.sendResponseHeaders( 404, -1 );
+			he.close();
+			return;
+		}
+		String etag = "\"" + Integer.toHexString( doc.hashCode() ) + "\"";
+		he.getResponseHeaders().set( "ETag", etag );
+		if( etag.equals( he.getRequestHeaders().getFirst
+						 ( "If-None-Match" ) ) ) {
+			notModified.incrementAndGet();
+			he.sendResponseHeaders( 304, -1 );
+			he.close();
+			return;
+		}
+		byte[] bs = doc.getBytes( "UTF-8" );
+		he.sendResponseHeaders( 200, bs.length );
+		OutputStream os = he.getResponseBody();
+		os.write( bs );
+		os.close();
+	}
+
+	private final HttpServer server;
+	private final Map<String,String> docs;
+	private final AtomicInteger requests, notModified;
+	private final AtomicInteger inFlight, maxInFlight, failures;
+	private volatile long latency;
+}
+
+// eof
@@ -0,0 +1,207 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.*;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Sharding: what two sources share goes in a shard both depend on,
+ * namespace families are never split, and each wave is packed into at
+ * most 'width' shards.
+ */
+public class SharderTest extends junit.framework.TestCase {
+
+	/*
+	  a and b both import c, which imports d: c,d are one shard, on
+	  which those of a and b depend.
+	*/
+	public void testShared() throws Exception {
+		XSDWalker.Node a = node( "file:/a.xsd", "urn:a" );
+		XSDWalker.Node b = node( "file:/b.xsd", "urn:b" );
+		XSDWalker.Node c = node( "file:/c.xsd", "urn:c" );
+		XSDWalker.Node d = node( "file:/d.xsd", "urn:d" );
+		link( a, c );
+		link( b, c );
+		link( c, d );
+		SchemaGraph g = SchemaGraph.build( Arrays.asList( a, b, c, d ) );
+
+		List<Sharder.Shard> ss = Sharder.shard( g, g.prunedLeaves(), 2 );
+		assertEquals( 3, ss.size() );
+		assertEquals( "{2, 3}", ss.get( 0 ).members().toString() );
+		assertEquals( "{2}", ss.get( 0 ).imports().toString() );
+		assertEquals( 0, ss.get( 0 ).level() );
+		assertTrue( ss.get( 0 ).dependsOn().isEmpty() );
+		for( int s = 1; s < 3; s++ ) {
+			assertEquals( 1, ss.get( s ).size() );
+			assertEquals( 1, ss.get( s ).level() );
+			assertEquals( "{0}", ss.get( s ).dependsOn().toString() );
+		}
+
+		// one at a time, a and b share a shard
+		ss = Sharder.shard( g, g.prunedLeaves(), 1 );
+		assertEquals( 2, ss.size() );
+		assertEquals( "{0, 1}", ss.get( 1 ).imports().toString() );
+	}
+
+	/*
+	  x1 and x2 are one namespace, so one package: a and b then share
+	  it.  The chameleon piece goes with its includer.
+	*/
+	public void testFamilies() throws Exception {
+		XSDWalker.Node a = node( "file:/a.xsd", "urn:a" );
+		XSDWalker.Node b = node( "file:/b.xsd", "urn:b" );
+		XSDWalker.Node x1 = node( "file:/x1.xsd", "urn:x" );
+		XSDWalker.Node x2 = node( "file:/x2.xsd", "urn:x" );
+		XSDWalker.Node p = node( "file:/p.xsd", "" );
+		p.included = true;
+		link( a, x1 );
+		link( b, x2 );
+		link( a, p );
+		SchemaGraph g = SchemaGraph.build( Arrays.asList( a, b, x1, x2, p ) );
+
+		List<Sharder.Shard> ss = Sharder.shard( g, g.prunedLeaves(), 4 );
+		assertEquals( 3, ss.size() );
+		// ids in location order: a b p x1 x2
+		assertEquals( "{3, 4}", ss.get( 0 ).members().toString() );
+		assertEquals( "{3, 4}", ss.get( 0 ).imports().toString() );
+		Sharder.Shard sa = ss.get( 1 ).members().get( 0 ) ?
+			ss.get( 1 ) : ss.get( 2 );
+		assertEquals( "{0, 2}", sa.members().toString() );
+		assertEquals( "{0}", sa.imports().toString() );
+	}
+
+	/*
+	  A cycle no one imports, and a chain: 2 shards, neither needing
+	  the other.
+	*/
+	public void testIndependent() throws Exception {
+		XSDWalker.Node p = node( "file:/p.xsd", "urn:p" );
+		XSDWalker.Node q = node( "file:/q.xsd", "urn:q" );
+		XSDWalker.Node r = node( "file:/r.xsd", "urn:r" );
+		XSDWalker.Node s = node( "file:/s.xsd", "urn:s" );
+		XSDWalker.Node t = node( "file:/t.xsd", "urn:t" );
+		link( p, q );
+		link( q, p );
+		link( r, s );
+		link( s, t );
+		SchemaGraph g = SchemaGraph.build( Arrays.asList( p, q, r, s, t ) );
+
+		List<Sharder.Shard> ss = Sharder.shard( g, g.prunedLeaves(), 2 );
+		assertEquals( 2, ss.size() );
+		// largest first
+		assertEquals( "{2, 3, 4}", ss.get( 0 ).members().toString() );
+		assertEquals( "{0, 1}", ss.get( 1 ).members().toString() );
+		assertEquals( 1, ss.get( 1 ).imports().cardinality() );
+		for( Sharder.Shard sh : ss ) {
+			assertEquals( 0, sh.level() );
+			assertTrue( sh.dependsOn().isEmpty() );
+		}
+	}
+
+	/*
+	  Many independent sources, packed largest first into 3: no shard
+	  more than the largest source above any other.
+	*/
+	public void testBalance() throws Exception {
+		List<XSDWalker.Node> ns = new ArrayList<XSDWalker.Node>();
+		for( int i = 0; i < 20; i++ ) {
+			XSDWalker.Node root = node( "file:/" + i + ".xsd", "urn:" + i );
+			ns.add( root );
+			for( int k = 0; k < i % 7; k++ ) {
+				XSDWalker.Node n = node( "file:/" + i + "/" + k + ".xsd",
+										 "urn:" + i + "/" + k );
+				link( root, n );
+				ns.add( n );
+			}
+		}
+		SchemaGraph g = SchemaGraph.build( ns );
+		List<Sharder.Shard> ss = Sharder.shard( g, g.prunedLeaves(), 3 );
+		assertEquals( 3, ss.size() );
+		int min = Integer.MAX_VALUE, max = 0, total = 0;
+		for( Sharder.Shard s : ss ) {
+			min = Math.min( min, s.size() );
+			max = Math.max( max, s.size() );
+			total += s.size();
+		}
+		assertEquals( g.size(), total );
+		assertTrue( min + " " + max, max - min <= 7 );
+	}
+
+	public void testManifest() throws Exception {
+		XSDWalker.Node a = node( "file:/a.xsd", "urn:a" );
+		XSDWalker.Node b = node( "file:/b.xsd", "urn:b" );
+		XSDWalker.Node c = node( "file:/c.xsd", "urn:c" );
+		link( a, c );
+		link( b, c );
+		SchemaGraph g = SchemaGraph.build( Arrays.asList( a, b, c ) );
+		List<Sharder.Shard> ss = Sharder.shard( g, g.prunedLeaves(), 2 );
+		File f = File.createTempFile( "shards", ".json" );
+		try {
+			Sharder.writeManifest( ss, "out/set", 2, f );
+			String s = FileUtils.readFileToString( f );
+			assertTrue( s, s.contains( "\"schemas\": 3," ) );
+			assertTrue( s, s.contains( "\"file\": \"set-0.uber.xsd\"" ) );
+			assertTrue( s, s.contains( "\"dependsOn\": [ 0 ]" ) );
+		} finally {
+			f.delete();
+		}
+	}
+
+	/*
+	  Three independent schemas, so three shards, then two: with -i,
+	  the new width still means a rewrite, and the third shard goes.
+	*/
+	public void testRerun() throws Exception {
+		File dir = File.createTempFile( "shards", "" );
+		dir.delete();
+		dir.mkdirs();
+		try {
+			for( String s : new String[] { "a", "b", "c" } )
+				FileUtils.writeStringToFile
+					( new File( dir, "in/" + s + ".xsd" ),
+					  "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'" +
+					  " targetNamespace='urn:" + s + "'/>" );
+			assertEquals( "Shards: 3", run( dir, "3" ) );
+			assertTrue( new File( dir, "set-2.uber.xsd" ).isFile() );
+
+			assertEquals( "Shards: 2", run( dir, "2" ) );
+			assertTrue( new File( dir, "set-1.uber.xsd" ).isFile() );
+			assertFalse( new File( dir, "set-2.uber.xsd" ).exists() );
+			assertEquals( 2, Sharder.readWidth
+						  ( new File( dir, "set.shards.json" ) ) );
+
+			// unchanged, so nothing rewritten
+			assertNull( run( dir, "2" ) );
+		} finally {
+			FileUtils.deleteDirectory( dir );
+		}
+	}
+
+	/**
+	 * @return The run's 'Shards: ' line, if any.
+	 */
+	private String run( File dir, String width ) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		PrintStream ps = new PrintStream( bos );
+		assertEquals( 0, XSDWalker.run
+					  ( new String[] { "-i", "-u", "set", "--shards", width,
+									   "in" }, dir, ps, ps, null ) );
+		for( String line : bos.toString().split( "\\r?\\n" ) ) {
+			if( line.startsWith( "Shards: " ) )
+				return line;
+		}
+		return null;
+	}
+
+	private XSDWalker.Node node( String location, String tns ) {
+		return new XSDWalker.Node( SchemaLocation.of( location ), tns );
+	}
+
+	private void link( XSDWalker.Node from, XSDWalker.Node to ) {
+		from.outs.add( to );
+		to.ins.add( from );
+	}
+}
+
+// eof
@@ -0,0 +1,175 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.util.*;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tree shaking keeps just the schemas a root's declarations need,
+ * following references across imports and into chameleon includes.
+ */
+public class TreeShakerTest extends junit.framework.TestCase {
+
+	protected void setUp() throws Exception {
+		dir = File.createTempFile( "shake", "" );
+		dir.delete();
+		dir.mkdirs();
+		schema( "po.xsd", "urn:po",
+				"<xs:import namespace='urn:addr' schemaLocation='addr.xsd'/>" +
+				"<xs:import namespace='urn:big' schemaLocation='big.xsd'/>" +
+				"<xs:element name='purchaseOrder' type='po:POType'/>" +
+				"<xs:complexType name='POType'><xs:sequence>" +
+				" <xs:element name='shipTo' type='a:Address'/>" +
+				"</xs:sequence></xs:complexType>" +
+				"<xs:element name='invoice' type='b:Huge'/>" );
+		// unqualified references are to the default namespace
+		schema( "addr.xsd", "urn:addr",
+				"<xs:include schemaLocation='addr-part.xsd'/>" +
+				"<xs:complexType name='Address'><xs:complexContent>" +
+				" <xs:extension base='Base'/>" +
+				"</xs:complexContent></xs:complexType>" );
+		// a chameleon, so adopting urn:addr
+		schema( "addr-part.xsd", null,
+				"<xs:complexType name='Base'>" +
+				" <xs:attribute name='code' type='Code'/>" +
+				"</xs:complexType>" +
+				"<xs:simpleType name='Code'>" +
+				" <xs:restriction base='xs:string'/></xs:simpleType>" );
+		schema( "big.xsd", "urn:big",
+				"<xs:import namespace='urn:other'" +
+				" schemaLocation='other.xsd'/>" +
+				"<xs:complexType name='Huge'><xs:sequence>" +
+				" <xs:element ref='o:thing'/>" +
+				"</xs:sequence></xs:complexType>" );
+		schema( "other.xsd", "urn:other",
+				"<xs:element name='thing' type='xs:string'/>" );
+		schema( "unused.xsd", "urn:unused",
+				"<xs:element name='nothing' type='xs:string'/>" );
+	}
+
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory( dir );
+	}
+
+	public void testIndex() throws Exception {
+		Parser p = new Parser();
+		p.setIndexing( true );
+		SchemaInfo si = p.parse( new File( dir, "po.xsd" ) );
+		assertEquals( 2, si.getDependencies().size() );
+		Map<Component,List<Component>> ds = si.getDeclarations();
+		assertEquals( 3, ds.size() );
+		assertEquals( Arrays.asList
+					  ( new Component( Component.Space.TYPE, "urn:addr",
+									   "Address" ) ),
+					  ds.get( new Component( Component.Space.TYPE,
+											 "urn:po", "POType" ) ) );
+		// built-in types are not references
+		si = p.parse( new File( dir, "other.xsd" ) );
+		assertTrue( si.getDeclarations().values().iterator().next().
+					isEmpty() );
+		// not indexing, no declarations
+		assertNull( new Parser().parse( new File( dir, "po.xsd" ) ).
+					getDeclarations() );
+	}
+
+	public void testAcrossIncludes() throws Exception {
+		TreeShaker ts = shake( "{urn:addr}Address", 1 );
+		assertEquals( Arrays.asList( "addr-part.xsd", "addr.xsd" ),
+					  names( ts.declaring() ) );
+		assertEquals( Arrays.asList( "addr-part.xsd", "addr.xsd" ),
+					  names( ts.closure() ) );
+		assertEquals( Arrays.asList( "addr.xsd" ), names( shaken ) );
+		assertEquals( 3, ts.components() );
+	}
+
+	public void testAcrossImports() throws Exception {
+		TreeShaker ts = shake( "Huge", 4 );
+		assertEquals( Arrays.asList( "big.xsd", "other.xsd" ),
+					  names( ts.declaring() ) );
+		// other.xsd is loaded via big.xsd, so need not be imported
+		assertEquals( Arrays.asList( "big.xsd" ), names( shaken ) );
+	}
+
+	public void testRoots() throws Exception {
+		TreeShaker ts = shake( "purchaseOrder", 2 );
+		assertEquals( Arrays.asList( "po.xsd" ), names( shaken ) );
+		assertFalse( names( ts.closure() ).contains( "unused.xsd" ) );
+		ts = shake( "nosuch", 2 );
+		assertEquals( Arrays.asList( "nosuch" ), ts.missing() );
+		assertTrue( shaken.isEmpty() );
+	}
+
+	public void testRun() throws Exception {
+		File uber = new File( dir, "out" );
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		PrintStream ps = new PrintStream( new ByteArrayOutputStream() );
+		assertEquals( 0, XSDWalker.run
+					  ( new String[] { "-r", "{urn:big}Huge", "-r", "Code",
+									   "-u", uber.getPath(),
+									   dir.getPath() },
+						null, ps, new PrintStream( err ), null ) );
+		String s = FileUtils.readFileToString
+			( new File( dir, "out.uber.xsd" ) );
+		assertTrue( s, s.contains( "big.xsd" ) );
+		assertTrue( s, s.contains( "addr.xsd" ) );
+		assertFalse( s, s.contains( "po.xsd" ) );
+		assertFalse( s, s.contains( "unused.xsd" ) );
+
+		assertEquals( 1, XSDWalker.run
+					  ( new String[] { "-r", "nosuch", "-u", uber.getPath(),
+									   dir.getPath() },
+						null, ps, new PrintStream( err ), null ) );
+		assertTrue( err.toString().contains( "nosuch" ) );
+		assertEquals( 1, XSDWalker.run
+					  ( new String[] { "-d", "-r", "Code", dir.getPath() },
+						null, ps, new PrintStream( err ), null ) );
+	}
+
+	private TreeShaker shake( String root, int threads ) throws Exception {
+		XSDWalker w = new XSDWalker();
+		w.setThreads( threads );
+		w.setIndexing( true );
+		TreeShaker result = new TreeShaker( Arrays.asList( root ) );
+		w.addListener( result );
+		List<URL> us = new ArrayList<URL>();
+		for( File f : FileUtils.listFiles( dir, new String[] { "xsd" },
+										   false ) )
+			us.add( f.toURI().toURL() );
+		graph = SchemaGraph.build( w.process( us ) );
+		assertEquals( 6, graph.size() );
+		shaken = result.shake( graph );
+		return result;
+	}
+
+	private List<String> names( BitSet ids ) {
+		List<String> result = new ArrayList<String>();
+		for( int i = ids.nextSetBit( 0 ); i >= 0; i = ids.nextSetBit( i+1 ) ) {
+			String s = graph.location( i ).toString();
+			result.add( s.substring( s.lastIndexOf( '/' ) + 1 ) );
+		}
+		return result;
+	}
+
+	private void schema( String name, String tns, String body )
+		throws Exception {
+		PrintWriter pw = new PrintWriter
+			( new FileWriter( new File( dir, name ) ) );
+		pw.println( "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'" +
+					" xmlns:po='urn:po' xmlns:a='urn:addr' xmlns:b='urn:big'" +
+					" xmlns:o='urn:other'" +
+					( tns == null ? "" : " xmlns='" + tns + "'" +
+					  " targetNamespace='" + tns + "'" ) + ">" + body +
+					"</xs:schema>" );
+		pw.close();
+	}
+
+	private File dir;
+	private SchemaGraph graph;
+	private BitSet shaken;
+}
+
+// eof
@@ -0,0 +1,73 @@
+import java.io.File;
+import java.util.Arrays;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * The uber xsd is well-formed whatever the namespaces and locations
+ * hold, with the targetNamespace and import order asked for.
+ */
+public class UberXSDTest extends junit.framework.TestCase {
+
+	protected void setUp() throws Exception {
+		XSDWalker.Node a = node( "http://h/a.xsd?x=1&y=2", "urn:z&\"<" );
+		XSDWalker.Node b = node( "http://h/b.xsd", "urn:b" );
+		XSDWalker.Node c = node( "http://h/c.xsd", "" );
+		g = SchemaGraph.build( Arrays.asList( a, b, c ) );
+		uber = File.createTempFile( "uber", ".xsd" );
+	}
+
+	protected void tearDown() throws Exception {
+		uber.delete();
+	}
+
+	public void testDefaults() throws Exception {
+		XSDWalker.toUberXSD( g, "xs", uber );
+		Element root = parse().getDocumentElement();
+		assertEquals( "http://www.w3.org/2001/XMLSchema",
+					  root.getNamespaceURI() );
+		assertEquals( uber.getName(), root.getAttribute( "targetNamespace" ) );
+		NodeList imports = root.getElementsByTagNameNS
+			( "http://www.w3.org/2001/XMLSchema", "import" );
+		assertEquals( 3, imports.getLength() );
+		Element i0 = (Element)imports.item( 0 );
+		assertEquals( "urn:z&\"<", i0.getAttribute( "namespace" ) );
+		assertEquals( "http://h/a.xsd?x=1&y=2",
+					  i0.getAttribute( "schemaLocation" ) );
+		// a no-namespace schema's import has no namespace attribute
+		assertFalse( ( (Element)imports.item( 2 ) ).hasAttribute
+					 ( "namespace" ) );
+	}
+
+	public void testNamespaceOrder() throws Exception {
+		XSDWalker.toUberXSD( g, "xsd", uber, "urn:uber", true );
+		Element root = parse().getDocumentElement();
+		assertEquals( "xsd", root.getPrefix() );
+		assertEquals( "urn:uber", root.getAttribute( "targetNamespace" ) );
+		NodeList imports = root.getElementsByTagNameNS
+			( "http://www.w3.org/2001/XMLSchema", "import" );
+		String[] expected = { "http://h/c.xsd", "http://h/b.xsd",
+							  "http://h/a.xsd?x=1&y=2" };
+		for( int i = 0; i < expected.length; i++ )
+			assertEquals( expected[i], ( (Element)imports.item( i ) ).
+						  getAttribute( "schemaLocation" ) );
+	}
+
+	private Document parse() throws Exception {
+		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+		dbf.setNamespaceAware( true );
+		return dbf.newDocumentBuilder().parse( uber );
+	}
+
+	private XSDWalker.Node node( String location, String tns ) {
+		return new XSDWalker.Node( SchemaLocation.of( location ), tns );
+	}
+
+	private SchemaGraph g;
+	private File uber;
+}
+
+// eof
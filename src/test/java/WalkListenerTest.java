@@ -0,0 +1,165 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Listeners hear of every node, edge, mismatch and failure the walk
+ * meets, and a WalkStream yields every node, holding up the walk when
+ * its consumer falls behind.
+ */
+public class WalkListenerTest extends junit.framework.TestCase {
+
+	protected void setUp() throws Exception {
+		dir = File.createTempFile( "listen", "" );
+		dir.delete();
+		dir.mkdirs();
+		roots = new ArrayList<URL>();
+		for( int l = 0; l < LAYERS; l++ ) {
+			for( int w = 0; w < WIDTH; w++ ) {
+				File f = new File( dir, name( l, w ) );
+				PrintWriter pw = new PrintWriter( new FileWriter( f ) );
+				pw.println( "<xs:schema xmlns:xs=" +
+							"'http://www.w3.org/2001/XMLSchema'" +
+							" targetNamespace='urn:" + name( l, w ) + "'>" );
+				if( l < LAYERS - 1 ) {
+					for( int k = 0; k < 2; k++ ) {
+						String tgt = name( l+1, (w + k) % WIDTH );
+						pw.println( "<xs:import namespace='urn:" + tgt +
+									"' schemaLocation='" + tgt + "'/>" );
+					}
+					// namespace mismatch, no edge
+					pw.println( "<xs:import namespace='urn:bogus'" +
+								" schemaLocation='" + name( l+1, w ) + "'/>" );
+				}
+				pw.println( "<xs:import namespace='urn:missing'" +
+							" schemaLocation='missing.xsd'/>" );
+				pw.println( "</xs:schema>" );
+				pw.close();
+				if( l == 0 )
+					roots.add( f.toURI().toURL() );
+			}
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory( dir );
+	}
+
+	public void testSequential() throws Exception {
+		events( 1 );
+	}
+
+	public void testConcurrent() throws Exception {
+		Recorder r = events( 4 );
+		// edges are wired once all nodes are found
+		assertTrue( r.lastDiscovery < r.firstEdge );
+	}
+
+	public void testStream() throws Exception {
+		XSDWalker w = new XSDWalker();
+		w.setThreads( 3 );
+		WalkStream s = w.stream( roots, 2 );
+		Set<XSDWalker.Node> seen = new HashSet<XSDWalker.Node>();
+		while( s.hasNext() )
+			assertTrue( seen.add( s.next() ) );
+		Collection<XSDWalker.Node> g = s.graph();
+		assertEquals( LAYERS * WIDTH, g.size() );
+		assertEquals( new HashSet<XSDWalker.Node>( g ), seen );
+		assertEquals( 2 * ( LAYERS - 1 ) * WIDTH, edges( g ) );
+	}
+
+	public void testBackPressure() throws Exception {
+		XSDWalker w = new XSDWalker();
+		Recorder r = new Recorder();
+		w.addListener( r );
+		WalkStream s = w.stream( roots, 1 );
+		assertTrue( s.hasNext() );
+		Thread.sleep( 300 );
+		// one taken, one queued, one waiting for room
+		assertTrue( "" + r.discovered.size(), r.discovered.size() <= 3 );
+		s.close();
+		assertFalse( s.hasNext() );
+		try {
+			s.graph();
+			fail();
+		} catch( CancellationException expected ) {
+		}
+	}
+
+	private Recorder events( int threads ) throws Exception {
+		XSDWalker w = new XSDWalker();
+		w.setThreads( threads );
+		Recorder r = new Recorder();
+		w.addListener( r );
+		Collection<XSDWalker.Node> g = w.process( roots );
+		assertEquals( 1, r.completions );
+		assertSame( g, r.completed );
+		assertEquals( new HashSet<XSDWalker.Node>( g ),
+					  new HashSet<XSDWalker.Node>( r.discovered ) );
+		assertEquals( g.size(), r.discovered.size() );
+		assertEquals( edges( g ), r.edges );
+		assertEquals( ( LAYERS - 1 ) * WIDTH, r.mismatches );
+		assertFalse( r.failed.isEmpty() );
+		for( SchemaLocation u : r.failed )
+			assertTrue( u.toString().endsWith( "/missing.xsd" ) );
+		return r;
+	}
+
+	static private int edges( Collection<XSDWalker.Node> ns ) {
+		int result = 0;
+		for( XSDWalker.Node n : ns )
+			result += n.outs.size();
+		return result;
+	}
+
+	static class Recorder implements WalkListener {
+		public void nodeDiscovered( XSDWalker.Node n, SchemaInfo info ) {
+			assertEquals( n.targetNamespace, info.targetNamespace );
+			discovered.add( n );
+			lastDiscovery = events++;
+		}
+		public void edgeAdded( XSDWalker.Node from, XSDWalker.Node to,
+							   ImportInfo ii ) {
+			assertTrue( from.outs.contains( to ) );
+			if( edges++ == 0 )
+				firstEdge = events;
+			events++;
+		}
+		public void parseFailed( SchemaLocation u, Exception e ) {
+			failed.add( u );
+			events++;
+		}
+		public void namespaceMismatch( XSDWalker.Node from,
+									   XSDWalker.Node to, ImportInfo ii ) {
+			assertEquals( "urn:bogus", ii.namespace );
+			mismatches++;
+			events++;
+		}
+		public void walkCompleted( Collection<XSDWalker.Node> nodes ) {
+			completed = nodes;
+			completions++;
+		}
+		final List<XSDWalker.Node> discovered =
+			Collections.synchronizedList( new ArrayList<XSDWalker.Node>() );
+		final List<SchemaLocation> failed = new ArrayList<SchemaLocation>();
+		int events, edges, mismatches, completions;
+		int lastDiscovery, firstEdge;
+		Collection<XSDWalker.Node> completed;
+	}
+
+	private String name( int layer, int w ) {
+		return "s" + layer + "_" + w + ".xsd";
+	}
+
+	static private final int LAYERS = 5, WIDTH = 6;
+
+	private File dir;
+	private List<URL> roots;
+}
+
+// eof
@@ -0,0 +1,181 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * After each update, a Watcher's outputs are as a fresh run over the
+ * same inputs would write them, and are rewritten only if changed.
+ */
+public class WatcherTest extends junit.framework.TestCase {
+
+	protected void setUp() throws Exception {
+		dir = File.createTempFile( "watcher", "" );
+		dir.delete();
+		dir.mkdirs();
+		set = new File( dir, "set" );
+		a = new File( set, "a.xsd" );
+		b = new File( dir, "lib/b.xsd" );
+		schema( a, "urn:a",
+				"<xs:import namespace='urn:b' schemaLocation='../lib/b.xsd'/>" );
+		schema( b, "urn:b", "<xs:include schemaLocation='b2.xsd'/>" );
+		schema( new File( dir, "lib/b2.xsd" ), "urn:b", "" );
+		schema( new File( set, "sub/c.xsd" ), "urn:c", "" );
+		out = new File( dir, "out" );
+		out.mkdirs();
+		watcher = new Watcher( new XSDWalker(), new DirectoryScanner( 2 ),
+							   new ArrayList<URL>(), new ArrayList<File>(),
+							   Collections.singletonList( set ),
+							   new PrintStream( new ByteArrayOutputStream() ) );
+		watcher.setOutputs( new File( out, "set.uber.xsd" ),
+							new File( out, "set.txt" ),
+							new File( out, "set.graph" ) );
+	}
+
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory( dir );
+	}
+
+	public void testBuild() throws Exception {
+		watcher.build();
+		assertEquals( 4, watcher.nodes().size() );
+		assertFresh();
+	}
+
+	public void testEdits() throws Exception {
+		watcher.build();
+
+		// drop the import, so b and b2 go
+		schema( a, "urn:a", "" );
+		update( a );
+		assertEquals( 2, watcher.nodes().size() );
+		assertFresh();
+
+		// and back
+		schema( a, "urn:a",
+				"<xs:import namespace='urn:b' schemaLocation='../lib/b.xsd'/>" );
+		update( a );
+		assertEquals( 4, watcher.nodes().size() );
+		assertFresh();
+
+		// a new dependency, of a schema not itself touched
+		schema( new File( dir, "lib/b2.xsd" ), "urn:b",
+				"<xs:include schemaLocation='b3.xsd'/>" );
+		schema( new File( dir, "lib/b3.xsd" ), "urn:b", "" );
+		update( new File( dir, "lib/b2.xsd" ), new File( dir, "lib/b3.xsd" ) );
+		assertEquals( 5, watcher.nodes().size() );
+		assertFresh();
+
+		// an import gone missing
+		b.delete();
+		update( b );
+		assertEquals( 2, watcher.nodes().size() );
+		assertFresh();
+
+		// roots added and removed
+		File c = new File( set, "sub/c.xsd" );
+		File d = new File( set, "d.xsd" );
+		c.delete();
+		schema( d, "urn:d", "" );
+		update( c, d );
+		assertTrue( watcher.nodes().containsKey( location( d ) ) );
+		assertFalse( watcher.nodes().containsKey( location( c ) ) );
+		assertFresh();
+	}
+
+	public void testUnchangedOutputsNotRewritten() throws Exception {
+		watcher.build();
+		int n = watcher.rewrites();
+		assertEquals( 3, n );
+		FileWriter fw = new FileWriter( a, true );
+		fw.write( "\n\n" );
+		fw.close();
+		update( a );
+		assertEquals( n, watcher.rewrites() );
+	}
+
+	public void testWatch() throws Exception {
+		watcher.setDebounce( 50 );
+		Thread t = new Thread( new Runnable() {
+				public void run() {
+					try {
+						watcher.watch();
+					} catch( Exception e ) {
+						e.printStackTrace();
+					}
+				}
+			} );
+		t.start();
+		try {
+			File uber = new File( out, "set.uber.xsd" );
+			waitFor( uber, "c.xsd" );
+			File d = new File( set, "sub/d.xsd" );
+			schema( d, "urn:d", "" );
+			waitFor( uber, "d.xsd" );
+			// the graph is written last
+			waitFor( new File( out, "set.graph" ), "d.xsd" );
+			assertFresh();
+		} finally {
+			t.interrupt();
+			t.join( 10000 );
+		}
+		assertFalse( t.isAlive() );
+	}
+
+	private void update( File... fs ) throws Exception {
+		watcher.update( Arrays.asList( fs ) );
+	}
+
+	private SchemaLocation location( File f ) throws Exception {
+		return SchemaLocation.of( f.toURI().toURL() );
+	}
+
+	// outputs as from a one-off run
+	private void assertFresh() throws Exception {
+		File fresh = new File( dir, "fresh" );
+		FileUtils.deleteDirectory( fresh );
+		fresh.mkdirs();
+		int status = XSDWalker.run
+			( new String[] { "-g", "-u", new File( fresh, "set" ).getPath(),
+							 set.getPath() },
+			  null, new PrintStream( new ByteArrayOutputStream() ),
+			  System.err, null );
+		assertEquals( 0, status );
+		for( String s : new String[] { "set.uber.xsd", "set.txt",
+									   "set.graph" } ) {
+			assertEquals( s,
+						  FileUtils.readFileToString( new File( fresh, s ) ),
+						  FileUtils.readFileToString( new File( out, s ) ) );
+		}
+	}
+
+	static private void waitFor( File f, String s ) throws Exception {
+		long end = System.currentTimeMillis() + 10000;
+		while( !( f.isFile() &&
+				  FileUtils.readFileToString( f ).contains( s ) ) ) {
+			assertTrue( f + " lacks " + s, System.currentTimeMillis() < end );
+			Thread.sleep( 50 );
+		}
+	}
+
+	private void schema( File f, String tns, String body ) throws Exception {
+		f.getParentFile().mkdirs();
+		PrintWriter pw = new PrintWriter( new FileWriter( f ) );
+		pw.println( "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'" +
+					" targetNamespace='" + tns + "'>" + body +
+					"</xs:schema>" );
+		pw.close();
+	}
+
+	private File dir, set, a, b, out;
+	private Watcher watcher;
+}
+
+// eof
@@ -0,0 +1,10 @@
+#!/bin/sh
+
+# As xsdwalker.sh, but run by a running xsdwalkerd.sh, see Client.java
+
+ARTIFACT=xsdwalker-1.0
+JAR=$ARTIFACT.jar
+
+java -cp target/$JAR Client "$@"
+
+# eof
@@ -0,0 +1,10 @@
+#!/bin/sh
+
+# Resident xsdwalker, see Daemon.java.  Optional arg: port
+
+ARTIFACT=xsdwalker-1.0
+JAR=$ARTIFACT.jar
+
+java -cp target/$JAR Daemon "$@"
+
+# eof